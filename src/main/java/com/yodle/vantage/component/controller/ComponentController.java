@@ -15,9 +15,12 @@
  */
 package com.yodle.vantage.component.controller;
 
+import java.io.IOException;
 import java.util.List;
 import java.util.Optional;
 
+import javax.servlet.http.HttpServletResponse;
+
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -29,7 +32,11 @@ import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestMethod;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.WebRequest;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.yodle.vantage.component.domain.Dependency;
+import com.yodle.vantage.component.domain.Page;
 import com.yodle.vantage.component.domain.VantageComponent;
 import com.yodle.vantage.component.domain.Version;
 import com.yodle.vantage.component.service.ComponentService;
@@ -43,11 +50,32 @@ public class ComponentController {
 
     @Autowired private ComponentService componentService;
     @Autowired private QueueService queueService;
+    @Autowired private ObjectMapper objectMapper;
     private final static Logger l = LoggerFactory.getLogger(ComponentController.class);
 
+    //GETs answer If-None-Match from the component's revision, or the total of every component's revision for lists, before
+    //reading anything else, and return nothing once Spring has set the response to 304 Not Modified
     @RequestMapping(value = "", method = RequestMethod.GET)
-    public List<VantageComponent> getAllComponents() {
-        return componentService.getAllComponents();
+    public void getAllComponents(WebRequest request, HttpServletResponse response) throws IOException {
+        if (request.checkNotModified(etag(componentService.getRevision()))) {
+            return;
+        }
+        JsonArrays.write(objectMapper, response, componentService::getAllComponents);
+    }
+
+    //Without a limit every component is returned in one unpaged list, as before paging was added
+    @RequestMapping(value = "", method = RequestMethod.GET, params = "limit")
+    public Page<VantageComponent> getComponents(
+            @RequestParam("limit") int limit,
+            @RequestParam(value = "cursor", required = false) String cursor,
+            @RequestParam(value = "q", required = false) String query,
+            @RequestParam(value = "sort", defaultValue = "name") String sort,
+            WebRequest request
+    ) {
+        if (request.checkNotModified(etag(componentService.getRevision()))) {
+            return null;
+        }
+        return componentService.getComponents(query, sort, cursor, limit);
     }
 
     @RequestMapping(value = "/{component:.+}", method = RequestMethod.PUT)
@@ -56,7 +84,10 @@ public class ComponentController {
     }
 
     @RequestMapping(value = "/{component:.+}", method = RequestMethod.GET)
-    public VantageComponent getComponent(@PathVariable String component) {
+    public VantageComponent getComponent(@PathVariable String component, WebRequest request) {
+        if (request.checkNotModified(etag(componentService.getRevision(component)))) {
+            return null;
+        }
         Optional<VantageComponent> componentOpt = componentService.getComponent(component);
 
         return componentOpt.orElseThrow(() -> new NoComponentFoundException(component));
@@ -77,12 +108,46 @@ public class ComponentController {
     }
 
     @RequestMapping(value = "/{component}/versions", method = RequestMethod.GET)
-    public List<Version> getVersionsOfComponent(@PathVariable String component) {
+    public List<Version> getVersionsOfComponent(@PathVariable String component, WebRequest request) {
+        if (request.checkNotModified(etag(componentService.getRevision(component)))) {
+            return null;
+        }
         return componentService.getVersions(component).orElseThrow(() -> new NoComponentFoundException(component));
     }
 
     @RequestMapping(value = "/{component}/versions/{version:.+}", method = RequestMethod.GET)
-    public Version getVersion(@PathVariable String component, @PathVariable String version) {
+    public Version getVersion(@PathVariable String component, @PathVariable String version, WebRequest request) {
+        if (request.checkNotModified(etag(componentService.getRevision(component)))) {
+            return null;
+        }
         return componentService.getVersion(component, version).orElseThrow(() -> new NoVersionFoundException(component, version));
     }
+
+    //Versions only hold the first of their active direct dependents along with how many there are.  This pages through
+    //all of them, or through dependents further away
+    @RequestMapping(value = "/{component}/versions/{version:.+}/dependents", method = RequestMethod.GET)
+    public Page<Dependency> getDependents(
+            @PathVariable String component,
+            @PathVariable String version,
+            @RequestParam(value = "limit", defaultValue = "100") int limit,
+            @RequestParam(value = "cursor", required = false) String cursor,
+            @RequestParam(value = "depth", defaultValue = "1") int depth,
+            @RequestParam(value = "activeOnly", defaultValue = "true") boolean activeOnly,
+            @RequestParam(value = "profile", required = false) String profile,
+            @RequestParam(value = "sort", defaultValue = "component") String sort,
+            WebRequest request
+    ) {
+        //only direct dependents change the version's own component, so anything further away has to be checked against
+        //every component
+        long revision = depth == 1 ? componentService.getRevision(component) : componentService.getRevision();
+        if (request.checkNotModified(etag(revision))) {
+            return null;
+        }
+        return componentService.getDependents(component, version, depth, activeOnly, profile, sort, cursor, limit)
+                .orElseThrow(() -> new NoVersionFoundException(component, version));
+    }
+
+    private static String etag(long revision) {
+        return "\"" + revision + "\"";
+    }
 }
@@ -15,38 +15,109 @@
  */
 package com.yodle.vantage.component.controller;
 
-import java.util.Set;
+import java.io.IOException;
+import java.util.List;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.HttpMessageNotReadableException;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.WebRequest;
 
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.yodle.vantage.component.domain.ImpactedVersion;
 import com.yodle.vantage.component.domain.Issue;
+import com.yodle.vantage.component.domain.IssueStatus;
+import com.yodle.vantage.component.domain.Page;
 import com.yodle.vantage.component.service.IssueService;
 import com.yodle.vantage.exception.NoIssueFoundException;
 
 @RestController
-@RequestMapping("/api/v1/issues")
+//the bulk endpoint isn't under /issues, so mappings here include it themselves
+@RequestMapping("/api/v1")
 public class IssueController {
+    private static final String NDJSON = "application/x-ndjson";
+
     @Autowired private IssueService issueService;
+    @Autowired private ObjectMapper objectMapper;
 
-    @RequestMapping(value = "/{issueId}", method = RequestMethod.PUT)
+    @RequestMapping(value = "/issues/{issueId}", method = RequestMethod.PUT)
     public Issue addIssue(@RequestBody Issue issue) {
         return issueService.createOrUpdate(issue);
     }
 
-    @RequestMapping(value = "/{issueId}", method = RequestMethod.GET)
-    public Issue getIssue(@PathVariable("issueId") String issue) {
+    @RequestMapping(value = "/issues:bulk", method = RequestMethod.POST, consumes = MediaType.APPLICATION_JSON_VALUE)
+    public List<IssueStatus> addIssues(@RequestBody List<Issue> issues) {
+        return issueService.createOrUpdate(issues);
+    }
+
+    //one issue per line
+    @RequestMapping(value = "/issues:bulk", method = RequestMethod.POST, consumes = NDJSON)
+    public List<IssueStatus> addIssuesFromNdjson(HttpServletRequest request) throws IOException {
+        List<Issue> issues;
+        try (MappingIterator<Issue> lines = objectMapper.readerFor(Issue.class).readValues(request.getInputStream())) {
+            issues = lines.readAll();
+        } catch (JsonProcessingException e) {
+            //reported the same way as an unreadable JSON body
+            throw new HttpMessageNotReadableException("Could not read issues: " + e.getMessage(), e);
+        }
+        return issueService.createOrUpdate(issues);
+    }
+
+    //Issue GETs answer If-None-Match from the revision shared by every issue before reading anything else, and return
+    //nothing once Spring has set the response to 304 Not Modified
+    @RequestMapping(value = "/issues/{issueId}", method = RequestMethod.GET)
+    public Issue getIssue(@PathVariable("issueId") String issue, WebRequest request) {
+        if (request.checkNotModified(etag(issueService.getRevision()))) {
+            return null;
+        }
         return issueService.getIssue(issue).orElseThrow(() -> new NoIssueFoundException(issue));
     }
 
-    @RequestMapping(value = "", method = RequestMethod.GET)
-    public Set<Issue> getIssues() {
-        return issueService.getIssues();
+    @RequestMapping(value = "/issues", method = RequestMethod.GET)
+    public void getIssues(WebRequest request, HttpServletResponse response) throws IOException {
+        if (request.checkNotModified(etag(issueService.getRevision()))) {
+            return;
+        }
+        JsonArrays.<Issue>write(objectMapper, response, issueService::getIssues);
     }
 
+    //Without a limit every issue is returned in one unpaged set, as before paging was added
+    @RequestMapping(value = "/issues", method = RequestMethod.GET, params = "limit")
+    public Page<Issue> getIssues(
+            @RequestParam("limit") int limit,
+            @RequestParam(value = "cursor", required = false) String cursor,
+            @RequestParam(value = "q", required = false) String query,
+            @RequestParam(value = "sort", defaultValue = "id") String sort,
+            WebRequest request
+    ) {
+        if (request.checkNotModified(etag(issueService.getRevision()))) {
+            return null;
+        }
+        return issueService.getIssues(query, sort, cursor, limit);
+    }
 
+    @RequestMapping(value = "/issues/{issueId}/impact", method = RequestMethod.GET)
+    public Page<ImpactedVersion> getImpact(
+            @PathVariable("issueId") String issueId,
+            @RequestParam(value = "limit", defaultValue = "100") int limit,
+            @RequestParam(value = "cursor", required = false) String cursor,
+            @RequestParam(value = "sort", defaultValue = "component") String sort
+    ) {
+        return issueService.getImpact(issueId, sort, cursor, limit).orElseThrow(() -> new NoIssueFoundException(issueId));
+    }
+
+    private static String etag(long revision) {
+        return "\"" + revision + "\"";
+    }
 }
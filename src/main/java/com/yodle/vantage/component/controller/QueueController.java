@@ -0,0 +1,49 @@
+/*
+ * Copyright 2016 Yodle, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+
+ *     http://www.apache.org/licenses/LICENSE-2.0
+
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yodle.vantage.component.controller;
+
+import java.util.List;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.ResponseStatus;
+import org.springframework.web.bind.annotation.RestController;
+
+import com.yodle.vantage.component.domain.DeadLetteredCreateRequest;
+import com.yodle.vantage.component.service.QueueService;
+import com.yodle.vantage.exception.NoDeadLetterFoundException;
+
+@RestController
+@RequestMapping("/api/v1/queue")
+public class QueueController {
+    @Autowired private QueueService queueService;
+
+    @RequestMapping(value = "/dead-letters", method = RequestMethod.GET)
+    public List<DeadLetteredCreateRequest> getDeadLetters() {
+        return queueService.getDeadLetteredCreateRequests();
+    }
+
+    @RequestMapping(value = "/dead-letters/{id}/replay", method = RequestMethod.POST)
+    @ResponseStatus(HttpStatus.ACCEPTED)
+    public void replayDeadLetter(@PathVariable String id) {
+        if (!queueService.replayDeadLetteredCreateRequest(id)) {
+            throw new NoDeadLetterFoundException(id);
+        }
+    }
+}
@@ -15,15 +15,19 @@
  */
 package com.yodle.vantage.component.dao;
 
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
 import javax.annotation.PostConstruct;
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.ColumnMapRowMapper;
 import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
 import org.springframework.stereotype.Component;
 
 import com.yodle.vantage.component.domain.VantageComponent;
@@ -32,19 +36,19 @@ import com.yodle.vantage.component.domain.VantageComponent;
 public class ComponentDao {
 
     private static final String ALL_COMPONENTS_QUERY = "MATCH (c:Component) " +
-            "OPTIONAL MATCH (c)<-[:VERSION_OF]-(v:Version) " +
-            "WHERE NOT (v)-[:PRECEDES]->() AND NOT has(v.unknown)" +
+            "OPTIONAL MATCH (c)-[:LATEST]->(v:Version) " +
             "return c.name, c.description, v.version ";
     private static final String ONE_COMPONENT_QUERY = "MATCH (c:Component {name:{1}}) " +
-                "OPTIONAL MATCH (c)<-[:VERSION_OF]-(v:Version) " +
-                "WHERE NOT (v)-[:PRECEDES]->() AND NOT has(v.unknown)" +
+                "OPTIONAL MATCH (c)-[:LATEST]->(v:Version) " +
                 "return c.name, c.description, v.version ";
+    private static final ColumnMapRowMapper COLUMNS = new ColumnMapRowMapper();
     @Autowired private JdbcTemplate jdbcTemplate;
 
     @PostConstruct
     public void setupIndices() {
         jdbcTemplate.execute("CREATE CONSTRAINT ON (c:Component) ASSERT c.name IS UNIQUE;");
         jdbcTemplate.execute("CREATE CONSTRAINT ON (i:ISSUE) ASSERT i.id IS UNIQUE;");
+        jdbcTemplate.execute("CREATE CONSTRAINT ON (r:ComponentRevision) ASSERT r.component IS UNIQUE;");
     }
 
     @SuppressWarnings("unchecked")
@@ -74,6 +78,20 @@ public class ComponentDao {
         createOrUpdate(name, null);
     }
 
+    //Components are merged in the order given, so callers that need deterministic lock acquisition should pass them
+    //in sorted order
+    public void ensureAllCreated(List<String> names) {
+        if (names.isEmpty()) {
+            return;
+        }
+
+        jdbcTemplate.update(
+                "UNWIND {1} AS name " +
+                        "MERGE (c:Component {name:name})",
+                names
+        );
+    }
+
     private VantageComponent createOrUpdate(String name, String description) {
         Map<String, Object> component = mergeComponent(name, description);
         return new VantageComponent((String)component.get("name"), (String)component.get("description"));
@@ -89,13 +107,91 @@ public class ComponentDao {
     }
 
     public List<VantageComponent> getComponentsWithMostRecentVersion() {
+        List<VantageComponent> components = new ArrayList<>();
+        getComponentsWithMostRecentVersion(components::add);
+        return components;
+    }
+
+    //Components are handed to the consumer as each row is read rather than collected first
+    public void getComponentsWithMostRecentVersion(Consumer<VantageComponent> consumer) {
+        jdbcTemplate.query(
+                ALL_COMPONENTS_QUERY,
+                (RowCallbackHandler) rs -> consumer.accept(toVantageComponent(COLUMNS.mapRow(rs, 0)))
+        );
+    }
+
+    //Components are limited before their latest versions are matched, so a page only does the work for its own items.
+    //The unique constraint on name serves the seek past the previous page's last component
+    public List<VantageComponent> getComponents(String query, boolean descending, String after, int limit) {
+        List<String> conditions = new ArrayList<>();
+        List<Object> params = new ArrayList<>();
+        if (after != null) {
+            params.add(after);
+            conditions.add("c.name " + (descending ? "<" : ">") + " {" + params.size() + "}");
+        }
+        if (query != null) {
+            params.add(query.toLowerCase());
+            conditions.add("lower(c.name) CONTAINS {" + params.size() + "}");
+        }
+        params.add(limit);
+
+        String order = descending ? "c.name DESC " : "c.name ";
         List<Map<String, Object>> rs = jdbcTemplate.queryForList(
-                ALL_COMPONENTS_QUERY
+                "MATCH (c:Component) " +
+                        (conditions.isEmpty() ? "" : "WHERE " + String.join(" AND ", conditions) + " ") +
+                        "WITH c ORDER BY " + order + "LIMIT {" + params.size() + "} " +
+                        "OPTIONAL MATCH (c)-[:LATEST]->(v:Version) " +
+                        "RETURN c.name, c.description, v.version ORDER BY " + order,
+                params.toArray()
         );
 
         return rs.stream().map(this::toVantageComponent).collect(Collectors.toList());
     }
 
+    public long countComponents(String query) {
+        if (query == null) {
+            return jdbcTemplate.queryForObject("MATCH (c:Component) RETURN count(c)", Long.class);
+        }
+        return jdbcTemplate.queryForObject(
+                "MATCH (c:Component) WHERE lower(c.name) CONTAINS {1} RETURN count(c)",
+                Long.class,
+                query.toLowerCase()
+        );
+    }
+
+    //Revisions live on their own nodes rather than on components, so bumping them only locks the revision nodes and can't
+    //deadlock with writes that lock components.  Components with no revision node yet are at revision 0
+    public long getRevision(String component) {
+        return jdbcTemplate.queryForObject(
+                "OPTIONAL MATCH (r:ComponentRevision {component:{1}}) RETURN coalesce(r.revision, 0)",
+                Long.class,
+                component
+        );
+    }
+
+    //Every bump raises the total, so it changes whenever any component does
+    public long getTotalRevision() {
+        return jdbcTemplate.queryForObject("MATCH (r:ComponentRevision) RETURN sum(r.revision)", Long.class);
+    }
+
+    //Setting the lock property first write locks each revision node before its old revision is read, so concurrent bumps
+    //can't both read the same revision.  Revisions are locked in the order given, so callers should pass them sorted
+    public void bumpRevisions(List<String> components) {
+        if (components.isEmpty()) {
+            return;
+        }
+
+        jdbcTemplate.update(
+                "UNWIND {1} AS name " +
+                        "MERGE (r:ComponentRevision {component:name}) " +
+                        "SET r.lock = true " +
+                        "WITH r " +
+                        "SET r.revision = coalesce(r.revision, 0) + 1 " +
+                        "REMOVE r.lock",
+                components
+        );
+    }
+
     @SuppressWarnings("unchecked")
     private VantageComponent toVantageComponent(Object row) {
         Map<String, Object> m = (Map<String, Object>)  row;
@@ -0,0 +1,100 @@
+/*
+ * Copyright 2016 Yodle, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+
+ *     http://www.apache.org/licenses/LICENSE-2.0
+
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yodle.vantage.component.dao;
+
+import java.util.List;
+import java.util.Optional;
+
+import com.yodle.vantage.component.domain.DeadLetteredCreateRequest;
+import com.yodle.vantage.component.domain.Version;
+import com.yodle.vantage.component.domain.VersionId;
+
+/*
+ * Storage for queued version creates.  QueueDao keeps the queue in neo4j alongside everything else, which lets any
+ * number of Vantage instances share it.  JournalCreateQueue keeps it in an append-only journal on local disk, which
+ * takes queue traffic off of neo4j's write path at the cost of each instance processing the creates queued through it.
+ *
+ * Either way, consumers still take their neo4j head lock from QueueDao before processing, since that's what serializes
+ * creates against each other and against dry-run creates.
+ */
+public interface CreateQueue {
+    class QueueCreateRequest {
+        public final Version v;
+        public final String id;
+        //when the entry was queued, in epoch millis.  Null for entries queued before this was recorded
+        public final Long created;
+
+        public QueueCreateRequest(Version v, String id) {
+            this(v, id, null);
+        }
+
+        public QueueCreateRequest(Version v, String id, Long created) {
+            this.v = v;
+            this.id = id;
+            this.created = created;
+        }
+    }
+
+    class QueueStats {
+        public final long depth;
+        //null when the queue is empty or its first entry predates entries recording when they were queued
+        public final Long oldestCreated;
+        public final long totalBlobSize;
+
+        public QueueStats(long depth, Long oldestCreated, long totalBlobSize) {
+            this.depth = depth;
+            this.oldestCreated = oldestCreated;
+            this.totalBlobSize = totalBlobSize;
+        }
+    }
+
+    //Serializes changes to the list structure of the queue
+    void lockQueueTail();
+
+    void saveCreateRequest(Version version);
+
+    //Gets up to limit entries belonging to the given consumer, in queue order.  Entries waiting to be retried are passed
+    //over along with any later entries for the same component so that each component's entries are still created in
+    //order.  Throws a QueueEntryFailedException for an entry that can't be deserialized rather than process anything
+    //behind it
+    List<QueueCreateRequest> getCreateRequests(int consumer, int limit);
+
+    //Gets every other entry creating the same version as the given entry, in the order they were queued
+    List<QueueCreateRequest> getDuplicateCreateRequests(QueueCreateRequest createRequest);
+
+    //The caller must hold the tail lock
+    void deleteCreateRequest(String createRequestId);
+
+    //Records a failed attempt to process the entry, returning how many attempts have now failed or 0 if the entry is no
+    //longer in the queue
+    int recordFailedAttempt(String createRequestId, String error);
+
+    //Has consumers pass over the entry, and any later entries for the same component, until the delay has elapsed
+    void delayCreateRequest(String createRequestId, long delayMs);
+
+    //Moves the entry out of the queue and onto the dead letter list.  The caller must hold the tail lock
+    void deadLetterCreateRequest(String createRequestId);
+
+    List<DeadLetteredCreateRequest> getDeadLetteredCreateRequests();
+
+    boolean isDeadLettered(String createRequestId);
+
+    //Puts a dead lettered entry back on the end of the queue with a clean slate, returning the version it creates or
+    //empty if there's no such dead lettered entry.  The caller must hold the tail lock
+    Optional<VersionId> replayDeadLetteredCreateRequest(String createRequestId);
+
+    QueueStats getQueueStats();
+}
@@ -0,0 +1,60 @@
+/*
+ * Copyright 2016 Yodle, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+
+ *     http://www.apache.org/licenses/LICENSE-2.0
+
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yodle.vantage.component.dao;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Base64;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.yodle.vantage.component.domain.Version;
+
+//Deflated JSON.  Dependency lists repeat the same component names and profiles over and over, so they compress well.
+//Blobs are stored as string properties, so the compressed bytes are base64 encoded
+@Component
+public class DeflateQueueBlobCodec implements QueueBlobCodec {
+    @Autowired private ObjectMapper objectMapper;
+
+    @Override
+    public String getName() {
+        return "deflate";
+    }
+
+    @Override
+    public String encode(Version version) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (OutputStream out = new DeflaterOutputStream(bytes)) {
+            objectMapper.writeValue(out, version);
+        }
+        return Base64.getEncoder().encodeToString(bytes.toByteArray());
+    }
+
+    @Override
+    public Version decode(String encoded) throws IOException {
+        try {
+            return objectMapper.readValue(new InflaterInputStream(new ByteArrayInputStream(Base64.getDecoder().decode(encoded))), Version.class);
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Queue blob is not valid base64", e);
+        }
+    }
+}
@@ -15,27 +15,64 @@
  */
 package com.yodle.vantage.component.dao;
 
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
+import javax.annotation.PostConstruct;
+
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.ColumnMapRowMapper;
 import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
 import org.springframework.stereotype.Component;
 
 import com.google.common.collect.ImmutableListMultimap;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Multimaps;
+import com.yodle.vantage.component.domain.ImpactedVersion;
 import com.yodle.vantage.component.domain.Issue;
 import com.yodle.vantage.component.domain.IssueLevel;
 import com.yodle.vantage.component.domain.Version;
+import com.yodle.vantage.component.domain.VersionId;
 
 @Component
 public class IssueDao {
+    //An issue affects every version ranked from its affects version up to, but not including, its fix version.  This
+    //follows a match that has bound the version as v, the issue as i and its affects version as av.  v and av have to
+    //be bound by separate MATCH clauses: a single pattern never uses the same relationship twice, so it would never
+    //bind v to the affects version itself
+    private static final String AFFECTED_BEFORE_FIX =
+            "OPTIONAL MATCH (i)-[:FIXED_BY]->(fv:Version) " +
+                    "WITH * " +
+                    "WHERE fv IS NULL OR v.rank < fv.rank ";
+
+    //Optionally matches the versions the issue i affects as v, along with their component c.  Unlike AFFECTED_BEFORE_FIX
+    //this keeps i when it affects nothing, and further conditions on v can follow it
+    private static final String IMPACT_AFFECTED =
+            "OPTIONAL MATCH (i)-[:FIXED_BY]->(fv:Version) " +
+                    "OPTIONAL MATCH (i)-[:AFFECTS]->(av:Version)-[:VERSION_OF]->(c:Component) " +
+                    "OPTIONAL MATCH (c)<-[:VERSION_OF]-(v:Version) " +
+                    "WHERE av.rank <= v.rank AND (fv IS NULL OR v.rank < fv.rank) ";
+
+    private static final ColumnMapRowMapper COLUMNS = new ColumnMapRowMapper();
+
     @Autowired private JdbcTemplate jdbcTemplate;
 
+    @PostConstruct
+    public void setupIndices() {
+        jdbcTemplate.execute("CREATE INDEX ON :Issue(id)");
+        jdbcTemplate.execute("CREATE CONSTRAINT ON (r:IssueRevision) ASSERT r.name IS UNIQUE");
+    }
+
     public Issue createOrUpdate(Issue issue) {
         Map<String, Object> issueMap = jdbcTemplate.queryForMap(
                 "MERGE (i:Issue {id:{1}}) return i",
@@ -82,12 +119,59 @@ public class IssueDao {
         return getIssue(issue.getId()).orElseThrow(() -> new RuntimeException("Cannot find issue [" + issue + "] right after creating it"));
     }
 
+    //Creates or updates many issues in one statement, with the same partial update semantics as createOrUpdate.  Their
+    //affects and fix versions must already exist
+    public void createOrUpdate(Collection<Issue> issues) {
+        List<Map<String, Object>> rows = issues.stream().map(issue -> {
+            Map<String, Object> row = new HashMap<>();
+            row.put("id", issue.getId());
+            row.put("level", issue.getLevel() != null ? issue.getLevel().name() : null);
+            row.put("message", issue.getMessage());
+            row.put("affectsComponent", issue.getAffectsVersion() != null ? issue.getAffectsVersion().getComponent() : null);
+            row.put("affectsVersion", issue.getAffectsVersion() != null ? issue.getAffectsVersion().getVersion() : null);
+            row.put("fixComponent", issue.getFixVersion() != null ? issue.getFixVersion().getComponent() : null);
+            row.put("fixVersion", issue.getFixVersion() != null ? issue.getFixVersion().getVersion() : null);
+            return row;
+        }).collect(Collectors.toList());
+
+        jdbcTemplate.update(
+                "UNWIND {1} AS row " +
+                        "MERGE (i:Issue {id: row.id}) " +
+                        "SET i.level = coalesce(row.level, i.level), i.message = coalesce(row.message, i.message) " +
+                        "WITH i, row " +
+                        //a missing affects version leaves the current one alone
+                        "OPTIONAL MATCH (:Component {name: row.affectsComponent})<-[:VERSION_OF]-(av:Version {version: row.affectsVersion}) " +
+                        "OPTIONAL MATCH (i)-[cur_affects:AFFECTS]->(cur_av:Version) " +
+                        "WHERE av IS NOT NULL AND cur_av <> av " +
+                        "DELETE cur_affects " +
+                        "WITH DISTINCT i, row, av " +
+                        "FOREACH (v IN CASE WHEN av IS NULL THEN [] ELSE [av] END | MERGE (i)-[:AFFECTS]->(v)) " +
+                        "WITH i, row " +
+                        //but a missing fix version removes the current one
+                        "OPTIONAL MATCH (:Component {name: row.fixComponent})<-[:VERSION_OF]-(fv:Version {version: row.fixVersion}) " +
+                        "OPTIONAL MATCH (i)-[cur_fix:FIXED_BY]->(cur_fv:Version) " +
+                        "WHERE fv IS NULL OR cur_fv <> fv " +
+                        "DELETE cur_fix " +
+                        "WITH DISTINCT i, fv " +
+                        "FOREACH (v IN CASE WHEN fv IS NULL THEN [] ELSE [fv] END | MERGE (i)-[:FIXED_BY]->(v))",
+                rows
+        );
+    }
+
+    public Set<String> getExistingIssueIds(Collection<String> issueIds) {
+        return new HashSet<>(jdbcTemplate.queryForList(
+                "MATCH (i:Issue) WHERE i.id IN {1} RETURN i.id",
+                String.class,
+                new ArrayList<>(issueIds)
+        ));
+    }
+
     public Map<String, Collection<Issue>> getIssuesDirectlyAffectingVersions(String component) {
         List<Map<String, Object>> rs = jdbcTemplate.queryForList(
-                "MATCH (c:Component {name:{1}})<-[:VERSION_OF]-(v:Version)<-[:PRECEDES|:AFFECTS*]-(i:Issue)" + 
-                        "MATCH (i)-[:AFFECTS]->(av:Version)" + 
-                        "WHERE NOT (v)<-[:PRECEDES|:FIXED_BY*]-(i)" + 
-                        "OPTIONAL MATCH (i)-[:FIXED_BY]->(fv:Version)" + 
+                "MATCH (c:Component {name:{1}})<-[:VERSION_OF]-(av:Version)<-[:AFFECTS]-(i:Issue) " +
+                        "MATCH (c)<-[:VERSION_OF]-(v:Version) " +
+                        "WHERE av.rank <= v.rank " +
+                        AFFECTED_BEFORE_FIX +
                         "RETURN c.name, v.version, i.id, i.level, i.message, av.version, fv.version",
                 component
         );
@@ -101,28 +185,25 @@ public class IssueDao {
 
     public List<Issue> getIssuesDirectlyAffectingVersion(String component, String version) {
         List<Map<String, Object>> rs = jdbcTemplate.queryForList(
-                "MATCH (c:Component {name:{1}})<-[:VERSION_OF]-(v:Version {version:{2}})<-[:PRECEDES|:AFFECTS*]-(i:Issue)" +
-		        "MATCH (i)-[:AFFECTS]->(av:Version)" +
-			"WHERE NOT (v)<-[:PRECEDES|:FIXED_BY*]-(i)" +
-			"OPTIONAL MATCH (i)-[:FIXED_BY]->(fv:Version)" +
-		        "RETURN i.id, i.level, i.message, av.version, fv.version, c.name, v.version",
+                "MATCH (c:Component {name:{1}})<-[:VERSION_OF]-(v:Version {version:{2}}) " +
+                        "MATCH (c)<-[:VERSION_OF]-(av:Version)<-[:AFFECTS]-(i:Issue) " +
+                        "WHERE av.rank <= v.rank " +
+                        AFFECTED_BEFORE_FIX +
+                        "RETURN i.id, i.level, i.message, av.version, fv.version, c.name, v.version",
                 component, version
         );
 
         return rs.stream().map(this::toIssue).collect(Collectors.toList());
     }
 
+    //Issues transitively affecting a version are those directly affecting any of its dependencies.  They're kept as
+    //EXPOSED_TO relationships from the version to the issue (see the update*Exposure methods), so this is just a read
     public Map<String, Collection<Issue>> getIssuesTransitivelyAffectingVersions(String component) {
         List<Map<String, Object>> rs = jdbcTemplate.queryForList(
-                "MATCH (c_par:Component {name:{1}})" +
-                        "<-[:VERSION_OF]-(v_par:Version)" +
-                        "-[:DEPENDS_ON]->(v:Version)" +
-                        "<-[:PRECEDES|:AFFECTS*]-(i:Issue)" +
-                        "MATCH (v)-[:VERSION_OF]->(c:Component)" +
-                        "MATCH (i)-[:AFFECTS]->(av:Version)" +
-                        "WHERE NOT (v)<-[:PRECEDES|:FIXED_BY*]-(i) " +
-                        "OPTIONAL MATCH (i)-[:FIXED_BY]->(fv:Version)" +
-			"RETURN v_par.version, i.id, i.level, i.message, av.version, fv.version, c.name, v.version",
+                "MATCH (c_par:Component {name:{1}})<-[:VERSION_OF]-(v_par:Version)-[:EXPOSED_TO]->(i:Issue)" +
+                        "-[:AFFECTS]->(av:Version)-[:VERSION_OF]->(c:Component) " +
+                        "OPTIONAL MATCH (i)-[:FIXED_BY]->(fv:Version) " +
+                        "RETURN v_par.version, i.id, i.level, i.message, av.version, fv.version, c.name",
                 component
         );
 
@@ -133,6 +214,155 @@ public class IssueDao {
         ).asMap();
     }
 
+    //Recomputes which versions are exposed to an issue, for when the issue or its affects or fix version changes.  Also
+    //marks the issue so the startup backfill knows its exposure has been computed
+    public void updateIssueExposure(String issueId) {
+        updateIssueExposure(Collections.singletonList(issueId));
+    }
+
+    public void updateIssueExposure(Collection<String> issueIds) {
+        jdbcTemplate.update(
+                "UNWIND {1} AS id " +
+                        "MATCH (i:Issue {id: id}) " +
+                        "OPTIONAL MATCH (i)<-[e:EXPOSED_TO]-() " +
+                        "DELETE e " +
+                        "WITH DISTINCT i " +
+                        "SET i.exposureComputed = true " +
+                        "WITH i " +
+                        "MATCH (i)-[:AFFECTS]->(av:Version)-[:VERSION_OF]->(c:Component) " +
+                        "MATCH (c)<-[:VERSION_OF]-(v:Version) " +
+                        "WHERE av.rank <= v.rank " +
+                        AFFECTED_BEFORE_FIX +
+                        "MATCH (v)<-[:DEPENDS_ON]-(v_par:Version) " +
+                        "MERGE (v_par)-[:EXPOSED_TO]->(i)",
+                new ArrayList<>(issueIds)
+        );
+    }
+
+    //Recomputes which issues a version is exposed to, for when its resolved dependencies are written
+    public void updateVersionExposure(VersionId version) {
+        jdbcTemplate.update(
+                "MATCH (c_par:Component {name:{1}})<-[:VERSION_OF]-(v_par:Version {version:{2}}) " +
+                        "OPTIONAL MATCH (v_par)-[e:EXPOSED_TO]->() " +
+                        "DELETE e " +
+                        "WITH DISTINCT v_par " +
+                        "MATCH (v_par)-[:DEPENDS_ON]->(v:Version)-[:VERSION_OF]->(c:Component) " +
+                        "MATCH (c)<-[:VERSION_OF]-(av:Version)<-[:AFFECTS]-(i:Issue) " +
+                        "WHERE av.rank <= v.rank " +
+                        AFFECTED_BEFORE_FIX +
+                        "MERGE (v_par)-[:EXPOSED_TO]->(i)",
+                version.getComponent(), version.getVersion()
+        );
+    }
+
+    //Exposes everything depending on the given versions to the issues directly affecting them, for when versions are
+    //ranked and so land inside issues' ranges.  Ranking never reorders existing versions, so this only ever adds exposure.
+    //Returns the components of the versions that were exposed
+    public Set<String> addExposureThrough(String component, Collection<String> versions) {
+        if (versions.isEmpty()) {
+            return new HashSet<>();
+        }
+
+        return new HashSet<>(jdbcTemplate.queryForList(
+                "MATCH (c:Component {name:{1}})<-[:VERSION_OF]-(v:Version) " +
+                        "WHERE v.version IN {2} " +
+                        "MATCH (v)<-[:DEPENDS_ON]-(v_par:Version) " +
+                        "WITH DISTINCT c, v, collect(v_par) AS v_pars " +
+                        "MATCH (c)<-[:VERSION_OF]-(av:Version)<-[:AFFECTS]-(i:Issue) " +
+                        "WHERE av.rank <= v.rank " +
+                        AFFECTED_BEFORE_FIX +
+                        "UNWIND v_pars AS v_par " +
+                        "MERGE (v_par)-[:EXPOSED_TO]->(i) " +
+                        "WITH DISTINCT v_par " +
+                        "MATCH (v_par)-[:VERSION_OF]->(c_par:Component) " +
+                        "RETURN DISTINCT c_par.name",
+                String.class,
+                component, new ArrayList<>(versions)
+        ));
+    }
+
+    //Components whose versions the issues affect or are exposed to through their dependencies
+    public Set<String> getComponentsAffectedByIssues(Collection<String> issueIds) {
+        return new HashSet<>(jdbcTemplate.queryForList(
+                "UNWIND {1} AS id " +
+                        "MATCH (i:Issue {id: id})-[:AFFECTS]->(:Version)-[:VERSION_OF]->(c:Component) " +
+                        "RETURN c.name AS name " +
+                        "UNION " +
+                        "UNWIND {1} AS id " +
+                        "MATCH (i:Issue {id: id})<-[:EXPOSED_TO]-(:Version)-[:VERSION_OF]->(c:Component) " +
+                        "RETURN c.name AS name",
+                String.class,
+                new ArrayList<>(issueIds)
+        ));
+    }
+
+    //A page of the versions hit by an issue: every version it affects and every active version exposed to it through its
+    //dependencies, sorted by component and then version name.  Each half is sorted and cut down to the page before the
+    //two are merged, so no more than two pages of versions are ever collected.  A version that is both affected and
+    //exposed is listed once, as affected
+    public List<ImpactedVersion> getImpact(String issueId, boolean descending, VersionId after, int limit) {
+        List<Object> params = Lists.newArrayList(issueId, limit);
+        String affectedKeyset = "";
+        String exposedKeyset = "";
+        if (after != null) {
+            params.add(after.getComponent());
+            params.add(after.getVersion());
+            String comparison = descending ? " < " : " > ";
+            affectedKeyset = "AND (c.name" + comparison + "{3} OR (c.name = {3} AND v.version" + comparison + "{4})) ";
+            exposedKeyset = "AND (dc.name" + comparison + "{3} OR (dc.name = {3} AND d.version" + comparison + "{4})) ";
+        }
+
+        String direction = descending ? " DESC" : "";
+        List<Map<String, Object>> rs = jdbcTemplate.queryForList(
+                "MATCH (i:Issue {id:{1}}) " +
+                        IMPACT_AFFECTED + affectedKeyset +
+                        "WITH i, c, v ORDER BY c.name" + direction + ", v.version" + direction + " LIMIT {2} " +
+                        "WITH i, [x IN collect({c: c, v: v}) WHERE x.v IS NOT NULL] AS affected " +
+                        "OPTIONAL MATCH (i)<-[:EXPOSED_TO]-(d:Version)-[:VERSION_OF]->(dc:Component) " +
+                        "WHERE " + VersionDao.isActive("d") + exposedKeyset +
+                        "WITH affected, dc, d ORDER BY dc.name" + direction + ", d.version" + direction + " LIMIT {2} " +
+                        "WITH affected, [x IN collect({c: dc, v: d}) WHERE x.v IS NOT NULL] AS exposed " +
+                        "UNWIND [x IN affected | {c: x.c, v: x.v, affected: true}] + " +
+                        "[x IN exposed | {c: x.c, v: x.v, affected: false}] AS row " +
+                        "WITH row.c AS c, row.v AS v, collect(row.affected) AS affected " +
+                        "RETURN c.name AS component, v.version AS version, true IN affected AS affected, " +
+                        VersionDao.isActive("v") + "AS active " +
+                        "ORDER BY component" + direction + ", version" + direction + " LIMIT {2}",
+                params.toArray()
+        );
+
+        return rs.stream()
+                .map(row -> new ImpactedVersion(
+                        (String) row.get("component"), (String) row.get("version"), (Boolean) row.get("affected"), (Boolean) row.get("active")
+                ))
+                .collect(Collectors.toList());
+    }
+
+    //Empty if the issue doesn't exist
+    public Optional<Long> countImpact(String issueId) {
+        //i is returned as well so that an issue that doesn't exist has no row rather than a count of 0
+        List<Map<String, Object>> rs = jdbcTemplate.queryForList(
+                "MATCH (i:Issue {id:{1}}) " +
+                        IMPACT_AFFECTED +
+                        "WITH i, collect(DISTINCT v) AS affected " +
+                        "OPTIONAL MATCH (i)<-[:EXPOSED_TO]-(d:Version) " +
+                        "WHERE " + VersionDao.isActive("d") +
+                        "WITH i, affected + collect(DISTINCT d) AS impacted " +
+                        "UNWIND CASE impacted WHEN [] THEN [null] ELSE impacted END AS v " +
+                        "RETURN i.id, count(DISTINCT v) AS total",
+                issueId
+        );
+
+        return rs.stream().findFirst().map(row -> ((Number) row.get("total")).longValue());
+    }
+
+    public List<String> getIssuesWithoutExposure() {
+        return jdbcTemplate.queryForList(
+                "MATCH (i:Issue) WHERE i.exposureComputed IS NULL RETURN i.id",
+                String.class
+        );
+    }
+
     private Issue toIssue(Map<String, Object> issueMap) {
         Issue i = new Issue();
         i.setId((String) issueMap.get("i.id"));
@@ -154,25 +384,6 @@ public class IssueDao {
         return i;
     }
 
-    public Map<Version, Collection<Issue>> getIssuesByDependenciesOf(String component, String version) {
-        List<Map<String, Object>> rs = jdbcTemplate.queryForList(
-                "MATCH (c_par:Component {name:{1}})<-[:VERSION_OF]-(v_par:Version {version:{2}})-[:DEPENDS_ON]->" +
-                        "(v:Version)<-[:PRECEDES|:AFFECTS*]-(i:Issue)" +
-                        "MATCH (v)-[:VERSION_OF]->(c:Component)" +
-                        "MATCH (i)-[:AFFECTS]->(av:Version)" +
-                        "WHERE NOT (v)<-[:PRECEDES|:FIXED_BY*]-(i) " +
-                        "OPTIONAL MATCH (i)-[:FIXED_BY]->(fv:Version)" +
-                        "RETURN v.version, c.name, i.id, i.level, i.message, av.version, fv.version", 
-                component, version
-        );
-
-        ImmutableListMultimap<Version, Map<String, Object>> grouped = Multimaps.index(rs, (row -> new Version((String) row.get("c.name"), (String) row.get("v.version"))));
-        return Multimaps.transformValues(
-                grouped,
-                this::toIssue
-        ).asMap();
-    }
-
     public Optional<Issue> getIssue(String issueId) {
         List<Map<String, Object>> issues = jdbcTemplate.queryForList(
                 "MATCH (i:Issue {id: {1}})-[:AFFECTS]->(av:Version)-[:VERSION_OF]->(c:Component)" +
@@ -191,12 +402,96 @@ public class IssueDao {
     }
 
     public Set<Issue> getIssues() {
-        List<Map<String, Object>> issueMaps = jdbcTemplate.queryForList(
+        Set<Issue> issues = new HashSet<>();
+        getIssues(issues::add);
+        return issues;
+    }
+
+    //Issues are handed to the consumer as each row is read rather than collected first
+    public void getIssues(Consumer<Issue> consumer) {
+        jdbcTemplate.query(
                 "MATCH (i:Issue)-[:AFFECTS]->(av:Version)-[:VERSION_OF]->(c:Component)" +
                         "OPTIONAL MATCH (i)-[:FIXED_BY]->(fv:Version)" +
-                        "RETURN i.id, i.level, i.message, av.version, c.name, fv.version"
+                        "RETURN i.id, i.level, i.message, av.version, c.name, fv.version",
+                (RowCallbackHandler) rs -> consumer.accept(toIssue(COLUMNS.mapRow(rs, 0)))
+        );
+    }
+
+    //Matches on the issue's id, message or affected component.  The page is limited before fix versions are matched, so
+    //only its own issues pay for that, and the index on id serves the seek past the previous page's last issue
+    public List<Issue> getIssues(String query, boolean descending, String after, int limit) {
+        List<String> conditions = new ArrayList<>();
+        List<Object> params = new ArrayList<>();
+        if (after != null) {
+            params.add(after);
+            conditions.add("i.id " + (descending ? "<" : ">") + " {" + params.size() + "}");
+        }
+        if (query != null) {
+            params.add(query.toLowerCase());
+            conditions.add(issueMatches(params.size()));
+        }
+        params.add(limit);
+
+        String order = descending ? "i.id DESC " : "i.id ";
+        List<Map<String, Object>> issueMaps = jdbcTemplate.queryForList(
+                "MATCH (i:Issue)-[:AFFECTS]->(av:Version)-[:VERSION_OF]->(c:Component) " +
+                        (conditions.isEmpty() ? "" : "WHERE " + String.join(" AND ", conditions) + " ") +
+                        "WITH i, av, c ORDER BY " + order + "LIMIT {" + params.size() + "} " +
+                        "OPTIONAL MATCH (i)-[:FIXED_BY]->(fv:Version) " +
+                        "RETURN i.id, i.level, i.message, av.version, c.name, fv.version ORDER BY " + order,
+                params.toArray()
+        );
+
+        return issueMaps.stream().map(this::toIssue).collect(Collectors.toList());
+    }
+
+    public long countIssues(String query) {
+        if (query == null) {
+            return jdbcTemplate.queryForObject(
+                    "MATCH (i:Issue)-[:AFFECTS]->(:Version)-[:VERSION_OF]->(:Component) RETURN count(i)",
+                    Long.class
+            );
+        }
+        return jdbcTemplate.queryForObject(
+                "MATCH (i:Issue)-[:AFFECTS]->(:Version)-[:VERSION_OF]->(c:Component) WHERE " + issueMatches(1) + " RETURN count(i)",
+                Long.class,
+                query.toLowerCase()
+        );
+    }
+
+    private static String issueMatches(int param) {
+        return "(lower(i.id) CONTAINS {" + param + "} " +
+                "OR lower(coalesce(i.message, '')) CONTAINS {" + param + "} " +
+                "OR lower(c.name) CONTAINS {" + param + "})";
+    }
+
+    public Set<Issue> getIssues(Collection<String> issueIds) {
+        List<Map<String, Object>> issueMaps = jdbcTemplate.queryForList(
+                "MATCH (i:Issue)-[:AFFECTS]->(av:Version)-[:VERSION_OF]->(c:Component) " +
+                        "WHERE i.id IN {1} " +
+                        "OPTIONAL MATCH (i)-[:FIXED_BY]->(fv:Version) " +
+                        "RETURN i.id, i.level, i.message, av.version, c.name, fv.version",
+                new ArrayList<>(issueIds)
         );
 
         return issueMaps.stream().map(this::toIssue).collect(Collectors.toSet());
     }
+
+    //One revision covers every issue.  It's kept on its own node the same way component revisions are
+    public long getRevision() {
+        return jdbcTemplate.queryForObject(
+                "OPTIONAL MATCH (r:IssueRevision {name:'issues'}) RETURN coalesce(r.revision, 0)",
+                Long.class
+        );
+    }
+
+    public void bumpRevision() {
+        jdbcTemplate.update(
+                "MERGE (r:IssueRevision {name:'issues'}) " +
+                        "SET r.lock = true " +
+                        "WITH r " +
+                        "SET r.revision = coalesce(r.revision, 0) + 1 " +
+                        "REMOVE r.lock"
+        );
+    }
 }
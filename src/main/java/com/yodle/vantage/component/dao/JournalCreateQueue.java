@@ -0,0 +1,433 @@
+/*
+ * Copyright 2016 Yodle, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+
+ *     http://www.apache.org/licenses/LICENSE-2.0
+
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yodle.vantage.component.dao;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.apache.commons.lang3.RandomStringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Primary;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import com.yodle.vantage.component.domain.DeadLetteredCreateRequest;
+import com.yodle.vantage.component.domain.Version;
+import com.yodle.vantage.component.domain.VersionId;
+import com.yodle.vantage.exception.QueueEntryFailedException;
+
+/*
+ * Keeps the create queue in a journal of memory mapped segment files on local disk instead of in neo4j.  Every change
+ * is appended to the active segment and the current state of the queue is kept in memory, minus the blobs, which are
+ * read back out of the segments when they're needed.  On startup that state is rebuilt by reading back the segments.
+ *
+ * Segments only ever get appended to.  Once nothing live is left in the oldest segments, the checkpoint file is moved
+ * past them and they're deleted.  An old segment holding only a few live records, such as dead letters or a create
+ * that keeps being retried, has those records copied forward to the active segment so that it doesn't pin every segment
+ * after it.
+ */
+@Component
+@Primary
+@ConditionalOnProperty(name = "vantage.queue.backend", havingValue = "journal")
+public class JournalCreateQueue implements CreateQueue {
+    private static final String CHECKPOINT_FILE = "checkpoint";
+    //an old segment is compacted once less than this fraction of it is still live
+    private static final double COMPACTION_THRESHOLD = 0.25;
+
+    @Autowired private QueueDao queueDao;
+    @Autowired private QueueBlobSerializer queueBlobSerializer;
+    @Value("${vantage.queue.journal.dir:queue-journal}") private String dir;
+    @Value("${vantage.queue.journal.segment-bytes:67108864}") private int segmentBytes;
+    @Value("${vantage.queue.journal.fsync:interval}") private String fsync;
+    @Value("${vantage.queue.journal.fsync-interval-ms:1000}") private long fsyncIntervalMs;
+    private static Logger l = LoggerFactory.getLogger(JournalCreateQueue.class);
+
+    private static class Entry {
+        final JournalRecord record;
+        final JournalSegment segment;
+        final int position;
+        //bytes taken up in the segment
+        final int size;
+
+        Entry(JournalRecord record, JournalSegment segment, int position, int size) {
+            this.record = record;
+            this.segment = segment;
+            this.position = position;
+            this.size = size;
+        }
+    }
+
+    private File journalDir;
+    private final List<JournalSegment> segments = new ArrayList<>();
+    //pending and dead lettered entries by id
+    private final Map<String, Entry> entries = new HashMap<>();
+    //pending entries in queue order
+    private final TreeMap<Long, Entry> pending = new TreeMap<>();
+    private final Map<VersionId, TreeMap<Long, Entry>> pendingByVersion = new HashMap<>();
+    private long nextSequence = 1;
+    private boolean compacting;
+    private ScheduledExecutorService fsyncExecutor;
+
+    @PostConstruct
+    public synchronized void open() throws IOException {
+        journalDir = new File(dir);
+        if (!journalDir.isDirectory() && !journalDir.mkdirs()) {
+            throw new IOException("Unable to create create queue journal directory " + journalDir);
+        }
+
+        long checkpoint = readCheckpoint();
+        File[] files = journalDir.listFiles((d, name) -> name.endsWith(JournalSegment.SUFFIX));
+        Arrays.sort(files, Comparator.comparing(JournalSegment::number));
+        for (File file : files) {
+            if (JournalSegment.number(file) < checkpoint) {
+                //we crashed between moving the checkpoint and deleting the segments behind it
+                Files.delete(file.toPath());
+                continue;
+            }
+
+            JournalSegment segment = JournalSegment.open(file);
+            segments.add(segment);
+            segment.recover((position, body) -> apply(JournalRecord.decode(body, false), segment, position, body.length));
+        }
+        if (segments.isEmpty()) {
+            segments.add(JournalSegment.create(journalDir, Math.max(checkpoint, 1), segmentBytes));
+        }
+        l.info("Opened create queue journal in {} with [{}] pending and [{}] dead lettered entries",
+                journalDir, pending.size(), entries.size() - pending.size());
+
+        if ("interval".equals(fsync)) {
+            fsyncExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "vantage-queue-journal-fsync");
+                t.setDaemon(true);
+                return t;
+            });
+            fsyncExecutor.scheduleWithFixedDelay(this::force, fsyncIntervalMs, fsyncIntervalMs, TimeUnit.MILLISECONDS);
+        } else if (!"always".equals(fsync) && !"never".equals(fsync)) {
+            throw new IllegalStateException("Unknown create queue journal fsync policy [" + fsync + "], expected one of always, interval or never");
+        }
+    }
+
+    @PreDestroy
+    public synchronized void close() throws IOException {
+        if (fsyncExecutor != null) {
+            fsyncExecutor.shutdownNow();
+        }
+        for (JournalSegment segment : segments) {
+            segment.force();
+            segment.close();
+        }
+        segments.clear();
+    }
+
+    private synchronized void force() {
+        if (!segments.isEmpty()) {
+            active().force();
+        }
+    }
+
+    //changes to the journal are serialized by synchronizing on it instead
+    @Override
+    public void lockQueueTail() {}
+
+    @Override
+    public synchronized void saveCreateRequest(Version version) {
+        try {
+            append(JournalRecord.entry(
+                    RandomStringUtils.randomAlphanumeric(16), nextSequence, System.currentTimeMillis(),
+                    version.getComponent(), version.getVersion(), 0, null, 0, 0, queueBlobSerializer.serialize(version)
+            ));
+        } catch (IOException e) {
+            throw new RuntimeException("Exception when trying to serialize create queue request", e);
+        }
+    }
+
+    @Override
+    public synchronized List<QueueCreateRequest> getCreateRequests(int consumer, int limit) {
+        long now = System.currentTimeMillis();
+        Set<String> waitingComponents = new HashSet<>();
+        List<QueueCreateRequest> createRequests = new ArrayList<>();
+        for (Entry entry : pending.values()) {
+            String component = entry.record.component;
+            if (queueDao.getConsumer(component) != consumer) {
+                continue;
+            }
+            if (entry.record.retryAfter > now || waitingComponents.contains(component)) {
+                waitingComponents.add(component);
+                continue;
+            }
+            createRequests.add(readCreateRequest(entry));
+            if (createRequests.size() == limit) {
+                break;
+            }
+        }
+        return createRequests;
+    }
+
+    @Override
+    public synchronized List<QueueCreateRequest> getDuplicateCreateRequests(QueueCreateRequest createRequest) {
+        TreeMap<Long, Entry> sameVersion = pendingByVersion.get(createRequest.v.toId());
+        if (sameVersion == null) {
+            return new ArrayList<>();
+        }
+
+        List<QueueCreateRequest> duplicates = new ArrayList<>();
+        for (Entry entry : sameVersion.values()) {
+            if (!entry.record.id.equals(createRequest.id)) {
+                //anything we can't deserialize is left in the queue to be dealt with when it reaches the front
+                try {
+                    duplicates.add(readCreateRequest(entry));
+                } catch (QueueEntryFailedException e) {
+                    l.error("Error deserializing queue entry", e);
+                }
+            }
+        }
+        return duplicates;
+    }
+
+    //The journal isn't part of the neo4j transaction, so entries are only removed once whatever processed them has been
+    //committed.  If the transaction rolls back they're left in place to be processed again.
+    @Override
+    public void deleteCreateRequest(String createRequestId) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+                @Override
+                public void afterCommit() {
+                    remove(createRequestId);
+                }
+            });
+        } else {
+            remove(createRequestId);
+        }
+    }
+
+    private synchronized void remove(String createRequestId) {
+        if (entries.containsKey(createRequestId)) {
+            append(JournalRecord.remove(createRequestId));
+        }
+    }
+
+    @Override
+    public synchronized int recordFailedAttempt(String createRequestId, String error) {
+        return getPending(createRequestId)
+                .map(entry -> append(readRecord(entry).withAttempt(error)).record.attempts)
+                .orElse(0);
+    }
+
+    @Override
+    public synchronized void delayCreateRequest(String createRequestId, long delayMs) {
+        getPending(createRequestId).ifPresent(entry -> append(readRecord(entry).withRetryAfter(System.currentTimeMillis() + delayMs)));
+    }
+
+    @Override
+    public synchronized void deadLetterCreateRequest(String createRequestId) {
+        getPending(createRequestId).ifPresent(entry -> append(readRecord(entry).withDeadLettered(System.currentTimeMillis())));
+    }
+
+    @Override
+    public synchronized List<DeadLetteredCreateRequest> getDeadLetteredCreateRequests() {
+        return entries.values().stream()
+                .map(entry -> entry.record)
+                .filter(record -> record.deadLettered != 0)
+                .sorted(Comparator.comparing(record -> record.deadLettered))
+                .map(record -> {
+                    DeadLetteredCreateRequest deadLetter = new DeadLetteredCreateRequest();
+                    deadLetter.setId(record.id);
+                    deadLetter.setComponent(record.component);
+                    deadLetter.setVersion(record.version);
+                    deadLetter.setAttempts(record.attempts);
+                    deadLetter.setLastError(record.lastError);
+                    deadLetter.setQueued(record.created);
+                    deadLetter.setDeadLettered(record.deadLettered);
+                    return deadLetter;
+                })
+                .collect(Collectors.toList());
+    }
+
+    @Override
+    public synchronized boolean isDeadLettered(String createRequestId) {
+        Entry entry = entries.get(createRequestId);
+        return entry != null && entry.record.deadLettered != 0;
+    }
+
+    @Override
+    public synchronized Optional<VersionId> replayDeadLetteredCreateRequest(String createRequestId) {
+        if (!isDeadLettered(createRequestId)) {
+            return Optional.empty();
+        }
+
+        JournalRecord record = readRecord(entries.get(createRequestId));
+        append(record.requeued(nextSequence, System.currentTimeMillis()));
+        return Optional.of(new VersionId(record.component, record.version));
+    }
+
+    @Override
+    public synchronized QueueStats getQueueStats() {
+        long total = pending.values().stream().mapToLong(e -> e.record.blobSize).sum();
+        return new QueueStats(pending.size(), pending.isEmpty() ? null : pending.firstEntry().getValue().record.created, total);
+    }
+
+    private Optional<Entry> getPending(String createRequestId) {
+        Entry entry = entries.get(createRequestId);
+        return entry == null || entry.record.deadLettered != 0 ? Optional.empty() : Optional.of(entry);
+    }
+
+    private JournalRecord readRecord(Entry entry) {
+        return JournalRecord.decode(entry.segment.read(entry.position), true);
+    }
+
+    private QueueCreateRequest readCreateRequest(Entry entry) {
+        try {
+            return new QueueCreateRequest(queueBlobSerializer.deserialize(readRecord(entry).blob), entry.record.id, entry.record.created);
+        } catch (IOException e) {
+            throw new QueueEntryFailedException(entry.record.id, e);
+        }
+    }
+
+    private Entry append(JournalRecord record) {
+        byte[] body = record.encode();
+        int position = active().append(body);
+        if (position < 0) {
+            roll(body.length);
+            position = active().append(body);
+        }
+        if ("always".equals(fsync)) {
+            active().force();
+        }
+        return apply(record, active(), position, body.length);
+    }
+
+    //Brings the in memory state of the queue up to date with a record that's been written to the journal
+    private Entry apply(JournalRecord record, JournalSegment segment, int position, int bodySize) {
+        Entry previous = record.type == JournalRecord.REMOVE ? entries.remove(record.id) : entries.get(record.id);
+        if (previous != null) {
+            pending.remove(previous.record.sequence);
+            TreeMap<Long, Entry> sameVersion = pendingByVersion.get(new VersionId(previous.record.component, previous.record.version));
+            if (sameVersion != null) {
+                sameVersion.remove(previous.record.sequence);
+                if (sameVersion.isEmpty()) {
+                    pendingByVersion.remove(new VersionId(previous.record.component, previous.record.version));
+                }
+            }
+        }
+        if (record.type == JournalRecord.REMOVE) {
+            return null;
+        }
+
+        Entry entry = new Entry(record, segment, position, JournalSegment.FRAME_BYTES + bodySize);
+        entries.put(record.id, entry);
+        if (record.deadLettered == 0) {
+            pending.put(record.sequence, entry);
+            pendingByVersion.computeIfAbsent(new VersionId(record.component, record.version), k -> new TreeMap<>()).put(record.sequence, entry);
+        }
+        nextSequence = Math.max(nextSequence, record.sequence + 1);
+        return entry;
+    }
+
+    private JournalSegment active() {
+        return segments.get(segments.size() - 1);
+    }
+
+    private void roll(int recordBytes) {
+        try {
+            active().force();
+            segments.add(JournalSegment.create(journalDir, active().number + 1, Math.max(segmentBytes, recordBytes + JournalSegment.FRAME_BYTES)));
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to create a new create queue journal segment", e);
+        }
+        compact();
+    }
+
+    //Drops the oldest segments once nothing in them is live anymore, copying live records forward out of any that are
+    //mostly dead
+    private void compact() {
+        if (compacting) {
+            return;
+        }
+        compacting = true;
+        try {
+            int droppable = 0;
+            while (droppable < segments.size() - 1) {
+                JournalSegment segment = segments.get(droppable);
+                List<Entry> live = entries.values().stream()
+                        .filter(e -> e.segment == segment)
+                        .sorted(Comparator.comparing(e -> e.record.sequence))
+                        .collect(Collectors.toList());
+                long liveBytes = live.stream().mapToLong(e -> e.size).sum();
+                if (liveBytes >= segment.capacity() * COMPACTION_THRESHOLD) {
+                    break;
+                }
+                for (Entry entry : live) {
+                    append(readRecord(entry));
+                }
+                ++droppable;
+            }
+            if (droppable == 0) {
+                return;
+            }
+
+            active().force();
+            List<JournalSegment> dropped = new ArrayList<>(segments.subList(0, droppable));
+            writeCheckpoint(segments.get(droppable).number);
+            segments.removeAll(dropped);
+            for (JournalSegment segment : dropped) {
+                segment.delete();
+            }
+            l.info("Compacted create queue journal, dropping [{}] segments", dropped.size());
+        } catch (IOException e) {
+            l.error("Error compacting the create queue journal", e);
+        } finally {
+            compacting = false;
+        }
+    }
+
+    //The checkpoint is the oldest segment that still has to be read at startup.  Everything before it has been consumed
+    private long readCheckpoint() throws IOException {
+        File checkpoint = new File(journalDir, CHECKPOINT_FILE);
+        return checkpoint.exists() ? Long.parseLong(new String(Files.readAllBytes(checkpoint.toPath()), StandardCharsets.UTF_8).trim()) : 0;
+    }
+
+    private void writeCheckpoint(long segmentNumber) throws IOException {
+        File tmp = new File(journalDir, CHECKPOINT_FILE + ".tmp");
+        Files.write(tmp.toPath(), Long.toString(segmentNumber).getBytes(StandardCharsets.UTF_8));
+        Files.move(tmp.toPath(), new File(journalDir, CHECKPOINT_FILE).toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+}
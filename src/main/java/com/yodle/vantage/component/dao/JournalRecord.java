@@ -0,0 +1,161 @@
+/*
+ * Copyright 2016 Yodle, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+
+ *     http://www.apache.org/licenses/LICENSE-2.0
+
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yodle.vantage.component.dao;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/*
+ * A record in the create queue journal.  An ENTRY record holds the complete state of a queue entry and supersedes any
+ * earlier record for the same id, so changing an entry means appending a new ENTRY record for it.  A REMOVE record means
+ * the entry is gone for good.  The blob comes last so that rebuilding the queue's state at startup can skip over it.
+ */
+class JournalRecord {
+    static final byte ENTRY = 1;
+    static final byte REMOVE = 2;
+
+    final byte type;
+    final String id;
+    //queue order.  Kept when an entry is updated or copied forward during compaction
+    final long sequence;
+    final long created;
+    final String component;
+    final String version;
+    final int attempts;
+    final String lastError;
+    final long retryAfter;
+    //0 unless the entry has been dead lettered
+    final long deadLettered;
+    final int blobSize;
+    //null when the record was read without its blob
+    final String blob;
+
+    private JournalRecord(byte type, String id, long sequence, long created, String component, String version, int attempts,
+                          String lastError, long retryAfter, long deadLettered, int blobSize, String blob) {
+        this.type = type;
+        this.id = id;
+        this.sequence = sequence;
+        this.created = created;
+        this.component = component;
+        this.version = version;
+        this.attempts = attempts;
+        this.lastError = lastError;
+        this.retryAfter = retryAfter;
+        this.deadLettered = deadLettered;
+        this.blobSize = blobSize;
+        this.blob = blob;
+    }
+
+    static JournalRecord entry(String id, long sequence, long created, String component, String version, int attempts,
+                               String lastError, long retryAfter, long deadLettered, String blob) {
+        return new JournalRecord(ENTRY, id, sequence, created, component, version, attempts, lastError, retryAfter,
+                deadLettered, blob.getBytes(StandardCharsets.UTF_8).length, blob);
+    }
+
+    static JournalRecord remove(String id) {
+        return new JournalRecord(REMOVE, id, 0, 0, null, null, 0, null, 0, 0, 0, null);
+    }
+
+    JournalRecord withAttempt(String error) {
+        return entry(id, sequence, created, component, version, attempts + 1, error, retryAfter, deadLettered, blob);
+    }
+
+    JournalRecord withRetryAfter(long retryAfter) {
+        return entry(id, sequence, created, component, version, attempts, lastError, retryAfter, deadLettered, blob);
+    }
+
+    JournalRecord withDeadLettered(long deadLettered) {
+        return entry(id, sequence, created, component, version, attempts, lastError, 0, deadLettered, blob);
+    }
+
+    JournalRecord requeued(long sequence, long created) {
+        return entry(id, sequence, created, component, version, 0, null, 0, 0, blob);
+    }
+
+    byte[] encode() {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(blobSize + 128);
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeByte(type);
+            writeString(out, id);
+            if (type == ENTRY) {
+                out.writeLong(sequence);
+                out.writeLong(created);
+                writeString(out, component);
+                writeString(out, version);
+                out.writeInt(attempts);
+                writeString(out, lastError);
+                out.writeLong(retryAfter);
+                out.writeLong(deadLettered);
+                writeString(out, blob);
+            }
+            out.flush();
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            throw new IllegalStateException("Writing to a byte array can't fail", e);
+        }
+    }
+
+    static JournalRecord decode(byte[] body, boolean withBlob) {
+        ByteBuffer in = ByteBuffer.wrap(body);
+        byte type = in.get();
+        String id = readString(in);
+        if (type == REMOVE) {
+            return remove(id);
+        }
+
+        long sequence = in.getLong();
+        long created = in.getLong();
+        String component = readString(in);
+        String version = readString(in);
+        int attempts = in.getInt();
+        String lastError = readString(in);
+        long retryAfter = in.getLong();
+        long deadLettered = in.getLong();
+        int blobSize = in.getInt();
+        String blob = null;
+        if (withBlob) {
+            byte[] blobBytes = new byte[blobSize];
+            in.get(blobBytes);
+            blob = new String(blobBytes, StandardCharsets.UTF_8);
+        }
+        return new JournalRecord(type, id, sequence, created, component, version, attempts, lastError, retryAfter,
+                deadLettered, blobSize, blob);
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+        } else {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+    }
+
+    private static String readString(ByteBuffer in) {
+        int length = in.getInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
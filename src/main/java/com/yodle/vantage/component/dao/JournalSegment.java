@@ -0,0 +1,142 @@
+/*
+ * Copyright 2016 Yodle, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+
+ *     http://www.apache.org/licenses/LICENSE-2.0
+
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yodle.vantage.component.dao;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.function.BiConsumer;
+import java.util.zip.CRC32;
+
+/*
+ * A preallocated, memory mapped file holding a run of journal records.  Each record is framed as its length, the CRC32
+ * of its body and then its body.  Unwritten space is zeroed, so a zero length marks the end of the records, and a CRC
+ * mismatch marks a record that was torn by a crash while it was being written.
+ */
+class JournalSegment implements Closeable {
+    static final String SUFFIX = ".segment";
+    static final int FRAME_BYTES = 8;
+
+    final long number;
+    private final File file;
+    private final RandomAccessFile raf;
+    private final MappedByteBuffer buffer;
+    private int writePosition;
+
+    private JournalSegment(long number, File file, int capacity) throws IOException {
+        this.number = number;
+        this.file = file;
+        this.raf = new RandomAccessFile(file, "rw");
+        if (raf.length() < capacity) {
+            raf.setLength(capacity);
+        }
+        this.buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, raf.length());
+    }
+
+    static JournalSegment create(File dir, long number, int capacity) throws IOException {
+        return new JournalSegment(number, new File(dir, fileName(number)), capacity);
+    }
+
+    static JournalSegment open(File file) throws IOException {
+        return new JournalSegment(number(file), file, 0);
+    }
+
+    static String fileName(long number) {
+        return String.format("%020d%s", number, SUFFIX);
+    }
+
+    static long number(File file) {
+        return Long.parseLong(file.getName().substring(0, file.getName().length() - SUFFIX.length()));
+    }
+
+    int capacity() {
+        return buffer.capacity();
+    }
+
+    //Hands every intact record to the consumer along with its position, stopping at the end of the records or at the
+    //first torn record, and leaves the segment ready to append after the last intact one
+    void recover(BiConsumer<Integer, byte[]> consumer) {
+        int position = 0;
+        while (position + FRAME_BYTES <= buffer.capacity()) {
+            int length = buffer.getInt(position);
+            if (length <= 0 || position + FRAME_BYTES + length > buffer.capacity()) {
+                break;
+            }
+            byte[] body = readBody(position, length);
+            if (crc(body) != buffer.getInt(position + 4)) {
+                break;
+            }
+            consumer.accept(position, body);
+            position += FRAME_BYTES + length;
+        }
+        writePosition = position;
+    }
+
+    //Returns the position the record was written at, or -1 if it doesn't fit in what's left of the segment
+    int append(byte[] body) {
+        if (writePosition + FRAME_BYTES + body.length > buffer.capacity()) {
+            return -1;
+        }
+
+        int position = writePosition;
+        ByteBuffer out = buffer.duplicate();
+        out.position(position + 4);
+        out.putInt(crc(body));
+        out.put(body);
+        //the length goes in last so a record is never seen before the rest of it has been written
+        buffer.putInt(position, body.length);
+        writePosition += FRAME_BYTES + body.length;
+        return position;
+    }
+
+    byte[] read(int position) {
+        return readBody(position, buffer.getInt(position));
+    }
+
+    void force() {
+        buffer.force();
+    }
+
+    @Override
+    public void close() throws IOException {
+        raf.close();
+    }
+
+    void delete() throws IOException {
+        close();
+        if (!file.delete()) {
+            throw new IOException("Unable to delete journal segment " + file);
+        }
+    }
+
+    private byte[] readBody(int position, int length) {
+        byte[] body = new byte[length];
+        ByteBuffer in = buffer.duplicate();
+        in.position(position + FRAME_BYTES);
+        in.get(body);
+        return body;
+    }
+
+    private static int crc(byte[] body) {
+        CRC32 crc = new CRC32();
+        crc.update(body);
+        return (int) crc.getValue();
+    }
+}
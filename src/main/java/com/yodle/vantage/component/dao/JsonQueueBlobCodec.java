@@ -0,0 +1,44 @@
+/*
+ * Copyright 2016 Yodle, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+
+ *     http://www.apache.org/licenses/LICENSE-2.0
+
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yodle.vantage.component.dao;
+
+import java.io.IOException;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.yodle.vantage.component.domain.Version;
+
+@Component
+public class JsonQueueBlobCodec implements QueueBlobCodec {
+    @Autowired private ObjectMapper objectMapper;
+
+    @Override
+    public String getName() {
+        return "json";
+    }
+
+    @Override
+    public String encode(Version version) throws IOException {
+        return objectMapper.writeValueAsString(version);
+    }
+
+    @Override
+    public Version decode(String encoded) throws IOException {
+        return objectMapper.readValue(encoded, Version.class);
+    }
+}
@@ -0,0 +1,196 @@
+/*
+ * Copyright 2016 Yodle, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+
+ *     http://www.apache.org/licenses/LICENSE-2.0
+
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yodle.vantage.component.dao;
+
+import java.math.BigInteger;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import com.google.common.collect.ImmutableMap;
+
+//Encodes a version string into a key that, compared as a plain string, sorts the same way maven's ComparableVersion
+//sorts the versions themselves.  The version is parsed the way ComparableVersion (maven-artifact 3.3.9) parses it: a
+//list of numbers and qualifiers with a nested list started at every '-' and at every switch between digits and letters.
+//Each item is then written as a tag character followed by its value.
+//
+//ComparableVersion is not transitive for a few odd mixes of qualifiers and nested lists (1.sp > 1 > 1-alpha but
+//1.sp < 1-alpha), so for those the keys just pick one consistent order.
+public final class MavenVersionSortKey {
+    private static final List<String> QUALIFIERS = Arrays.asList("alpha", "beta", "milestone", "rc", "snapshot", "", "sp");
+    private static final Map<String, String> ALIASES = ImmutableMap.of("ga", "", "final", "", "cr", "rc");
+    private static final String RELEASE = String.valueOf(QUALIFIERS.indexOf(""));
+
+    //Tags in the order their items sort.  The end of a list has to sort after anything that makes a version older than
+    //the same version without it (1-alpha < 1) and before anything that makes it newer (1 < 1-sp < 1.1).  Zeros and
+    //release qualifiers are equal to a missing item, so they sort on whichever side of the end the items after them do
+    private static final char LOW_QUALIFIER = '1';
+    private static final char LOW_LIST = '2';
+    private static final char LOW_ZERO = '3';
+    private static final char END = '4';
+    private static final char HIGH_QUALIFIER = '5';
+    private static final char HIGH_LIST = '6';
+    private static final char HIGH_ZERO = '7';
+    private static final char NUMBER = '8';
+    //sorts before any character a qualifier can contain, so shorter qualifiers sort before longer ones they prefix
+    private static final char QUALIFIER_END = ' ';
+
+    private MavenVersionSortKey() {}
+
+    public static String encode(String version) {
+        StringBuilder key = new StringBuilder();
+        encode(parse(version), key);
+        return key.toString();
+    }
+
+    private static void encode(List<Object> items, StringBuilder key) {
+        for (int i = 0; i < items.size(); ++i) {
+            Object item = items.get(i);
+            int sign = compareToMissing(item);
+            if (sign == 0) {
+                sign = compareToMissing(items.subList(i + 1, items.size()));
+            }
+            boolean low = sign < 0;
+
+            if (item instanceof BigInteger) {
+                BigInteger number = (BigInteger) item;
+                if (number.signum() == 0) {
+                    key.append(low ? LOW_ZERO : HIGH_ZERO);
+                } else {
+                    String digits = number.toString();
+                    key.append(NUMBER).append(String.format("%03d", digits.length())).append(digits);
+                }
+            } else if (item instanceof String) {
+                key.append(low ? LOW_QUALIFIER : HIGH_QUALIFIER).append(item).append(QUALIFIER_END);
+            } else {
+                key.append(low ? LOW_LIST : HIGH_LIST);
+                encode(asList(item), key);
+            }
+        }
+        key.append(END);
+    }
+
+    //how an item compares to a missing item, looking past items that are equal to a missing one
+    private static int compareToMissing(Object item) {
+        if (item instanceof BigInteger) {
+            return ((BigInteger) item).signum();
+        } else if (item instanceof String) {
+            return Integer.signum(((String) item).compareTo(RELEASE));
+        } else {
+            for (Object nested : asList(item)) {
+                int sign = compareToMissing(nested);
+                if (sign != 0) {
+                    return sign;
+                }
+            }
+            return 0;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<Object> asList(Object item) {
+        return (List<Object>) item;
+    }
+
+    private static List<Object> parse(String version) {
+        version = version.toLowerCase(Locale.ENGLISH);
+        List<Object> items = new ArrayList<>();
+        List<Object> list = items;
+        Deque<List<Object>> lists = new ArrayDeque<>();
+        lists.push(list);
+
+        boolean isDigit = false;
+        int start = 0;
+        for (int i = 0; i < version.length(); ++i) {
+            char c = version.charAt(i);
+            if (c == '.' || c == '-') {
+                list.add(i == start ? BigInteger.ZERO : parseItem(isDigit, version.substring(start, i)));
+                start = i + 1;
+                if (c == '-') {
+                    list = startList(list, lists);
+                }
+            } else if (Character.isDigit(c)) {
+                if (!isDigit && i > start) {
+                    list.add(qualifier(version.substring(start, i), true));
+                    start = i;
+                    list = startList(list, lists);
+                }
+                isDigit = true;
+            } else {
+                if (isDigit && i > start) {
+                    list.add(parseItem(true, version.substring(start, i)));
+                    start = i;
+                    list = startList(list, lists);
+                }
+                isDigit = false;
+            }
+        }
+        if (version.length() > start) {
+            list.add(parseItem(isDigit, version.substring(start)));
+        }
+
+        while (!lists.isEmpty()) {
+            normalize(lists.pop());
+        }
+        return items;
+    }
+
+    private static List<Object> startList(List<Object> parent, Deque<List<Object>> lists) {
+        List<Object> list = new ArrayList<>();
+        parent.add(list);
+        lists.push(list);
+        return list;
+    }
+
+    private static Object parseItem(boolean isDigit, String value) {
+        return isDigit ? new BigInteger(value) : qualifier(value, false);
+    }
+
+    //the same comparable form ComparableVersion gives qualifiers: the index of a known qualifier or the qualifier itself
+    //after all of the known ones
+    private static String qualifier(String value, boolean followedByDigit) {
+        if (followedByDigit && value.length() == 1) {
+            switch (value.charAt(0)) {
+                case 'a': value = "alpha"; break;
+                case 'b': value = "beta"; break;
+                case 'm': value = "milestone"; break;
+                default: break;
+            }
+        }
+        value = ALIASES.getOrDefault(value, value);
+        int index = QUALIFIERS.indexOf(value);
+        return index == -1 ? QUALIFIERS.size() + "-" + value : String.valueOf(index);
+    }
+
+    //trailing items equal to a missing item are dropped, looking past a trailing nested list
+    private static void normalize(List<Object> list) {
+        for (int i = list.size() - 1; i >= 0; --i) {
+            Object item = list.get(i);
+            boolean isNull = BigInteger.ZERO.equals(item)
+                    || RELEASE.equals(item)
+                    || (item instanceof List && asList(item).isEmpty());
+            if (isNull) {
+                list.remove(i);
+            } else if (!(item instanceof List)) {
+                break;
+            }
+        }
+    }
+}
@@ -0,0 +1,30 @@
+/*
+ * Copyright 2016 Yodle, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+
+ *     http://www.apache.org/licenses/LICENSE-2.0
+
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yodle.vantage.component.dao;
+
+import java.io.IOException;
+
+import com.yodle.vantage.component.domain.Version;
+
+//Turns queued versions into the strings stored on queue entries and back.  Blobs are marked with the name of the codec
+//that wrote them so that changing codecs doesn't strand anything already in the queue
+public interface QueueBlobCodec {
+    String getName();
+
+    String encode(Version version) throws IOException;
+
+    Version decode(String encoded) throws IOException;
+}
@@ -0,0 +1,73 @@
+/*
+ * Copyright 2016 Yodle, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+
+ *     http://www.apache.org/licenses/LICENSE-2.0
+
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yodle.vantage.component.dao;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import javax.annotation.PostConstruct;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.yodle.vantage.component.domain.Version;
+
+/*
+ * Blobs written by anything other than the json codec are prefixed with the codec's name and a ':'.  Plain JSON blobs
+ * are left unmarked since that's what every blob queued before codecs existed looks like, and it keeps blobs readable by
+ * older instances when the json codec is configured.
+ */
+@Component
+public class QueueBlobSerializer {
+    private static final String JSON_CODEC = "json";
+    private static final char MARKER_SEPARATOR = ':';
+
+    @Autowired private List<QueueBlobCodec> codecs;
+    @Value("${vantage.queue.blob-codec:deflate}") private String codecName;
+    private Map<String, QueueBlobCodec> codecsByName;
+    private QueueBlobCodec codec;
+
+    @PostConstruct
+    public void init() {
+        codecsByName = codecs.stream().collect(Collectors.toMap(QueueBlobCodec::getName, Function.identity()));
+        codec = codecsByName.get(codecName);
+        if (codec == null) {
+            throw new IllegalStateException("Unknown queue blob codec [" + codecName + "], expected one of " + codecsByName.keySet());
+        }
+    }
+
+    public String serialize(Version version) throws IOException {
+        String encoded = codec.encode(version);
+        return JSON_CODEC.equals(codec.getName()) ? encoded : codec.getName() + MARKER_SEPARATOR + encoded;
+    }
+
+    public Version deserialize(String blob) throws IOException {
+        if (blob.startsWith("{")) {
+            return codecsByName.get(JSON_CODEC).decode(blob);
+        }
+
+        int separator = blob.indexOf(MARKER_SEPARATOR);
+        QueueBlobCodec blobCodec = separator < 0 ? null : codecsByName.get(blob.substring(0, separator));
+        if (blobCodec == null) {
+            throw new IOException("Queue blob was not written by a known codec");
+        }
+        return blobCodec.decode(blob.substring(separator + 1));
+    }
+}
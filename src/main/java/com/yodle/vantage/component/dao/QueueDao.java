@@ -16,106 +16,435 @@
 package com.yodle.vantage.component.dao;
 
 import java.io.IOException;
+import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.stream.Collectors;
+
+import javax.annotation.PostConstruct;
 
 import org.apache.commons.lang3.RandomStringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.dao.EmptyResultDataAccessException;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.stereotype.Component;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.yodle.vantage.component.domain.DeadLetteredCreateRequest;
 import com.yodle.vantage.component.domain.Version;
+import com.yodle.vantage.component.domain.VersionId;
+import com.yodle.vantage.exception.QueueEntryFailedException;
 
 @Component
-public class QueueDao {
-    @Autowired private ObjectMapper objectMapper;
+public class QueueDao implements CreateQueue {
+    @Autowired private QueueBlobSerializer queueBlobSerializer;
     @Autowired private JdbcTemplate jdbcTemplate;
+    @Value("${vantage.queue.consumers:1}") private int consumers;
     private static Logger l = LoggerFactory.getLogger(QueueDao.class);
 
-    public void lockQueueTail() {
-        String id = RandomStringUtils.randomAlphanumeric(16);
+    /*
+     * The queue is a linked list of QueueCreateRequest nodes joined by BEFORE relationships.  The head QueueLock node
+     * points at the first entry with a FIRST relationship and the tail QueueLock node points at the last entry with a
+     * LAST relationship so that neither enqueuing nor dequeuing has to scan the queue.  All changes to the list structure
+     * are made while holding the tail lock, which also keeps a running count of the entries in the queue and the total
+     * size of their blobs as its depth and blobSize so that reporting on the queue doesn't have to scan it.
+     *
+     * When there are multiple consumers, each component is assigned to exactly one consumer which processes that
+     * component's entries in queue order, so entries are FIFO per component rather than globally.  Each consumer then
+     * has its own head lock.  Every entry records the consumer it's assigned to and a seq taken from a counter on the
+     * tail lock as it's appended, so a consumer can go straight to its own entries in queue order through the consumer
+     * index rather than walking past everyone else's.
+     */
+
+    //links c_new in as the last entry of the queue
+    private static final String APPEND_TO_QUEUE =
+            "WITH c_new " +
+                    "MERGE (t:QueueLock {name:'tail'}) " +
+                    "SET t.depth = coalesce(t.depth, 0) + 1, t.blobSize = coalesce(t.blobSize, 0) + c_new.blobSize, " +
+                    "  t.seq = coalesce(t.seq, 0) + 1 " +
+                    "SET c_new.seq = t.seq " +
+                    "WITH t, c_new " +
+                    "OPTIONAL MATCH (t)-[last:LAST]->(c_last:QueueCreateRequest) " +
+                    "FOREACH (ignored IN CASE WHEN c_last IS NULL THEN [] ELSE [1] END | " +
+                    "  DELETE last " +
+                    "  CREATE (c_last)-[:BEFORE]->(c_new)) " +
+                    "CREATE (t)-[:LAST]->(c_new) " +
+                    //if the queue was empty, the new entry is also the first entry
+                    "WITH c_new, c_last WHERE c_last IS NULL " +
+                    "MERGE (h:QueueLock {name:'head'}) " +
+                    "CREATE (h)-[:FIRST]->(c_new)";
+
+    //joins the entries on either side of entry c, moving the head and tail pointers off of it if they pointed at it and
+    //taking it out of the running totals
+    private static final String UNLINK_FROM_QUEUE =
+            "OPTIONAL MATCH (prev:QueueCreateRequest)-[:BEFORE]->(c) " +
+                    "OPTIONAL MATCH (c)-[:BEFORE]->(next:QueueCreateRequest) " +
+                    "OPTIONAL MATCH (h:QueueLock)-[:FIRST]->(c) " +
+                    "OPTIONAL MATCH (t:QueueLock)-[:LAST]->(c) " +
+                    "FOREACH (ignored IN CASE WHEN prev IS NOT NULL AND next IS NOT NULL THEN [1] ELSE [] END | " +
+                    "  CREATE (prev)-[:BEFORE]->(next)) " +
+                    "FOREACH (ignored IN CASE WHEN h IS NOT NULL AND next IS NOT NULL THEN [1] ELSE [] END | " +
+                    "  CREATE (h)-[:FIRST]->(next)) " +
+                    "FOREACH (ignored IN CASE WHEN t IS NOT NULL AND prev IS NOT NULL THEN [1] ELSE [] END | " +
+                    "  CREATE (t)-[:LAST]->(prev)) " +
+                    "WITH DISTINCT c " +
+                    "MATCH (totals:QueueLock {name:'tail'}) " +
+                    "SET totals.depth = totals.depth - 1, totals.blobSize = totals.blobSize - c.blobSize ";
+
+    @PostConstruct
+    public void setupQueue() {
+        jdbcTemplate.execute("CREATE INDEX ON :QueueCreateRequest(id)");
+        jdbcTemplate.execute("CREATE INDEX ON :QueueCreateRequest(component)");
+        jdbcTemplate.execute("CREATE INDEX ON :QueueCreateRequest(consumer)");
+        jdbcTemplate.execute("CREATE INDEX ON :DeadLetteredCreateRequest(id)");
+
+        //queues created before the head and tail pointers existed need them to be pointed at their current ends
+        jdbcTemplate.update(
+                "MERGE (h:QueueLock {name:'head'}) " +
+                        "WITH h WHERE NOT (h)-[:FIRST]->() " +
+                        "MATCH (c:QueueCreateRequest) " +
+                        "WHERE NOT ()-[:BEFORE]->(c) " +
+                        "WITH h, c LIMIT 1 " +
+                        "CREATE (h)-[:FIRST]->(c)"
+        );
+        jdbcTemplate.update(
+                "MERGE (t:QueueLock {name:'tail'}) " +
+                        "WITH t WHERE NOT (t)-[:LAST]->() " +
+                        "MATCH (c:QueueCreateRequest) " +
+                        "WHERE NOT (c)-[:BEFORE]->() " +
+                        "WITH t, c LIMIT 1 " +
+                        "CREATE (t)-[:LAST]->(c)"
+        );
+
+        //likewise entries queued before the queue kept running totals need their sizes recorded and totals taken.  The
+        //tail lock is taken first so nothing is queued or removed while they're being counted
         jdbcTemplate.update(
-                "MERGE (l:QueueLock {name:'tail'}) " +
-                        "ON MATCH SET l._lock_ = {1}",
-                id
+                "MATCH (c:QueueCreateRequest) " +
+                        "WHERE NOT has(c.blobSize) " +
+                        "SET c.blobSize = size(c.blob)"
         );
+        lockQueueTail();
+        jdbcTemplate.update(
+                "MATCH (t:QueueLock {name:'tail'}) " +
+                        "WHERE NOT has(t.depth) " +
+                        "OPTIONAL MATCH (c:QueueCreateRequest) " +
+                        "WITH t, count(c) AS depth, coalesce(sum(c.blobSize), 0) AS blobSize " +
+                        "SET t.depth = depth, t.blobSize = blobSize"
+        );
+
+        //and entries queued before they were numbered are numbered in the order they were queued
+        jdbcTemplate.update(
+                "MATCH (t:QueueLock {name:'tail'}) " +
+                        "WHERE NOT has(t.seq) " +
+                        "OPTIONAL MATCH (c:QueueCreateRequest) " +
+                        "WITH t, c ORDER BY c.created " +
+                        "WITH t, collect(c) AS entries " +
+                        "SET t.seq = size(entries) " +
+                        "WITH entries " +
+                        "UNWIND range(0, size(entries) - 1) AS i " +
+                        "WITH entries[i] AS c, i " +
+                        "SET c.seq = i + 1"
+        );
+
+        //likewise entries queued before entries recorded what they create need it filled in so they go to the right
+        //consumer and can be coalesced
+        List<Map<String, Object>> unassigned = jdbcTemplate.queryForList(
+                "MATCH (c:QueueCreateRequest) " +
+                        "WHERE NOT has(c.version) " +
+                        "RETURN c.id, c.blob"
+        );
+        for (Map<String, Object> row : unassigned) {
+            toCreateRequest(row).ifPresent(qcr -> jdbcTemplate.update(
+                    "MATCH (c:QueueCreateRequest {id:{1}}) SET c.component = {2}, c.version = {3}",
+                    qcr.id, qcr.v.getComponent(), qcr.v.getVersion()
+            ));
+        }
+
+        //entries are reassigned whenever the number of consumers has changed since they were assigned, as well as when
+        //they were queued before entries recorded their consumer
+        List<Map<String, Object>> reassigned = jdbcTemplate.queryForList(
+                "MATCH (t:QueueLock {name:'tail'}) " +
+                        "WHERE coalesce(t.consumers, 0) <> {1} " +
+                        "MATCH (c:QueueCreateRequest) " +
+                        "RETURN c.id, c.component",
+                consumers
+        );
+        Map<Integer, List<String>> idsByConsumer = reassigned.stream().collect(Collectors.groupingBy(
+                row -> getConsumer((String) row.get("c.component")),
+                Collectors.mapping(row -> (String) row.get("c.id"), Collectors.toList())
+        ));
+        idsByConsumer.forEach((consumer, ids) -> jdbcTemplate.update(
+                "UNWIND {1} AS id " +
+                        "MATCH (c:QueueCreateRequest {id:id}) " +
+                        "SET c.consumer = {2}",
+                ids, consumer
+        ));
+        jdbcTemplate.update("MATCH (t:QueueLock {name:'tail'}) SET t.consumers = {1}", consumers);
+    }
+
+    public int getConsumers() {
+        return consumers;
     }
 
+    public int getConsumer(String component) {
+        return component == null ? 0 : Math.floorMod(component.hashCode(), consumers);
+    }
+
+    public void lockQueueTail() {
+        lock("tail");
+    }
+
+    //Locks the front of the queue for every consumer
     public void lockQueueHead() {
+        if (consumers == 1) {
+            lock("head");
+        } else {
+            for (int consumer = 0; consumer < consumers; ++consumer) {
+                lock("head-" + consumer);
+            }
+        }
+    }
+
+    public void lockQueueHead(int consumer) {
+        lock(consumers == 1 ? "head" : "head-" + consumer);
+    }
+
+    private void lock(String name) {
         String id = RandomStringUtils.randomAlphanumeric(16);
         jdbcTemplate.update(
-                "MERGE (l:QueueLock {name:'head'}) " +
-                        "ON MATCH SET l._lock_ = {1}",
-                id
+                "MERGE (l:QueueLock {name:{1}}) " +
+                        "ON MATCH SET l._lock_ = {2}",
+                name, id
         );
     }
 
     public void saveCreateRequest(Version version) {
         try {
-            String blob = objectMapper.writeValueAsString(version);
+            String blob = queueBlobSerializer.serialize(version);
             String id = RandomStringUtils.randomAlphanumeric(16);
             jdbcTemplate.update(
-                    "CREATE (c_new:QueueCreateRequest {blob:{1}, id: {2}, created: timestamp()})",
-                    blob, id
-            );
-
-            jdbcTemplate.update(
-                    "MATCH (c:QueueCreateRequest), " +
-                            "(c_new:QueueCreateRequest {id:{1}}) " +
-                            "WHERE NOT c.id = {1} AND NOT (c)-[:BEFORE]->() " +
-                            "CREATE (c)-[:BEFORE]->(c_new)",
-                    id
+                    "CREATE (c_new:QueueCreateRequest {blob:{1}, id: {2}, component: {3}, version: {4}, blobSize: {5}, consumer: {6}, created: timestamp()}) " +
+                            APPEND_TO_QUEUE,
+                    blob, id, version.getComponent(), version.getVersion(), blob.length(), getConsumer(version.getComponent())
             );
         } catch (IOException e) {
             throw new RuntimeException("Exception when trying to serialize create queue request", e);
         }
     }
 
-    public static class QueueCreateRequest {
-        public final Version v;
-        public final String id;
+    //Reads the running totals and the front of the queue, so this takes the same time however long the queue gets
+    public QueueStats getQueueStats() {
+        Map<String, Object> rs = jdbcTemplate.queryForMap(
+                "OPTIONAL MATCH (t:QueueLock {name:'tail'}) " +
+                        "OPTIONAL MATCH (:QueueLock {name:'head'})-[:FIRST]->(c:QueueCreateRequest) " +
+                        "RETURN t.depth, t.blobSize, c.created"
+        );
 
-        public QueueCreateRequest(Version v, String id) {
-            this.v = v;
-            this.id = id;
-        }
+        return new QueueStats(
+                toLong(rs.get("t.depth")),
+                rs.get("c.created") == null ? null : toLong(rs.get("c.created")),
+                toLong(rs.get("t.blobSize"))
+        );
     }
 
-    public Optional<QueueCreateRequest> getCreateRequest() {
+    private static long toLong(Object value) {
+        return value == null ? 0 : ((Number) value).longValue();
+    }
 
+    public Optional<QueueCreateRequest> getCreateRequest() {
         try {
             Map<String,Object> rs = jdbcTemplate.queryForMap(
-                    "MATCH(c:QueueCreateRequest) " +
-                            "WHERE NOT ()-[:BEFORE]->(c) " +
-                            "return c.id, c.blob"
+                    "MATCH (:QueueLock {name:'head'})-[:FIRST]->(c:QueueCreateRequest) " +
+                            "return c.id, c.blob, c.created"
             );
 
-            return Optional.of(
-                    new QueueCreateRequest(
-                            objectMapper.readValue((String) rs.get("c.blob"), Version.class),
-                            (String) rs.get("c.id")
-                    )
-            );
-        } /*catch (UncategorizedSQLException e) {
-            l.debug("Exception occurred getting create request, probably because of queue locking", e);
-        }*/ catch (EmptyResultDataAccessException e) {
+            return toCreateRequest(rs);
+        } catch (EmptyResultDataAccessException e) {
             return Optional.empty();
-        } catch (IOException e) {
+        }
+    }
+
+    public List<QueueCreateRequest> getCreateRequests(int consumer, int limit) {
+        if (consumers == 1 && limit == 1) {
+            //the usual case, where we can go straight to the first entry unless it's waiting to be retried
+            List<Map<String, Object>> rs = jdbcTemplate.queryForList(
+                    "MATCH (:QueueLock {name:'head'})-[:FIRST]->(c:QueueCreateRequest) " +
+                            "WHERE coalesce(c.retryAfter, 0) <= timestamp() " +
+                            "RETURN c.id, c.blob, c.created"
+            );
+            if (!rs.isEmpty()) {
+                return Lists.newArrayList(readCreateRequest(rs.get(0)));
+            }
+        }
+
+        //only the earliest entry of a component is ever attempted, so a component with a waiting entry has nothing else
+        //that can be processed until it's retried
+        List<String> ids = jdbcTemplate.queryForList(
+                "OPTIONAL MATCH (w:QueueCreateRequest) " +
+                        "WHERE w.consumer = {1} AND w.retryAfter > timestamp() " +
+                        "WITH collect(DISTINCT w.component) AS waiting " +
+                        "MATCH (c:QueueCreateRequest) " +
+                        "WHERE c.consumer = {1} AND coalesce(c.retryAfter, 0) <= timestamp() " +
+                        "  AND (c.component IS NULL OR NOT c.component IN waiting) " +
+                        "RETURN c.id " +
+                        "ORDER BY c.seq " +
+                        "LIMIT {2}",
+                String.class,
+                consumer, limit
+        );
+        if (ids.isEmpty()) {
+            return Lists.newArrayList();
+        }
+
+        Map<String, Map<String, Object>> blobsById = Maps.uniqueIndex(
+                jdbcTemplate.queryForList(
+                        "UNWIND {1} AS id " +
+                                "MATCH (c:QueueCreateRequest {id:id}) " +
+                                "RETURN c.id, c.blob, c.created",
+                        ids
+                ),
+                row -> (String) row.get("c.id")
+        );
+
+        return ids.stream()
+                .map(blobsById::get)
+                .map(this::readCreateRequest)
+                .collect(Collectors.toList());
+    }
+
+    public List<QueueCreateRequest> getDuplicateCreateRequests(QueueCreateRequest createRequest) {
+        List<Map<String, Object>> rs = jdbcTemplate.queryForList(
+                "MATCH (c:QueueCreateRequest {component:{1}}) " +
+                        "WHERE c.version = {2} AND c.id <> {3} " +
+                        "RETURN c.id, c.blob, c.created " +
+                        "ORDER BY c.created",
+                createRequest.v.getComponent(), createRequest.v.getVersion(), createRequest.id
+        );
+
+        //anything we can't deserialize is left in the queue to be dealt with when it reaches the front
+        return rs.stream()
+                .map(this::toCreateRequest)
+                .filter(Optional::isPresent)
+                .map(Optional::get)
+                .collect(Collectors.toList());
+    }
+
+    private Optional<QueueCreateRequest> toCreateRequest(Map<String, Object> rs) {
+        try {
+            return Optional.of(readCreateRequest(rs));
+        } catch (QueueEntryFailedException e) {
             l.error("Error deserializing queue entry", e);
             return Optional.empty();
         }
     }
 
+    private QueueCreateRequest readCreateRequest(Map<String, Object> rs) {
+        String id = (String) rs.get("c.id");
+        try {
+            return new QueueCreateRequest(
+                    queueBlobSerializer.deserialize((String) rs.get("c.blob")),
+                    id,
+                    rs.get("c.created") == null ? null : toLong(rs.get("c.created"))
+            );
+        } catch (IOException e) {
+            throw new QueueEntryFailedException(id, e);
+        }
+    }
+
+    //Unlinks the entry from wherever it is in the queue, moving the head and tail pointers if they pointed at it.  The
+    //caller must hold the tail lock
     public void deleteCreateRequest(String createRequestId) {
         jdbcTemplate.update(
-                "MATCH (c:QueueCreateRequest {id:{1}})" +
-                        "OPTIONAL MATCH (c)-[r:BEFORE]->() " +
-                        "DELETE c, r",
+                "MATCH (c:QueueCreateRequest {id:{1}}) " +
+                        UNLINK_FROM_QUEUE +
+                        "DETACH DELETE c",
+                createRequestId
+        );
+    }
+
+    public int recordFailedAttempt(String createRequestId, String error) {
+        List<Map<String, Object>> rs = jdbcTemplate.queryForList(
+                "MATCH (c:QueueCreateRequest {id:{1}}) " +
+                        "SET c.attempts = coalesce(c.attempts, 0) + 1, c.lastError = {2} " +
+                        "RETURN c.attempts",
+                createRequestId, error
+        );
+        return rs.isEmpty() ? 0 : (int) toLong(rs.get(0).get("c.attempts"));
+    }
+
+    public void delayCreateRequest(String createRequestId, long delayMs) {
+        jdbcTemplate.update(
+                "MATCH (c:QueueCreateRequest {id:{1}}) " +
+                        "SET c.retryAfter = timestamp() + {2}",
+                createRequestId, delayMs
+        );
+    }
+
+    //Moves the entry out of the queue and onto the dead letter list.  The caller must hold the tail lock
+    public void deadLetterCreateRequest(String createRequestId) {
+        jdbcTemplate.update(
+                "MATCH (c:QueueCreateRequest {id:{1}}) " +
+                        UNLINK_FROM_QUEUE +
+                        "WITH c " +
+                        "OPTIONAL MATCH (c)-[r]-() " +
+                        "DELETE r " +
+                        "WITH DISTINCT c " +
+                        "REMOVE c:QueueCreateRequest, c.retryAfter " +
+                        "SET c:DeadLetteredCreateRequest, c.deadLettered = timestamp()",
+                createRequestId
+        );
+    }
+
+    public List<DeadLetteredCreateRequest> getDeadLetteredCreateRequests() {
+        return jdbcTemplate.query(
+                "MATCH (c:DeadLetteredCreateRequest) " +
+                        "RETURN c.id, c.component, c.version, c.attempts, c.lastError, c.created, c.deadLettered " +
+                        "ORDER BY c.deadLettered",
+                (rs, rowNum) -> {
+                    DeadLetteredCreateRequest deadLetter = new DeadLetteredCreateRequest();
+                    deadLetter.setId(rs.getString("c.id"));
+                    deadLetter.setComponent(rs.getString("c.component"));
+                    deadLetter.setVersion(rs.getString("c.version"));
+                    deadLetter.setAttempts(rs.getInt("c.attempts"));
+                    deadLetter.setLastError(rs.getString("c.lastError"));
+                    Object queued = rs.getObject("c.created");
+                    deadLetter.setQueued(queued == null ? null : toLong(queued));
+                    deadLetter.setDeadLettered(rs.getLong("c.deadLettered"));
+                    return deadLetter;
+                }
+        );
+    }
+
+    public boolean isDeadLettered(String createRequestId) {
+        return !jdbcTemplate.queryForList(
+                "MATCH (c:DeadLetteredCreateRequest {id:{1}}) RETURN c.id",
+                createRequestId
+        ).isEmpty();
+    }
+
+    //Puts a dead lettered entry back on the end of the queue with a clean slate.  The caller must hold the tail lock
+    public Optional<VersionId> replayDeadLetteredCreateRequest(String createRequestId) {
+        List<Map<String, Object>> rs = jdbcTemplate.queryForList(
+                "MATCH (c:DeadLetteredCreateRequest {id:{1}}) RETURN c.component, c.version",
                 createRequestId
         );
+        if (rs.isEmpty()) {
+            return Optional.empty();
+        }
+
+        String component = (String) rs.get(0).get("c.component");
+        jdbcTemplate.update(
+                "MATCH (c_new:DeadLetteredCreateRequest {id:{1}}) " +
+                        "REMOVE c_new:DeadLetteredCreateRequest, c_new.attempts, c_new.lastError, c_new.deadLettered " +
+                        "SET c_new:QueueCreateRequest, c_new.created = timestamp(), c_new.blobSize = coalesce(c_new.blobSize, size(c_new.blob)), " +
+                        "  c_new.consumer = {2} " +
+                        APPEND_TO_QUEUE,
+                createRequestId, getConsumer(component)
+        );
+        return Optional.of(new VersionId(component, (String) rs.get(0).get("c.version")));
     }
 }
@@ -15,13 +15,24 @@
  */
 package com.yodle.vantage.component.dao;
 
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
 import java.util.stream.Collectors;
 
+import javax.annotation.PostConstruct;
+
+import org.apache.commons.lang3.builder.EqualsBuilder;
+import org.apache.commons.lang3.builder.HashCodeBuilder;
+import org.apache.commons.lang3.builder.ToStringBuilder;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.stereotype.Component;
@@ -32,106 +43,343 @@ import com.yodle.vantage.component.domain.VersionId;
 
 @Component
 public class VersionDao {
+    //a dependency collected from a match that has bound it as v_dep, its component as c_dep and the relationship to it
+    //as r_dep
+    private static final String DEPENDENCY = "{component: c_dep.name, version: v_dep.version, profiles: r_dep.profiles}";
+    //Follows setting the active flags of versions bound as d.  Returns the components of those versions and of everything
+    //they directly depend on, since a version's dependents only include active ones
+    private static final String ACTIVE_CHANGED =
+            "WITH DISTINCT d " +
+                    "MATCH (d)-[:DEPENDS_ON*0..1]->(:Version)-[:VERSION_OF]->(dc:Component) " +
+                    "RETURN DISTINCT dc.name";
+    //binds the version with component {1} and name {2} as v
+    private static final String DEPENDED_ON = "(c:Component {name:{1}})<-[:VERSION_OF]-(v:Version {version:{2}}) ";
+
     @Autowired private JdbcTemplate jdbcTemplate;
 
+    @PostConstruct
+    public void setupIndices() {
+        jdbcTemplate.execute("CREATE INDEX ON :Version(rank)");
+        jdbcTemplate.execute("CREATE INDEX ON :Version(sortKey)");
+        jdbcTemplate.execute("CREATE INDEX ON :Version(active)");
+    }
+
     public boolean createNewVersion(String componentName, String version) {
         return (jdbcTemplate.queryForMap(
                 "MATCH (c:Component {name: {1}}) " +
                         "MERGE (v:Version {version: {2}})-[:VERSION_OF]->(c) " +
-                        "ON CREATE SET v.created=timestamp() " +
+                        "ON CREATE SET v.created=timestamp(), v.sortKey={3}, v.active=false " +
                         "ON MATCH SET v.matched=true " +
                         "return has(v.matched) as matched",
-                componentName, version
+                componentName, version, MavenVersionSortKey.encode(version)
         ).get("matched")).equals(false);
     }
 
-    public void createShadowVersion(String component, String type) {
+    //Versions are merged in the order given so that write locks on them are taken in a deterministic order.  Returns
+    //the subset of versions that did not exist before this call
+    public Set<VersionId> createNewVersions(List<VersionId> versions) {
+        if (versions.isEmpty()) {
+            return new HashSet<>();
+        }
+
+        List<Map<String, Object>> rs = jdbcTemplate.queryForList(
+                "UNWIND {1} AS row " +
+                        "MATCH (c:Component {name: row.component}) " +
+                        "MERGE (v:Version {version: row.version})-[:VERSION_OF]->(c) " +
+                        "ON CREATE SET v.created=timestamp(), v.sortKey=row.sortKey, v.active=false " +
+                        "ON MATCH SET v.matched=true " +
+                        "RETURN row.component AS component, row.version AS version, has(v.matched) AS matched",
+                toSortKeyedRows(versions)
+        );
+
+        return rs.stream()
+                .filter(m -> m.get("matched").equals(false))
+                .map(m -> new VersionId((String) m.get("component"), (String) m.get("version")))
+                .collect(Collectors.toSet());
+    }
+
+    public void createShadowVersions(List<VersionId> versions) {
+        if (versions.isEmpty()) {
+            return;
+        }
+
         jdbcTemplate.update(
-                "MATCH (c:Component {name: {1}}) " +
-                        "MERGE (v:Version {version: {2}, unknown: true})-[:VERSION_OF]->(c) " +
-                        "ON CREATE SET v.created=timestamp() " +
+                "UNWIND {1} AS row " +
+                        "MATCH (c:Component {name: row.component}) " +
+                        "MERGE (v:Version {version: row.version, unknown: true})-[:VERSION_OF]->(c) " +
+                        "ON CREATE SET v.created=timestamp(), v.active=false " +
                         //technically, we dont care about this functionally, but the concurrency of version creation requires
                         //that we hold a write lock on all version nodes we'll be adding dependency relationships to or from
                         //before we try adding any relationships so we can ensure we've taken the locks in a deterministic
                         //deadlock-free order
                         "ON MATCH SET v.matched=true ",
-                component, type
+                toRows(versions)
         );
     }
 
-    public void createResolvedDependency(VersionId version, Version dep, Collection<String> profiles) {
+    public void createResolvedDependencies(VersionId version, Collection<Dependency> dependencies) {
+        if (dependencies.isEmpty()) {
+            return;
+        }
+
+        List<Map<String, Object>> rows = dependencies.stream()
+                .sorted(Comparator.comparing((Dependency d) -> d.getVersion().getComponent()).thenComparing(d -> d.getVersion().getVersion()))
+                .map(d -> {
+                    Map<String, Object> row = toRow(d.getVersion());
+                    row.put("profiles", new ArrayList<>(d.getProfiles()));
+                    return row;
+                })
+                .collect(Collectors.toList());
+
         jdbcTemplate.update(
-                "MATCH (c:Component {name: {1}})<-[:VERSION_OF]-(v:Version {version:{2}})," +
-                        "(c_new:Component {name: {4}})<-[:VERSION_OF]-(v_new:Version {version:{3}}) " +
+                "MATCH (c:Component {name: {1}})<-[:VERSION_OF]-(v:Version {version:{2}}) " +
+                        "UNWIND {3} AS row " +
+                        "MATCH (c_new:Component {name: row.component})<-[:VERSION_OF]-(v_new:Version {version: row.version}) " +
                         "MERGE (v)-[r:DEPENDS_ON]->(v_new) " +
-                        "SET r.profiles = {5} ",
-                version.getComponent(), version.getVersion(), dep.getVersion(), dep.getComponent(), profiles
+                        "SET r.profiles = row.profiles ",
+                version.getComponent(), version.getVersion(), rows
         );
     }
 
-    public void createRequestedDependency(VersionId parent, VersionId dep, String purifiedDepVersion, Collection<String> profiles) {
+    public void createRequestedDependencies(List<RequestedDependency> requestedDependencies) {
+        if (requestedDependencies.isEmpty()) {
+            return;
+        }
+
+        List<Map<String, Object>> rows = requestedDependencies.stream().map(rd -> {
+            Map<String, Object> row = new HashMap<>();
+            row.put("component", rd.parent.getComponent());
+            row.put("version", rd.parent.getVersion());
+            row.put("depComponent", rd.dependency.getComponent());
+            row.put("depVersion", rd.purifiedVersion);
+            row.put("requestVersion", rd.dependency.getVersion() == null ? "" : rd.dependency.getVersion());
+            row.put("profiles", new ArrayList<>(rd.profiles));
+            return row;
+        }).collect(Collectors.toList());
 
-        String requestedVersion = dep.getVersion() == null? "" : dep.getVersion();
         jdbcTemplate.update(
-                "MATCH (c:Component {name: {1}})<-[:VERSION_OF]-(v:Version {version:{2}})," +
-                        "(c_new:Component {name: {4}})<-[:VERSION_OF]-(v_dep:Version {version:{3}}) " +
+                "UNWIND {1} AS row " +
+                        "MATCH (c:Component {name: row.component})<-[:VERSION_OF]-(v:Version {version: row.version})," +
+                        "(c_new:Component {name: row.depComponent})<-[:VERSION_OF]-(v_dep:Version {version: row.depVersion}) " +
                         "MERGE (v)-[r:REQUESTS]->(v_dep) " +
-                        "SET  r.profiles = {5}, r.requestVersion = {6}",
-                parent.getComponent(), parent.getVersion(), purifiedDepVersion, dep.getComponent(), profiles, requestedVersion
+                        "SET  r.profiles = row.profiles, r.requestVersion = row.requestVersion",
+                rows
         );
     }
 
-    public Optional<Version> getVersion(String component, String version) {
+    private List<Map<String, Object>> toRows(List<VersionId> versions) {
+        return versions.stream().map(this::toRow).collect(Collectors.toList());
+    }
 
-        List<Map<String, Object>> matches = jdbcTemplate.queryForList("MATCH (v:Version {version:{1}})-[:VERSION_OF]->(c:Component {name:{2}}) RETURN v", version, component);
-        if (matches.size() == 0) {
-            return Optional.empty();
+    private List<Map<String, Object>> toSortKeyedRows(List<VersionId> versions) {
+        return versions.stream().map(v -> {
+            Map<String, Object> row = toRow(v);
+            row.put("sortKey", MavenVersionSortKey.encode(v.getVersion()));
+            return row;
+        }).collect(Collectors.toList());
+    }
+
+    private Map<String, Object> toRow(VersionId version) {
+        Map<String, Object> row = new HashMap<>();
+        row.put("component", version.getComponent());
+        row.put("version", version.getVersion());
+        return row;
+    }
+
+    public static class RequestedDependency {
+        public final VersionId parent;
+        public final VersionId dependency;
+        public final String purifiedVersion;
+        public final Collection<String> profiles;
+
+        public RequestedDependency(VersionId parent, VersionId dependency, String purifiedVersion, Collection<String> profiles) {
+            this.parent = parent;
+            this.dependency = dependency;
+            this.purifiedVersion = purifiedVersion;
+            this.profiles = profiles;
         }
 
-        List<Map<String, Object>> rsInc = jdbcTemplate.queryForList(
-                "MATCH (v:Version {version:{1}})-[:VERSION_OF]->(c:Component {name:{2}}), " +
-                        "(c_dep:Component)<-[:VERSION_OF]-(v_dep:Version)-[r_dep:DEPENDS_ON]->(v), " +
-                        "(v_active:Version)-[:DEPENDS_ON*0..]->(v_dep) " +
-                        "WHERE NOT (v_active)-[:PRECEDES]->() " +
-                        "RETURN c_dep.name, v_dep.version, r_dep.profiles",
-                version, component
+        @Override public int hashCode() {
+            return HashCodeBuilder.reflectionHashCode(this);
+        }
+
+        @Override public boolean equals(Object obj) {
+            return EqualsBuilder.reflectionEquals(this, obj);
+        }
+
+        @Override public String toString() {
+            return ToStringBuilder.reflectionToString(this);
+        }
+    }
+
+    //The version with the first of its active dependents, how many there are, its resolved and requested dependencies and
+    //whether it's active, in one round trip.  Each set is collected before the next is matched so they don't multiply
+    //each other's rows, and only the first dependentLimit dependents by component and version are collected, since
+    //widely used versions can have far too many to return every time
+    public Optional<Version> getVersion(String component, String version, int dependentLimit) {
+        List<Map<String, Object>> rs = jdbcTemplate.queryForList(
+                "MATCH (c:Component {name:{2}})<-[:VERSION_OF]-(v:Version {version:{1}}) " +
+                        "OPTIONAL MATCH (v_dep:Version)-[:DEPENDS_ON]->(v) " +
+                        "WHERE " + isActive("v_dep") +
+                        "WITH v, count(v_dep) AS dependentCount " +
+                        "OPTIONAL MATCH (c_dep:Component)<-[:VERSION_OF]-(v_dep:Version)-[r_dep:DEPENDS_ON]->(v) " +
+                        "WHERE " + isActive("v_dep") +
+                        "WITH v, dependentCount, c_dep, v_dep, r_dep ORDER BY c_dep.name, v_dep.version LIMIT {3} " +
+                        "WITH v, dependentCount, collect(" + DEPENDENCY + ") AS dependents " +
+                        "OPTIONAL MATCH (c_dep:Component)<-[:VERSION_OF]-(v_dep:Version)<-[r_dep:DEPENDS_ON]-(v) " +
+                        "WITH v, dependentCount, dependents, collect(" + DEPENDENCY + ") AS resolved " +
+                        "OPTIONAL MATCH (c_dep:Component)<-[:VERSION_OF]-(v_dep:Version)<-[r_dep:REQUESTS]-(v) " +
+                        "WITH v, dependentCount, dependents, resolved, collect(" + DEPENDENCY + ") AS requested " +
+                        //optional matches that found nothing leave a dependency with no version behind
+                        "RETURN [d IN dependents WHERE d.version IS NOT NULL] AS dependents, dependentCount, " +
+                        "[d IN resolved WHERE d.version IS NOT NULL] AS resolved, " +
+                        "[d IN requested WHERE d.version IS NOT NULL] AS requested, " +
+                        isActive("v") + "AS active",
+                version, component, dependentLimit
         );
+        if (rs.isEmpty()) {
+            return Optional.empty();
+        }
 
-        List<Map<String, Object>> rsDep = jdbcTemplate.queryForList(
-                "MATCH (v:Version {version:{1}})-[:VERSION_OF]->(c:Component {name:{2}})," +
-                        "(c_dep:Component)<-[:VERSION_OF]-(v_dep:Version)<-[r_dep:DEPENDS_ON]-(v) " +
-                        "RETURN c_dep.name, v_dep.version, r_dep.profiles",
-                version, component
+        Map<String, Object> row = rs.get(0);
+        Version v = new Version(component, version, (Boolean) row.get("active"));
+        v.setDependents(toDependencies(row.get("dependents")));
+        v.setDependentCount(((Number) row.get("dependentCount")).longValue());
+        v.setResolvedDependencies(toDependencies(row.get("resolved")));
+        v.setRequestedDependencies(toDependencies(row.get("requested")));
+        return Optional.of(v);
+    }
+
+    //The version's neo4j node id, for walking its dependents.  Empty if the version doesn't exist
+    public Optional<Long> getNodeId(VersionId version) {
+        List<Long> ids = jdbcTemplate.queryForList(
+                "MATCH " + DEPENDED_ON + "RETURN id(v)",
+                Long.class,
+                version.getComponent(), version.getVersion()
         );
+        return ids.stream().findFirst();
+    }
 
-        List<Map<String, Object>> reqDep = jdbcTemplate.queryForList(
-                "MATCH (v:Version {version:{1}})-[:VERSION_OF]->(c:Component {name:{2}})," +
-                        "(c_dep:Component)<-[:VERSION_OF]-(v_dep:Version)<-[r_dep:REQUESTS]-(v) " +
-                        "RETURN c_dep.name, v_dep.version, r_dep.profiles",
-                version, component
+    //Every version directly depending on any of the versions with the given node ids, optionally only through dependencies
+    //in the given profile.  A version depending on several of them is returned once for each
+    @SuppressWarnings("unchecked")
+    public List<Dependent> getDirectDependents(Collection<Long> nodeIds, String profile) {
+        List<Object> params = new ArrayList<>();
+        params.add(new ArrayList<>(nodeIds));
+        String inProfile = "";
+        if (profile != null) {
+            params.add(profile);
+            inProfile = "WHERE {2} IN r.profiles ";
+        }
+
+        List<Map<String, Object>> rs = jdbcTemplate.queryForList(
+                "UNWIND {1} AS id " +
+                        "MATCH (x:Version) WHERE id(x) = id " +
+                        "MATCH (x)<-[r:DEPENDS_ON]-(d:Version)-[:VERSION_OF]->(dc:Component) " +
+                        inProfile +
+                        "RETURN id(d), dc.name, d.version, " + isActive("d") + "AS active, r.profiles",
+                params.toArray()
         );
 
-        Set<Dependency> incoming = transformToDependencies(rsInc);
-        Set<Dependency> dependencies = transformToDependencies(rsDep);
-        Set<Dependency> requestedDependencies = transformToDependencies(reqDep);
+        return rs.stream()
+                .map(row -> {
+                    Collection<String> profiles = (Collection<String>) row.get("r.profiles");
+                    return new Dependent(
+                            ((Number) row.get("id(d)")).longValue(),
+                            new Dependency(
+                                    new Version((String) row.get("dc.name"), (String) row.get("d.version")),
+                                    profiles == null ? Collections.<String>emptyList() : profiles
+                            ),
+                            (Boolean) row.get("active")
+                    );
+                })
+                .collect(Collectors.toList());
+    }
 
-        Version v = new Version(component, version, getActiveVersions(component).contains(version));
-        v.setDependents(incoming);
-        v.setResolvedDependencies(dependencies);
-        v.setRequestedDependencies(requestedDependencies);
-        return Optional.of(v);
+    @SuppressWarnings("unchecked")
+    private Set<Dependency> toDependencies(Object collected) {
+        return ((Collection<Map<String, Object>>) collected).stream()
+                .map(d -> new Dependency(
+                        new Version((String) d.get("component"), (String) d.get("version")),
+                        (Collection<String>) d.get("profiles")
+                ))
+                .collect(Collectors.toSet());
     }
 
-    private Set<Dependency> transformToDependencies(List<Map<String, Object>> rsInc) {
-        return rsInc.stream().map(this::toDepVersion).collect(Collectors.toSet());
+    //a version is active if it is the latest version of its component or something active depends on it.  That's
+    //stored on each version as it changes, so reads only check the flag; computeActive is for keeping the flag up to date
+    static String isActive(String version) {
+        return "coalesce(" + version + ".active, false) ";
     }
 
-    @SuppressWarnings("unchecked")
-    public Dependency toDepVersion(Map<String, Object> m) {
-        String vDep = (String) m.get("v_dep.version");
-        String name = (String) m.get("c_dep.name");
-        Collection<String> profiles = (Collection<String>) m.get("r_dep.profiles");
-        return new Dependency(new Version(name, vDep), profiles);
+    private static String computeActive(String version) {
+        return "(exists((" + version + ")<-[:LATEST]-()) OR exists((" + version + ")<-[:DEPENDS_ON*]-(:Version)<-[:LATEST]-())) ";
+    }
+
+    //Activates everything the version depends on, directly or not, if the version is itself active.  Returns the
+    //components whose reads changed, see ACTIVE_CHANGED
+    public Set<String> activateDependencies(VersionId version) {
+        return new HashSet<>(jdbcTemplate.queryForList(
+                "MATCH (c:Component {name:{1}})<-[:VERSION_OF]-(v:Version {version:{2}}) " +
+                        "WHERE v.active = true " +
+                        "MATCH (v)-[:DEPENDS_ON*]->(d:Version) " +
+                        "WHERE NOT " + isActive("d") +
+                        "SET d.active = true " +
+                        ACTIVE_CHANGED,
+                String.class,
+                version.getComponent(), version.getVersion()
+        ));
+    }
+
+    //Brings active flags up to date after the component's LATEST relationship has moved.  The new latest version and
+    //everything it depends on become active.  Versions of the component that were active but no longer are, and
+    //everything they depend on, are recomputed since they may still be depended on by something else that's active.
+    //Returns the components whose reads changed, see ACTIVE_CHANGED
+    public Set<String> updateActiveAfterLatestMoved(String component) {
+        Set<String> changed = new HashSet<>(jdbcTemplate.queryForList(
+                "MATCH (c:Component {name:{1}})-[:LATEST]->(:Version)-[:DEPENDS_ON*0..]->(d:Version) " +
+                        "WHERE NOT " + isActive("d") +
+                        "SET d.active = true " +
+                        ACTIVE_CHANGED,
+                String.class,
+                component
+        ));
+        changed.addAll(jdbcTemplate.queryForList(
+                "MATCH (c:Component {name:{1}})<-[:VERSION_OF]-(stale:Version) " +
+                        "WHERE stale.active = true AND NOT " + computeActive("stale") +
+                        "MATCH (stale)-[:DEPENDS_ON*0..]->(d:Version) " +
+                        "WITH DISTINCT d " +
+                        "WITH d, " + computeActive("d") + "AS active " +
+                        "WHERE d.active <> active " +
+                        "SET d.active = active " +
+                        ACTIVE_CHANGED,
+                String.class,
+                component
+        ));
+        return changed;
+    }
+
+    //Recomputes the active flag of every version of the component from scratch.  Returns the components whose reads
+    //changed because some flags were wrong, see ACTIVE_CHANGED
+    public Set<String> rebuildActive(String component) {
+        return new HashSet<>(jdbcTemplate.queryForList(
+                "MATCH (c:Component {name:{1}})<-[:VERSION_OF]-(d:Version) " +
+                        "WITH d, " + computeActive("d") + "AS active " +
+                        "WHERE d.active IS NULL OR d.active <> active " +
+                        "SET d.active = active " +
+                        ACTIVE_CHANGED,
+                String.class,
+                component
+        ));
+    }
+
+    public List<String> getComponentsWithoutActiveFlags() {
+        return jdbcTemplate.queryForList(
+                "MATCH (c:Component)<-[:VERSION_OF]-(v:Version) " +
+                        "WHERE NOT has(v.active) " +
+                        "RETURN DISTINCT c.name",
+                String.class
+        );
     }
 
     public List<String> getVersions(String component) {
@@ -146,14 +394,67 @@ public class VersionDao {
         return mapRsToVersion(rs);
     }
 
+    //Known versions of the component in descending maven order, as given by their sort keys
+    public List<String> getVersionsInSortOrder(String component) {
+        List<Map<String,Object>> rs = jdbcTemplate.queryForList(
+                "MATCH (v:Version)-[:VERSION_OF]->(c:Component {name:{1}}) " +
+                        "WHERE NOT has(v.unknown) " +
+                        "return v " +
+                        "ORDER BY v.sortKey DESC",
+                component
+        );
+
+        return mapRsToVersion(rs);
+    }
+
+    //The most recently created version that isn't purely numeric.  This is the version that decides whether a component
+    //follows maven ordering, since purely numeric versions sort the same way under either ordering
+    public Optional<String> getNewestNonNumericVersion(String component) {
+        List<String> versions = jdbcTemplate.queryForList(
+                "MATCH (v:Version)-[:VERSION_OF]->(c:Component {name:{1}}) " +
+                        "WHERE NOT has(v.unknown) AND NOT v.version =~ '[0-9]*' " +
+                        "RETURN v.version " +
+                        "ORDER BY v.created DESC " +
+                        "LIMIT 1",
+                String.class,
+                component
+        );
+
+        return versions.stream().findFirst();
+    }
+
+    public List<VersionId> getVersionsWithoutSortKey(int limit) {
+        List<Map<String, Object>> rs = jdbcTemplate.queryForList(
+                "MATCH (v:Version)-[:VERSION_OF]->(c:Component) " +
+                        "WHERE NOT has(v.unknown) AND NOT has(v.sortKey) " +
+                        "RETURN c.name, v.version " +
+                        "LIMIT {1}",
+                limit
+        );
+
+        return rs.stream()
+                .map(m -> new VersionId((String) m.get("c.name"), (String) m.get("v.version")))
+                .collect(Collectors.toList());
+    }
+
+    public void setSortKeys(List<VersionId> versions) {
+        if (versions.isEmpty()) {
+            return;
+        }
+
+        jdbcTemplate.update(
+                "UNWIND {1} AS row " +
+                        "MATCH (c:Component {name: row.component})<-[:VERSION_OF]-(v:Version {version: row.version}) " +
+                        "WHERE NOT has(v.unknown) " +
+                        "SET v.sortKey = row.sortKey",
+                toSortKeyedRows(versions)
+        );
+    }
+
     public List<String> getActiveVersions(String component) {
         List<Map<String, Object>> rs = jdbcTemplate.queryForList(
-                "MATCH (c:Component {name:{1}})<-[r:VERSION_OF]-(v) " +
-                        "WHERE NOT (v)-[:PRECEDES]->() AND NOT has(v.unknown) " +
-                        "RETURN v " +
-                        "UNION " +
-                        "MATCH (c:Component {name:{1}})<-[r:VERSION_OF]-(v)<-[r2:DEPENDS_ON*]-(v2) " +
-                        "WHERE NOT (v2)-[:PRECEDES]->() AND NOT has(v2.unknown) " +
+                "MATCH (c:Component {name:{1}})<-[:VERSION_OF]-(v:Version) " +
+                        "WHERE v.active = true " +
                         "RETURN v",
                 component
         );
@@ -166,46 +467,172 @@ public class VersionDao {
         return rs.stream().map(m -> (String) ((Map<String, Object>) m.get("v")).get("version")).collect(Collectors.toList());
     }
 
-    public void insertPrecendenceBetween(String component, String version, String prev, String next) {
-        if (prev != null && next != null) {
-            jdbcTemplate.update(
-                "MATCH (c:Component {name:{1}})" +
-                        "<-[:VERSION_OF]-(prev:Version {version: {2}})" +
-                        "-[p:PRECEDES]->(next:Version {version: {3}})" +
-                        "-[:VERSION_OF]->(c) " +
-                        "DELETE p",
-                    component, prev, next
-            );
-        }
+    //Known versions of the component, most recently created first, with their rank.  Versions that have not been ranked
+    //yet map to null
+    public Map<String, Long> getVersionRanks(String component) {
+        List<Map<String, Object>> rs = jdbcTemplate.queryForList(
+                "MATCH (v:Version)-[:VERSION_OF]->(c:Component {name:{1}}) " +
+                        "WHERE NOT has(v.unknown) " +
+                        "RETURN v.version, v.rank " +
+                        "ORDER BY v.created DESC",
+                component
+        );
 
-        if (prev != null) {
-            jdbcTemplate.update(
-                "MATCH (c:Component {name:{1}})" +
-                        "<-[:VERSION_OF]-(prev:Version {version:{2}})," +
-                        "(c)<-[:VERSION_OF]-(v:Version {version:{3}}) " +
-                        "MERGE (prev)-[:PRECEDES]->(v)",
-                    component, prev, version
-            );
+        Map<String, Long> ranks = new LinkedHashMap<>();
+        for (Map<String, Object> row : rs) {
+            Number rank = (Number) row.get("v.rank");
+            ranks.put((String) row.get("v.version"), rank == null ? null : rank.longValue());
         }
+        return ranks;
+    }
 
-        if (next != null) {
-            jdbcTemplate.update(
-                "MATCH (c:Component {name:{1}})" +
-                        "<-[:VERSION_OF]-(next:Version {version:{2}})," +
-                        "(c)<-[:VERSION_OF]-(v:Version {version:{3}}) " +
-                        "MERGE (v)-[:PRECEDES]->(next)",
-                    component, next, version
-            );
+    //The latest version of the component and its rank, if it has any versions
+    public Map<String, Long> getLatestVersionRank(String component) {
+        List<Map<String, Object>> rs = jdbcTemplate.queryForList(
+                "MATCH (c:Component {name:{1}})-[:LATEST]->(v:Version) " +
+                        "RETURN v.version, v.rank",
+                component
+        );
+
+        Map<String, Long> ranks = new LinkedHashMap<>();
+        for (Map<String, Object> row : rs) {
+            Number rank = (Number) row.get("v.rank");
+            ranks.put((String) row.get("v.version"), rank == null ? null : rank.longValue());
         }
+        return ranks;
     }
 
-    public void insertPrecedenceAtEnd(String component, String version) {
+    //Points every component that has versions but no LATEST relationship at its highest ranked version
+    public void setMissingLatestVersions() {
         jdbcTemplate.update(
-                "MATCH (v_new:Version {version:{2}})-[:VERSION_OF]->(c:Component {name: {1}})<-[:VERSION_OF]-(v_prev:Version) " +
-                        "WHERE NOT v_prev.version = {2} and not v_prev-[:PRECEDES]->() AND NOT has(v_prev.unknown) " +
-                        "CREATE (v_prev)-[:PRECEDES]->(v_new)",
-                component, version
+                "MATCH (c:Component) " +
+                        "WHERE NOT (c)-[:LATEST]->() " +
+                        "MATCH (c)<-[:VERSION_OF]-(v:Version) " +
+                        "WHERE NOT has(v.unknown) AND has(v.rank) " +
+                        "WITH c, v ORDER BY v.rank DESC " +
+                        "WITH c, collect(v)[0] AS latest " +
+                        "MERGE (c)-[:LATEST]->(latest)"
         );
     }
-}
 
+    public List<String> getComponentsWithUnrankedVersions() {
+        return jdbcTemplate.queryForList(
+                "MATCH (c:Component)<-[:VERSION_OF]-(v:Version) " +
+                        "WHERE NOT has(v.unknown) AND NOT has(v.rank) " +
+                        "RETURN DISTINCT c.name",
+                String.class
+        );
+    }
+
+    public List<Precedence> getPrecedences(String component) {
+        List<Map<String, Object>> rs = jdbcTemplate.queryForList(
+                "MATCH (c:Component {name:{1}})<-[:VERSION_OF]-(prev:Version)-[:PRECEDES]->(next:Version) " +
+                        "RETURN prev.version, next.version",
+                component
+        );
+
+        return rs.stream()
+                .map(m -> new Precedence((String) m.get("prev.version"), (String) m.get("next.version")))
+                .collect(Collectors.toList());
+    }
+
+    //Applies the precedence changes for a batch of versions of one component in a single statement.  The component's
+    //LATEST relationship is moved to latest unless it's null, ranks are set, links in replaced are deleted (they are the
+    //links between existing neighbours that now have new versions between them) and then every link in inserted is
+    //merged
+    public void insertPrecedences(String component, Collection<Precedence> replaced, Collection<Precedence> inserted, Map<String, Long> ranks, String latest) {
+        if (ranks.isEmpty() && inserted.isEmpty() && latest == null) {
+            return;
+        }
+
+        List<Map<String, Object>> rankRows = ranks.entrySet().stream().map(e -> {
+            Map<String, Object> row = new HashMap<>();
+            row.put("version", e.getKey());
+            row.put("rank", e.getValue());
+            return row;
+        }).collect(Collectors.toList());
+
+        //unwinding an empty list would leave no rows for the rest of the statement, so a single null is unwound instead
+        jdbcTemplate.update(
+                "MATCH (c:Component {name:{1}}) " +
+                        "OPTIONAL MATCH (c)<-[:VERSION_OF]-(v_latest:Version {version: {5}}) " +
+                        "WHERE NOT has(v_latest.unknown) " +
+                        "OPTIONAL MATCH (c)-[cur_latest:LATEST]->() " +
+                        "FOREACH (ignored IN CASE WHEN v_latest IS NOT NULL THEN [1] ELSE [] END | " +
+                        "DELETE cur_latest " +
+                        "MERGE (c)-[:LATEST]->(v_latest)) " +
+                        "WITH DISTINCT c " +
+                        "UNWIND CASE WHEN size({4}) = 0 THEN [null] ELSE {4} END AS ranked " +
+                        "OPTIONAL MATCH (c)<-[:VERSION_OF]-(v:Version {version: ranked.version}) " +
+                        "WHERE NOT has(v.unknown) " +
+                        "FOREACH (ignored IN CASE WHEN v IS NOT NULL THEN [1] ELSE [] END | SET v.rank = ranked.rank) " +
+                        "WITH DISTINCT c " +
+                        "UNWIND CASE WHEN size({2}) = 0 THEN [null] ELSE {2} END AS replaced " +
+                        "OPTIONAL MATCH (c)<-[:VERSION_OF]-(:Version {version: replaced.prev})" +
+                        "-[p:PRECEDES]->(:Version {version: replaced.next})-[:VERSION_OF]->(c) " +
+                        "DELETE p " +
+                        "WITH DISTINCT c " +
+                        "UNWIND {3} AS link " +
+                        "MATCH (c)<-[:VERSION_OF]-(prev:Version {version: link.prev}), " +
+                        "(c)<-[:VERSION_OF]-(next:Version {version: link.next}) " +
+                        "WHERE NOT has(prev.unknown) AND NOT has(next.unknown) " +
+                        "MERGE (prev)-[:PRECEDES]->(next)",
+                component, toPrecedenceRows(replaced), toPrecedenceRows(inserted), rankRows, latest
+        );
+    }
+
+    private List<Map<String, Object>> toPrecedenceRows(Collection<Precedence> precedences) {
+        return precedences.stream().map(p -> {
+            Map<String, Object> row = new HashMap<>();
+            row.put("prev", p.prev);
+            row.put("next", p.next);
+            return row;
+        }).collect(Collectors.toList());
+    }
+
+    public static class Dependent {
+        public final long nodeId;
+        public final Dependency dependency;
+        public final boolean active;
+
+        public Dependent(long nodeId, Dependency dependency, boolean active) {
+            this.nodeId = nodeId;
+            this.dependency = dependency;
+            this.active = active;
+        }
+
+        @Override public int hashCode() {
+            return HashCodeBuilder.reflectionHashCode(this);
+        }
+
+        @Override public boolean equals(Object obj) {
+            return EqualsBuilder.reflectionEquals(this, obj);
+        }
+
+        @Override public String toString() {
+            return ToStringBuilder.reflectionToString(this);
+        }
+    }
+
+    public static class Precedence {
+        public final String prev;
+        public final String next;
+
+        public Precedence(String prev, String next) {
+            this.prev = prev;
+            this.next = next;
+        }
+
+        @Override public int hashCode() {
+            return HashCodeBuilder.reflectionHashCode(this);
+        }
+
+        @Override public boolean equals(Object obj) {
+            return EqualsBuilder.reflectionEquals(this, obj);
+        }
+
+        @Override public String toString() {
+            return ToStringBuilder.reflectionToString(this);
+        }
+    }
+}
@@ -31,6 +31,8 @@ public class Version extends VersionId {
     private Set<Dependency> resolvedDependencies = new HashSet<>();
     private Set<Dependency> requestedDependencies = new HashSet<>();
     private Set<Dependency> dependents = new HashSet<>();
+    //how many active versions directly depend on this one, since dependents only holds the first of them
+    private Long dependentCount;
 
     private Collection<Issue> directIssues = new HashSet<>();
     private Collection<Issue> transitiveIssues = new HashSet<>();
@@ -82,6 +84,14 @@ public class Version extends VersionId {
         this.dependents = dependents;
     }
 
+    public Long getDependentCount() {
+        return dependentCount;
+    }
+
+    public void setDependentCount(Long dependentCount) {
+        this.dependentCount = dependentCount;
+    }
+
     public Collection<Issue> getDirectIssues() {
         return directIssues;
     }
@@ -0,0 +1,64 @@
+/*
+ * Copyright 2016 Yodle, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+
+ *     http://www.apache.org/licenses/LICENSE-2.0
+
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yodle.vantage.component.service;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import com.yodle.vantage.component.dao.ComponentDao;
+import com.yodle.vantage.component.dao.VersionDao;
+import com.yodle.vantage.component.domain.VantageComponent;
+
+//Whether a version is active is stored on the version and kept up to date as versions and dependencies are saved.  This
+//recomputes it for every version periodically, one component at a time, in case writes racing each other left any
+//flags wrong
+@Component
+public class ActiveFlagRebuilder {
+    @Autowired private ComponentDao componentDao;
+    @Autowired private VersionDao versionDao;
+    @Autowired private RevisionTracker revisionTracker;
+    private static Logger l = LoggerFactory.getLogger(ActiveFlagRebuilder.class);
+
+    @Scheduled(
+            initialDelayString = "${vantage.active-rebuild.interval-ms:86400000}",
+            fixedDelayString = "${vantage.active-rebuild.interval-ms:86400000}"
+    )
+    public void rebuild() {
+        rebuild(componentDao.getComponentsWithMostRecentVersion().stream()
+                .map(VantageComponent::getName)
+                .collect(Collectors.toList()));
+    }
+
+    public void rebuild(Collection<String> components) {
+        Set<String> changed = new HashSet<>();
+        for (String component : components) {
+            changed.addAll(versionDao.rebuildActive(component));
+        }
+
+        if (!changed.isEmpty()) {
+            l.info("Fixed active flags, changing [{}] of [{}] components", changed.size(), components.size());
+            revisionTracker.componentsChanged(changed);
+        }
+    }
+}
@@ -0,0 +1,171 @@
+/*
+ * Copyright 2016 Yodle, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+
+ *     http://www.apache.org/licenses/LICENSE-2.0
+
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yodle.vantage.component.service;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import javax.annotation.PostConstruct;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.yodle.vantage.component.domain.VantageComponent;
+import com.yodle.vantage.component.domain.Version;
+import com.yodle.vantage.component.domain.VersionId;
+
+//Read-through cache of components, their version lists and version details.  Writes invalidate every component whose
+//cached data they may have changed once their transaction commits.  Entries also expire after a while so changes made
+//through other instances are eventually picked up.  Hits and misses are reported on /metrics
+@Component
+public class ComponentCache implements PublicMetrics {
+    @Value("${vantage.cache.max-size:10000}") private long maxSize;
+    @Value("${vantage.cache.ttl-ms:60000}") private long ttlMs;
+
+    private Cache<String, Optional<VantageComponent>> components;
+    private Cache<String, Optional<List<Version>>> versionLists;
+    private Cache<VersionId, Optional<Version>> versions;
+    //the last revision seen for each component, see revisionSeen
+    private Cache<String, Long> revisions;
+    //bumped on every invalidation, so a load that was running while anything was invalidated doesn't leave what it read
+    //behind in the cache
+    private final AtomicLong generation = new AtomicLong();
+
+    @PostConstruct
+    public void init() {
+        components = build();
+        versionLists = build();
+        versions = build();
+        revisions = CacheBuilder.newBuilder().maximumSize(maxSize).build();
+    }
+
+    private <K, V> Cache<K, V> build() {
+        return CacheBuilder.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfterWrite(ttlMs, TimeUnit.MILLISECONDS)
+                .recordStats()
+                .build();
+    }
+
+    public Optional<VantageComponent> getComponent(String component, Supplier<Optional<VantageComponent>> loader) {
+        return get(components, component, loader);
+    }
+
+    public Optional<List<Version>> getVersions(String component, Supplier<Optional<List<Version>>> loader) {
+        return get(versionLists, component, loader);
+    }
+
+    public Optional<Version> getVersion(String component, String version, Supplier<Optional<Version>> loader) {
+        return get(versions, new VersionId(component, version), loader);
+    }
+
+    private <K, V> V get(Cache<K, V> cache, K key, Supplier<V> loader) {
+        V cached = cache.getIfPresent(key);
+        if (cached != null) {
+            return cached;
+        }
+
+        long loadGeneration = generation.get();
+        V loaded = loader.get();
+        cache.put(key, loaded);
+        //an invalidation that started before this put may have missed it, so take it back out
+        if (generation.get() != loadGeneration) {
+            cache.invalidate(key);
+        }
+        return loaded;
+    }
+
+    //Invalidates everything cached for the components once the current transaction commits.  Nothing is invalidated if
+    //it rolls back, since nothing changed
+    public void invalidate(Collection<String> components) {
+        if (components.isEmpty()) {
+            return;
+        }
+
+        Set<String> invalidated = new HashSet<>(components);
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+                @Override
+                public void afterCommit() {
+                    invalidateNow(invalidated);
+                }
+            });
+        } else {
+            invalidateNow(invalidated);
+        }
+    }
+
+    public boolean isRevisionSeen(String component, long revision) {
+        Long seen = revisions.getIfPresent(component);
+        return seen != null && seen == revision;
+    }
+
+    //Drops the component's entries if its revision has changed since it was last seen, or if it hasn't been seen before,
+    //since they may have been loaded before a change made through another instance
+    public void revisionSeen(String component, long revision) {
+        Long previous = revisions.asMap().put(component, revision);
+        if (previous == null || previous != revision) {
+            invalidateNow(Collections.singleton(component));
+        }
+    }
+
+    public void invalidateAll() {
+        generation.incrementAndGet();
+        components.invalidateAll();
+        versionLists.invalidateAll();
+        versions.invalidateAll();
+        revisions.invalidateAll();
+    }
+
+    private void invalidateNow(Set<String> invalidated) {
+        generation.incrementAndGet();
+        this.components.invalidateAll(invalidated);
+        versionLists.invalidateAll(invalidated);
+        versions.asMap().keySet().removeIf(id -> invalidated.contains(id.getComponent()));
+    }
+
+    @Override
+    public Collection<Metric<?>> metrics() {
+        List<Metric<?>> metrics = new ArrayList<>();
+        addMetrics(metrics, "cache.component", components);
+        addMetrics(metrics, "cache.versions", versionLists);
+        addMetrics(metrics, "cache.version", versions);
+        return metrics;
+    }
+
+    private void addMetrics(List<Metric<?>> metrics, String prefix, Cache<?, ?> cache) {
+        CacheStats stats = cache.stats();
+        metrics.add(new Metric<>(prefix + ".hits", stats.hitCount()));
+        metrics.add(new Metric<>(prefix + ".misses", stats.missCount()));
+        metrics.add(new Metric<>(prefix + ".evictions", stats.evictionCount()));
+        metrics.add(new Metric<>(prefix + ".size", cache.size()));
+    }
+}
@@ -17,6 +17,7 @@ package com.yodle.vantage.component.service;
 
 import static com.yodle.vantage.component.service.MavenVersionUtils.isMavenStrategy;
 
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
@@ -25,6 +26,8 @@ import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
 import org.apache.maven.artifact.versioning.ComparableVersion;
@@ -44,25 +47,61 @@ import com.yodle.vantage.component.dao.QueueDao;
 import com.yodle.vantage.component.dao.VersionDao;
 import com.yodle.vantage.component.domain.Dependency;
 import com.yodle.vantage.component.domain.Issue;
+import com.yodle.vantage.component.domain.Page;
 import com.yodle.vantage.component.domain.VantageComponent;
 import com.yodle.vantage.component.domain.Version;
 import com.yodle.vantage.component.domain.VersionId;
+import com.yodle.vantage.exception.InvalidPageException;
 
 @Component
 @Transactional
 public class ComponentService {
+    //Regardless of versioning scheme, we're doing maven ordering.  Maven versions need to be done in maven ordering
+    //since when we fix precedence we want to fix precedence in maven order to prevent deadlocks.  Non-maven version
+    // precedence is based on create
+    //timestamp, which means that if we were ever fixing precedence for multiple non-maven versions for the same component
+    //at the same time, it means we created two non-maven versions at the same time and we don't have an ordering
+    //guarantee between them so we can insert them in the precedence list in an arbitrary order.  We choose maven
+    //ordering to ensure we create them in a deterministic order so as to prevent deadlocks
+    private static final Comparator<VersionId> VERSION_ORDER = (o1, o2) -> {
+        if (o1.getComponent().equals(o2.getComponent())) {
+            return new ComparableVersion(o1.getVersion()).compareTo(new ComparableVersion(o2.getVersion()));
+        } else {
+            return o1.getComponent().compareTo(o2.getComponent());
+        }
+
+    };
+    //Versions only hold the first of their dependents, ordered by component and version.  The rest are paged through
+    //getDependents
+    static final int DEPENDENTS_IN_VERSION = 100;
+    static final int MAX_DEPENDENT_DEPTH = 10;
+    private static final Comparator<VersionId> DEPENDENT_ORDER = Comparator.comparing(VersionId::getComponent).thenComparing(VersionId::getVersion);
+
     @Autowired private ComponentDao componentDao;
     @Autowired private VersionDao versionDao;
     @Autowired private IssueDao issueDao;
+    @Autowired private IssueIndex issueIndex;
     @Autowired private QueueDao queueDao;
     @Autowired private PrecedenceFixer precedenceFixer;
+    @Autowired private ComponentCache componentCache;
+    @Autowired private RevisionTracker revisionTracker;
     @Autowired private VersionPurifier versionPurifier;
     @Value("${vantage.require-dry-run-lock:false}") private boolean requireDryRunLock;
 
     private Logger l = LoggerFactory.getLogger(ComponentService.class);
 
+    //Changes whenever anything read for the component, its versions or any of its versions does
+    public long getRevision(String component) {
+        return revisionTracker.getComponentRevision(component);
+    }
+
+    //Changes whenever any component does
+    public long getRevision() {
+        return revisionTracker.getTotalComponentRevision();
+    }
+
     public Optional<VantageComponent> getComponent(String name) {
-        return componentDao.getComponent(name);
+        return componentCache.getComponent(name, () -> componentDao.getComponent(name));
     }
 
     public Version createOrUpdateDryRunVersion(Version version) {
@@ -80,7 +119,9 @@ public class ComponentService {
     }
 
     public VantageComponent createOrUpdateComponent(VantageComponent component) {
-        return componentDao.createOrUpdateComponent(component);
+        VantageComponent saved = componentDao.createOrUpdateComponent(component);
+        revisionTracker.componentsChanged(Collections.singleton(saved.getName()));
+        return saved;
     }
 
     public Version createOrUpdateVersion(Version version) {
@@ -97,25 +138,39 @@ public class ComponentService {
         //we'll need to fix precedence for any versions we create later
         List<VersionId> versionsCreated = ensureReferencedVersionsExist(version, excludeRequestedDependencies);
 
+        //this changes what's read for the version, its dependencies and anything whose active flag changes
+        Set<String> changedComponents = new HashSet<>();
+        changedComponents.add(version.getComponent());
+        version.getResolvedDependencies().forEach(dep -> changedComponents.add(dep.getVersion().getComponent()));
+
         l.info("Saving [{}] resolved dependencies for version [{}], component [{}]", version.getResolvedDependencies().size(), version.getVersion(), version.getComponent());
         //Add resolved dependency links
-        for (Dependency dep : version.getResolvedDependencies()) {
-            versionDao.createResolvedDependency(version, dep.getVersion(), dep.getProfiles());
-            if (!excludeRequestedDependencies) {
-                saveRequestedDependencies(dep.getVersion());
-            }
-        }
+        versionDao.createResolvedDependencies(version, version.getResolvedDependencies());
+        changedComponents.addAll(versionDao.activateDependencies(version));
+        issueDao.updateVersionExposure(version);
 
         if (!excludeRequestedDependencies) {
-            l.info("Saving [{}] requested dependencies for version [{}], component [{}]", version.getRequestedDependencies().size(), version.getVersion(), version.getComponent());
-            saveRequestedDependencies(version);
+            //requested dependencies of the version itself and of each of its resolved dependencies are saved in one go
+            List<VersionDao.RequestedDependency> requestedDependencies = new ArrayList<>();
+            for (Dependency dep : version.getResolvedDependencies()) {
+                requestedDependencies.addAll(toRequestedDependencies(dep.getVersion()));
+            }
+            requestedDependencies.addAll(toRequestedDependencies(version));
+
+            l.info("Saving [{}] requested dependencies for version [{}], component [{}]", requestedDependencies.size(), version.getVersion(), version.getComponent());
+            versionDao.createRequestedDependencies(requestedDependencies);
+            requestedDependencies.forEach(dep -> changedComponents.add(dep.dependency.getComponent()));
         }
 
         l.info("Fixing precedence for [{}] created versions for version [{}], component [{}]", versionsCreated.size(), version.getVersion(), version.getComponent());
         precedenceFixer.fixPrecedence(versionsCreated);
+        revisionTracker.componentsChanged(changedComponents);
 
         l.info("Finished saving [{}]:[{}]", version.getComponent(), version.getVersion());
-        return getVersion(version.getComponent(), version.getVersion()).orElseThrow(() -> new RuntimeException("Could not find a version [" + version.getVersion() + "] for component [" + version.getComponent() + "] after creating it"));
+        //read around the cache, since what this transaction wrote isn't committed yet and may be rolled back.  For the same
+        //reason issues are read from neo4j rather than the issue index, which only learns the ranks of versions created
+        //here once they're committed, and so never does for dry runs
+        return loadVersion(version.getComponent(), version.getVersion(), issueDao::getIssuesDirectlyAffectingVersion).orElseThrow(() -> new RuntimeException("Could not find a version [" + version.getVersion() + "] for component [" + version.getComponent() + "] after creating it"));
     }
 
     //This method implicitly guarantees that the returned 'actually created' version ids are sorted by component and version (in maven ordering)
@@ -173,31 +228,22 @@ public class ComponentService {
             );
         }
 
-        //Regardless of versioning scheme, we're doing maven ordering.  Maven versions need to be done in maven ordering
-        //since when we fix precedence we want to fix precedence in maven order to prevent deadlocks.  Non-maven version
-        // precedence is based on create
-        //timestamp, which means that if we were ever fixing precedence for multiple non-maven versions for the same component
-        //at the same time, it means we created two non-maven versions at the same time and we don't have an ordering
-        //guarantee between them so we can insert them in the precedence list in an arbitrary order.  We choose maven
-        //ordering to ensure we create them in a deterministic order so as to prevent deadlocks
-        Comparator<VersionId> versionComparator = (o1, o2) -> {
-            if (o1.getComponent().equals(o2.getComponent())) {
-                return new ComparableVersion(o1.getVersion()).compareTo(new ComparableVersion(o2.getVersion()));
-            } else {
-                return o1.getComponent().compareTo(o2.getComponent());
-            }
-
-        };
+        versionDao.createShadowVersions(
+                shadowVersionsToEnsureCreated
+                        .stream()
+                        .sorted(VERSION_ORDER)
+                        .collect(Collectors.toList())
+        );
 
-        shadowVersionsToEnsureCreated
+        List<VersionId> sortedRealVersions = realVersionsToEnsureCreated
                 .stream()
-                .sorted(versionComparator)
-                .forEach(v -> versionDao.createShadowVersion(v.getComponent(), v.getVersion()));
+                .sorted(VERSION_ORDER)
+                .collect(Collectors.toList());
+        Set<VersionId> created = versionDao.createNewVersions(sortedRealVersions);
 
-        return realVersionsToEnsureCreated
+        return sortedRealVersions
                 .stream()
-                .sorted(versionComparator)
-                .filter(v -> versionDao.createNewVersion(v.getComponent(), v.getVersion()))
+                .filter(created::contains)
                 .collect(Collectors.toList());
     }
 
@@ -215,25 +261,33 @@ public class ComponentService {
     private void ensureCreatedInAlphabeticalOrder(Set<String> components) {
         List<String> sortedComponents = Lists.newArrayList(components);
         Collections.sort(sortedComponents);
-        sortedComponents.forEach(componentDao::ensureCreated);
+        componentDao.ensureAllCreated(sortedComponents);
     }
 
-    private void saveRequestedDependencies(Version parent) {
-        for (Dependency dep : parent.getRequestedDependencies()) {
-            versionDao.createRequestedDependency(
-                    parent,
-                    dep.getVersion(),
-                    versionPurifier.purifyVersion(dep.getVersion()).getVersion(),
-                    dep.getProfiles()
-            );
-        }
+    private List<VersionDao.RequestedDependency> toRequestedDependencies(Version parent) {
+        return parent.getRequestedDependencies().stream()
+                .map(dep -> new VersionDao.RequestedDependency(
+                        parent.toId(),
+                        dep.getVersion().toId(),
+                        versionPurifier.purifyVersion(dep.getVersion()).getVersion(),
+                        dep.getProfiles()
+                ))
+                .collect(Collectors.toList());
     }
 
     public Optional<List<Version>> getVersions(String component) {
+        return componentCache.getVersions(component, () -> loadVersions(component));
+    }
+
+    private Optional<List<Version>> loadVersions(String component) {
         return getComponent(component).map(c -> {
-            List<String> versions = versionDao.getVersions(component);
+            //maven versions come back in maven order by their sort keys, anything else in creation order
+            boolean standard = isMavenStrategy(
+                    versionDao.getNewestNonNumericVersion(component).map(Collections::singletonList).orElse(Collections.emptyList())
+            );
+            List<String> versions = standard ? versionDao.getVersionsInSortOrder(component) : versionDao.getVersions(component);
             Set<String> activeVersions = Sets.newHashSet(versionDao.getActiveVersions(component));
-            Map<String,Collection<Issue>> directIssues = issueDao.getIssuesDirectlyAffectingVersions(component);
+            Map<String,Collection<Issue>> directIssues = issueIndex.getIssuesDirectlyAffectingVersions(component);
             Map<String,Collection<Issue>> transitiveIssues = issueDao.getIssuesTransitivelyAffectingVersions(component);
 
             List<Version> vs = versions.stream().map(vName -> {
@@ -243,27 +297,26 @@ public class ComponentService {
                 return v;
             }).collect(Collectors.toList());
 
-            if (isMavenStrategy(versions)) {
-                vs = vs.stream()
-                        .sorted((v1, v2) ->
-                                new ComparableVersion(v2.getVersion()).compareTo(new ComparableVersion(v1.getVersion()))
-                        )
-                        .collect(Collectors.toList());
-            }
-
             return vs;
         });
     }
 
     public Optional<Version> getVersion(String component, String version) {
-        Optional<Version> versionOpt = versionDao.getVersion(component, version);
+        return componentCache.getVersion(component, version, () -> loadVersion(component, version, issueIndex::getIssuesDirectlyAffectingVersion));
+    }
+
+    //directIssues looks up the issues directly affecting a version given its component and version
+    private Optional<Version> loadVersion(String component, String version, BiFunction<String, String, List<Issue>> directIssues) {
+        Optional<Version> versionOpt = versionDao.getVersion(component, version, DEPENDENTS_IN_VERSION);
         versionOpt.ifPresent( v -> {
-            List<Issue> directIssues = issueDao.getIssuesDirectlyAffectingVersion(component, version);
-            v.setDirectIssues(directIssues);
+            v.setDirectIssues(directIssues.apply(component, version));
 
-            Map<Version,Collection<Issue>> issuesByDependency = issueDao.getIssuesByDependenciesOf(component, version);
-            v.getResolvedDependencies().stream().forEach(dep -> dep.getVersion().setDirectIssues(issuesByDependency.get(dep.getVersion())));
-            v.setTransitiveIssues(issuesByDependency.values().stream().flatMap(Collection::stream).collect(Collectors.toList()));
+            v.getResolvedDependencies().forEach(dep -> dep.getVersion().setDirectIssues(
+                    directIssues.apply(dep.getVersion().getComponent(), dep.getVersion().getVersion())
+            ));
+            v.setTransitiveIssues(v.getResolvedDependencies().stream()
+                    .flatMap(dep -> dep.getVersion().getDirectIssues().stream())
+                    .collect(Collectors.toList()));
 
         });
 
@@ -278,8 +331,86 @@ public class ComponentService {
         }
     }
 
+    //Like ensureVersionExists, but creates everything in one go and fixes precedence once per component
+    public void ensureVersionsExist(Collection<VersionId> versions) {
+        ensureCreatedInAlphabeticalOrder(versions.stream().map(VersionId::getComponent).collect(Collectors.toSet()));
+
+        List<VersionId> sortedVersions = versions.stream()
+                .map(VersionId::toId)
+                .distinct()
+                .sorted(VERSION_ORDER)
+                .collect(Collectors.toList());
+        Set<VersionId> created = versionDao.createNewVersions(sortedVersions);
+
+        precedenceFixer.fixPrecedence(sortedVersions.stream().filter(created::contains).collect(Collectors.toList()));
+    }
+
+
+    public void getAllComponents(Consumer<VantageComponent> consumer) {
+        componentDao.getComponentsWithMostRecentVersion(consumer);
+    }
+
+    public Page<VantageComponent> getComponents(String query, String sort, String cursor, int limit) {
+        Keyset keyset = Keyset.of("name", sort, cursor, limit);
+        List<VantageComponent> components = componentDao.getComponents(query, keyset.isDescending(), keyset.getAfter(), keyset.getFetchSize());
+        return keyset.toPage(components, componentDao.countComponents(query), VantageComponent::getName);
+    }
 
-    public List<VantageComponent> getAllComponents() {
-        return componentDao.getComponentsWithMostRecentVersion();
+    //Empty if the version doesn't exist.  Dependents are the versions depending on the version through at most depth
+    //dependencies, optionally only active ones and optionally only through dependencies in the given profile.  They're
+    //all found and sorted once per request, which also gives the total, and the cursor is applied to the sorted list
+    public Optional<Page<Dependency>> getDependents(String component, String version, int depth, boolean activeOnly, String profile, String sort, String cursor, int limit) {
+        if (depth < 1 || depth > MAX_DEPENDENT_DEPTH) {
+            throw new InvalidPageException("Invalid depth [" + depth + "].  Dependents are between 1 and [" + MAX_DEPENDENT_DEPTH + "] dependencies away");
+        }
+        Keyset keyset = Keyset.of("component", sort, cursor, limit);
+        VersionId after = keyset.getAfterVersion();
+
+        Optional<List<Dependency>> dependents = findDependents(new VersionId(component, version), depth, activeOnly, profile);
+        if (!dependents.isPresent()) {
+            return Optional.empty();
+        }
+
+        Comparator<VersionId> order = keyset.isDescending() ? DEPENDENT_ORDER.reversed() : DEPENDENT_ORDER;
+        List<Dependency> page = dependents.get().stream()
+                .filter(d -> after == null || order.compare(d.getVersion().toId(), after) > 0)
+                .sorted(Comparator.comparing(d -> d.getVersion().toId(), order))
+                .limit(keyset.getFetchSize())
+                .collect(Collectors.toList());
+        return Optional.of(keyset.toPage(
+                page,
+                dependents.get().size(),
+                d -> Keyset.versionKey(d.getVersion().getComponent(), d.getVersion().getVersion())
+        ));
+    }
+
+    //Walks dependents a level at a time, each level only expanding versions that no earlier level found, so every
+    //dependent is read once however many paths lead to it.  Only direct dependents keep their profiles, since others may
+    //depend on the version through several paths
+    private Optional<List<Dependency>> findDependents(VersionId version, int depth, boolean activeOnly, String profile) {
+        Optional<Long> nodeId = versionDao.getNodeId(version);
+        if (!nodeId.isPresent()) {
+            return Optional.empty();
+        }
+
+        Set<Long> found = new HashSet<>();
+        List<Dependency> dependents = new ArrayList<>();
+        Collection<Long> frontier = Collections.singleton(nodeId.get());
+        for (int level = 1; level <= depth && !frontier.isEmpty(); ++level) {
+            List<Long> next = new ArrayList<>();
+            for (VersionDao.Dependent dependent : versionDao.getDirectDependents(frontier, profile)) {
+                if (!found.add(dependent.nodeId)) {
+                    continue;
+                }
+                next.add(dependent.nodeId);
+                if (dependent.active || !activeOnly) {
+                    dependents.add(level == 1
+                            ? dependent.dependency
+                            : new Dependency(dependent.dependency.getVersion(), Collections.<String>emptyList()));
+                }
+            }
+            frontier = next;
+        }
+        return Optional.of(dependents);
     }
 }
@@ -0,0 +1,68 @@
+/*
+ * Copyright 2016 Yodle, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+
+ *     http://www.apache.org/licenses/LICENSE-2.0
+
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yodle.vantage.component.service;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.yodle.vantage.component.domain.Dependency;
+import com.yodle.vantage.component.domain.Version;
+import com.yodle.vantage.component.domain.VersionId;
+
+/**
+ * Merges queued create requests for the same version into a single create request.  Dependencies are only ever added
+ * to a version, never removed, so creating the merged request has the same result as creating each request in turn.
+ * Where the same dependency appears in more than one request, the profiles of the later request win, just as they would
+ * if the requests were created one after another.
+ */
+class CreateRequestCoalescer {
+    //versions must be in the order they were queued
+    static Version coalesce(List<Version> versions) {
+        Version first = versions.get(0);
+        Map<VersionId, Dependency> resolvedDependencies = new LinkedHashMap<>();
+        Map<VersionId, Dependency> requestedDependencies = new LinkedHashMap<>();
+
+        for (Version version : versions) {
+            for (Dependency dep : version.getResolvedDependencies()) {
+                resolvedDependencies.merge(dep.getVersion().toId(), dep, CreateRequestCoalescer::mergeResolvedDependency);
+            }
+            putAll(requestedDependencies, version.getRequestedDependencies());
+        }
+
+        Version merged = new Version(first.getComponent(), first.getVersion());
+        merged.setResolvedDependencies(new HashSet<>(resolvedDependencies.values()));
+        merged.setRequestedDependencies(new HashSet<>(requestedDependencies.values()));
+        return merged;
+    }
+
+    //the later dependency's profiles win, but the requested dependencies reported for it by both requests are kept
+    private static Dependency mergeResolvedDependency(Dependency earlier, Dependency later) {
+        Map<VersionId, Dependency> requestedDependencies = new LinkedHashMap<>();
+        putAll(requestedDependencies, earlier.getVersion().getRequestedDependencies());
+        putAll(requestedDependencies, later.getVersion().getRequestedDependencies());
+
+        Version version = new Version(later.getVersion().getComponent(), later.getVersion().getVersion());
+        version.setRequestedDependencies(new HashSet<>(requestedDependencies.values()));
+        return new Dependency(version, later.getProfiles());
+    }
+
+    private static void putAll(Map<VersionId, Dependency> dependencies, Collection<Dependency> toAdd) {
+        toAdd.forEach(dep -> dependencies.put(dep.getVersion().toId(), dep));
+    }
+}
@@ -0,0 +1,37 @@
+/*
+ * Copyright 2016 Yodle, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+
+ *     http://www.apache.org/licenses/LICENSE-2.0
+
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yodle.vantage.component.service;
+
+import org.springframework.context.ApplicationEvent;
+
+import com.yodle.vantage.component.domain.VersionId;
+
+/**
+ * Published once a create request has been committed to the create queue so that queue consumers can pick it up
+ * immediately rather than waiting for their next poll
+ */
+public class CreateRequestQueuedEvent extends ApplicationEvent {
+    private final VersionId version;
+
+    public CreateRequestQueuedEvent(Object source, VersionId version) {
+        super(source);
+        this.version = version;
+    }
+
+    public VersionId getVersion() {
+        return version;
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright 2016 Yodle, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+
+ *     http://www.apache.org/licenses/LICENSE-2.0
+
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yodle.vantage.component.service;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Collectors;
+
+//An immutable centered interval tree over half open [start, end) intervals.  Each node keeps the intervals that contain
+//its center sorted both by start and by end, so finding every interval containing a point only looks at intervals that
+//actually contain it plus one node per level of the tree
+class IntervalTree<T> {
+    private final long center;
+    private final List<Interval<T>> byStart;
+    private final List<Interval<T>> byEnd;
+    private final IntervalTree<T> left;
+    private final IntervalTree<T> right;
+
+    //empty intervals can't contain anything and are left out
+    static <T> IntervalTree<T> build(Collection<Interval<T>> intervals) {
+        List<Interval<T>> nonEmpty = intervals.stream().filter(i -> i.start < i.end).collect(Collectors.toList());
+        return nonEmpty.isEmpty() ? null : new IntervalTree<>(nonEmpty);
+    }
+
+    private IntervalTree(Collection<Interval<T>> intervals) {
+        List<Long> starts = intervals.stream().map(i -> i.start).sorted().collect(Collectors.toList());
+        center = starts.get(starts.size() / 2);
+
+        List<Interval<T>> here = new ArrayList<>();
+        List<Interval<T>> before = new ArrayList<>();
+        List<Interval<T>> after = new ArrayList<>();
+        for (Interval<T> interval : intervals) {
+            if (interval.end <= center) {
+                before.add(interval);
+            } else if (interval.start > center) {
+                after.add(interval);
+            } else {
+                here.add(interval);
+            }
+        }
+
+        byStart = here.stream().sorted(Comparator.comparingLong(i -> i.start)).collect(Collectors.toList());
+        byEnd = here.stream().sorted(Comparator.comparingLong((Interval<T> i) -> i.end).reversed()).collect(Collectors.toList());
+        left = build(before);
+        right = build(after);
+    }
+
+    //every value whose interval contains point
+    List<T> stab(long point) {
+        List<T> values = new ArrayList<>();
+        IntervalTree<T> node = this;
+        while (node != null) {
+            if (point < node.center) {
+                //everything here ends after the center, so it contains point if it starts at or before it
+                for (Interval<T> interval : node.byStart) {
+                    if (interval.start > point) {
+                        break;
+                    }
+                    values.add(interval.value);
+                }
+                node = node.left;
+            } else {
+                //everything here starts at or before the center, so it contains point if it ends after it
+                for (Interval<T> interval : node.byEnd) {
+                    if (interval.end <= point) {
+                        break;
+                    }
+                    values.add(interval.value);
+                }
+                node = node.right;
+            }
+        }
+        return values;
+    }
+
+    static class Interval<T> {
+        final long start;
+        final long end;
+        final T value;
+
+        Interval(long start, long end, T value) {
+            this.start = start;
+            this.end = end;
+            this.value = value;
+        }
+    }
+}
@@ -0,0 +1,279 @@
+/*
+ * Copyright 2016 Yodle, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+
+ *     http://www.apache.org/licenses/LICENSE-2.0
+
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yodle.vantage.component.service;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import com.google.common.collect.Sets;
+import com.yodle.vantage.component.dao.IssueDao;
+import com.yodle.vantage.component.dao.VersionDao;
+import com.yodle.vantage.component.domain.Issue;
+import com.yodle.vantage.component.service.IntervalTree.Interval;
+
+//Answers which issues directly affect a version without going to neo4j.  Every issue is kept as the interval of version
+//ranks from its affects version up to its fix version, along with the ranks of every version of the components that
+//have issues.  Issue and precedence changes made through this instance are applied once their transaction commits.
+//Changes made through other instances are picked up as their revisions are seen, when versions the index has no rank
+//for are looked up, and by reloading everything periodically.  Anything read from neo4j is read without holding the
+//index's lock and only swapped or merged in under it, so reads of the index never wait on neo4j.
+@Component
+public class IssueIndex {
+    @Autowired private IssueDao issueDao;
+    @Autowired private VersionDao versionDao;
+    private static Logger l = LoggerFactory.getLogger(IssueIndex.class);
+
+    //only components that have issues are indexed; null until first loaded
+    private Map<String, ComponentIssues> components;
+    //the issue revision as of the last load
+    private long issueRevision;
+
+    public List<Issue> getIssuesDirectlyAffectingVersion(String component, String version) {
+        ensureLoaded();
+        synchronized (this) {
+            ComponentIssues componentIssues = components.get(component);
+            if (componentIssues == null) {
+                return new ArrayList<>();
+            } else if (componentIssues.ranks.containsKey(version)) {
+                return componentIssues.getIssuesAffecting(version);
+            }
+        }
+
+        //most likely a version created through another instance, so its rank is loaded rather than taken as unaffected
+        Map<String, Long> ranks = versionDao.getVersionRanks(component);
+        synchronized (this) {
+            ComponentIssues componentIssues = components.get(component);
+            if (componentIssues == null) {
+                return new ArrayList<>();
+            }
+            componentIssues.updateRanks(ranks);
+            componentIssues.ranks.putIfAbsent(version, null);
+            return componentIssues.getIssuesAffecting(version);
+        }
+    }
+
+    public Map<String, Collection<Issue>> getIssuesDirectlyAffectingVersions(String component) {
+        ensureLoaded();
+        Map<String, Collection<Issue>> issuesByVersion = new HashMap<>();
+        synchronized (this) {
+            ComponentIssues componentIssues = components.get(component);
+            if (componentIssues != null) {
+                for (String version : componentIssues.ranks.keySet()) {
+                    List<Issue> issues = componentIssues.getIssuesAffecting(version);
+                    if (!issues.isEmpty()) {
+                        issuesByVersion.put(version, issues);
+                    }
+                }
+            }
+        }
+        return issuesByVersion;
+    }
+
+    public void issueUpdated(Issue issue) {
+        issuesUpdated(Collections.singletonList(issue));
+    }
+
+    public void issuesUpdated(Collection<Issue> issues) {
+        if (!issues.isEmpty()) {
+            List<Issue> updated = new ArrayList<>(issues);
+            afterCommit(() -> applyIssueUpdates(updated));
+        }
+    }
+
+    public void ranksChanged(String component, Map<String, Long> ranks) {
+        if (!ranks.isEmpty()) {
+            afterCommit(() -> applyRanks(component, ranks));
+        }
+    }
+
+    //For when the component's revision has changed, possibly through another instance, before anything is read for it
+    //under the new revision.  Reloads the component's ranks, and every issue if any have changed since the last load
+    public void componentChanged(String component) {
+        synchronized (this) {
+            if (components == null) {
+                return;
+            }
+        }
+
+        if (issueDao.getRevision() != issueRevision) {
+            refresh();
+            return;
+        }
+        Map<String, Long> ranks = versionDao.getVersionRanks(component);
+        synchronized (this) {
+            ComponentIssues componentIssues = components.get(component);
+            if (componentIssues != null) {
+                componentIssues.updateRanks(ranks);
+            }
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${vantage.issue-index.refresh-interval-ms:60000}")
+    public void refresh() {
+        Map<String, ComponentIssues> loaded = load();
+        synchronized (this) {
+            components = loaded;
+        }
+    }
+
+    //Until the index is first loaded there's nothing to update, since the load reads the issues as they are then
+    private void applyIssueUpdates(List<Issue> issues) {
+        Map<String, List<Issue>> issuesByComponent = issues.stream()
+                .filter(issue -> issue.getAffectsVersion() != null)
+                .collect(Collectors.groupingBy(issue -> issue.getAffectsVersion().getComponent()));
+        Set<String> unindexed;
+        synchronized (this) {
+            if (components == null) {
+                return;
+            }
+            unindexed = Sets.difference(issuesByComponent.keySet(), components.keySet()).immutableCopy();
+        }
+        Map<String, Map<String, Long>> ranks = new HashMap<>();
+        for (String component : unindexed) {
+            ranks.put(component, versionDao.getVersionRanks(component));
+        }
+
+        Set<String> ids = issues.stream().map(Issue::getId).collect(Collectors.toSet());
+        synchronized (this) {
+            for (ComponentIssues componentIssues : components.values()) {
+                componentIssues.removeAll(ids);
+            }
+            //a component indexed since its ranks were checked picks up any it's missing the next time one is looked up
+            issuesByComponent.forEach((component, componentIssues) -> components
+                    .computeIfAbsent(component, c -> new ComponentIssues(ranks.getOrDefault(c, Collections.emptyMap())))
+                    .putAll(componentIssues));
+        }
+    }
+
+    private synchronized void applyRanks(String component, Map<String, Long> ranks) {
+        ComponentIssues componentIssues = components == null ? null : components.get(component);
+        if (componentIssues != null) {
+            componentIssues.updateRanks(ranks);
+        }
+    }
+
+    //Loads the index on first use.  Concurrent first uses may each load it, but only one is kept
+    private void ensureLoaded() {
+        synchronized (this) {
+            if (components != null) {
+                return;
+            }
+        }
+        Map<String, ComponentIssues> loaded = load();
+        synchronized (this) {
+            if (components == null) {
+                components = loaded;
+            }
+        }
+    }
+
+    private Map<String, ComponentIssues> load() {
+        //read first, so that an issue changed during the load is reloaded next time rather than missed
+        long revision = issueDao.getRevision();
+        Map<String, List<Issue>> issuesByComponent = issueDao.getIssues().stream()
+                .collect(Collectors.groupingBy(issue -> issue.getAffectsVersion().getComponent()));
+        Map<String, ComponentIssues> loaded = new HashMap<>();
+        issuesByComponent.forEach((component, issues) -> {
+            ComponentIssues componentIssues = new ComponentIssues(versionDao.getVersionRanks(component));
+            componentIssues.putAll(issues);
+            loaded.put(component, componentIssues);
+        });
+        l.debug("Loaded issue index for [{}] components", loaded.size());
+        synchronized (this) {
+            issueRevision = revision;
+        }
+        return loaded;
+    }
+
+    private void afterCommit(Runnable update) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+                @Override
+                public void afterCommit() {
+                    update.run();
+                }
+            });
+        } else {
+            update.run();
+        }
+    }
+
+    private static class ComponentIssues {
+        private final Map<String, Long> ranks;
+        private final Map<String, Issue> issues = new LinkedHashMap<>();
+        private IntervalTree<Issue> tree;
+
+        ComponentIssues(Map<String, Long> ranks) {
+            this.ranks = new HashMap<>(ranks);
+        }
+
+        List<Issue> getIssuesAffecting(String version) {
+            Long rank = ranks.get(version);
+            if (rank == null || tree == null) {
+                return new ArrayList<>();
+            }
+            return tree.stab(rank);
+        }
+
+        void putAll(Collection<Issue> added) {
+            for (Issue issue : added) {
+                issues.put(issue.getId(), issue);
+            }
+            rebuild();
+        }
+
+        void removeAll(Collection<String> issueIds) {
+            if (issues.keySet().removeAll(issueIds)) {
+                rebuild();
+            }
+        }
+
+        void updateRanks(Map<String, Long> changed) {
+            ranks.putAll(changed);
+            rebuild();
+        }
+
+        //An issue affects its affects version and everything after it up to, but not including, its fix version.  A fix
+        //version that isn't a ranked version of this component never ends the interval
+        private void rebuild() {
+            List<Interval<Issue>> intervals = new ArrayList<>();
+            for (Issue issue : issues.values()) {
+                Long start = ranks.get(issue.getAffectsVersion().getVersion());
+                if (start == null) {
+                    continue;
+                }
+                Long end = issue.getFixVersion() == null ? null : ranks.get(issue.getFixVersion().getVersion());
+                intervals.add(new Interval<>(start, end == null ? Long.MAX_VALUE : end, issue));
+            }
+            tree = IntervalTree.build(intervals);
+        }
+    }
+}
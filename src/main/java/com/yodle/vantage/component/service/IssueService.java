@@ -15,21 +15,40 @@
  */
 package com.yodle.vantage.component.service;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
 import java.util.Set;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 import org.springframework.transaction.annotation.Transactional;
 
+import com.google.common.collect.Iterables;
 import com.yodle.vantage.component.dao.IssueDao;
+import com.yodle.vantage.component.domain.ImpactedVersion;
 import com.yodle.vantage.component.domain.Issue;
+import com.yodle.vantage.component.domain.IssueStatus;
+import com.yodle.vantage.component.domain.Page;
+import com.yodle.vantage.component.domain.VersionId;
 
 @Transactional
 @Component
 public class IssueService {
+    static final int BULK_BATCH_SIZE = 1000;
+
     @Autowired private IssueDao issueDao;
     @Autowired private ComponentService componentService;
+    @Autowired private IssueIndex issueIndex;
+    @Autowired private RevisionTracker revisionTracker;
 
 
     public Issue createOrUpdate(Issue issue) {
@@ -40,14 +59,107 @@ public class IssueService {
             componentService.ensureVersionExists(issue.getFixVersion().getComponent(), issue.getFixVersion().getVersion());
         }
 
-        return issueDao.createOrUpdate(issue);
+        //versions the issue affected or exposed before the update may not be affected after it, so reads of both have
+        //changed
+        List<String> ids = Collections.singletonList(issue.getId());
+        Set<String> changedComponents = new HashSet<>(issueDao.getComponentsAffectedByIssues(ids));
+        Issue saved = issueDao.createOrUpdate(issue);
+        issueDao.updateIssueExposure(issue.getId());
+        changedComponents.addAll(issueDao.getComponentsAffectedByIssues(ids));
+        issueIndex.issueUpdated(saved);
+        revisionTracker.componentsChanged(changedComponents);
+        revisionTracker.issuesChanged();
+        return saved;
+    }
+
+    //Versions are created and precedence fixed once for every issue, and then issues are written a batch at a time.  Invalid
+    //issues are skipped and reported rather than failing the rest
+    public List<IssueStatus> createOrUpdate(List<Issue> issues) {
+        List<String> errors = issues.stream().map(this::validate).collect(Collectors.toList());
+        //later copies of the same issue win, as they would if each was put separately
+        Map<String, Issue> valid = new LinkedHashMap<>();
+        for (int i = 0; i < issues.size(); i++) {
+            if (errors.get(i) == null) {
+                valid.put(issues.get(i).getId(), issues.get(i));
+            }
+        }
+
+        Set<String> existing = new HashSet<>();
+        if (!valid.isEmpty()) {
+            existing.addAll(issueDao.getExistingIssueIds(valid.keySet()));
+
+            componentService.ensureVersionsExist(valid.values().stream()
+                    .flatMap(issue -> Stream.of(issue.getAffectsVersion(), issue.getFixVersion()))
+                    .filter(Objects::nonNull)
+                    .collect(Collectors.toList()));
+
+            Set<String> changedComponents = new HashSet<>(issueDao.getComponentsAffectedByIssues(valid.keySet()));
+            for (List<Issue> batch : Iterables.partition(valid.values(), BULK_BATCH_SIZE)) {
+                issueDao.createOrUpdate(batch);
+                issueDao.updateIssueExposure(batch.stream().map(Issue::getId).collect(Collectors.toList()));
+            }
+            changedComponents.addAll(issueDao.getComponentsAffectedByIssues(valid.keySet()));
+            issueIndex.issuesUpdated(issueDao.getIssues(valid.keySet()));
+            revisionTracker.componentsChanged(changedComponents);
+            revisionTracker.issuesChanged();
+        }
+
+        List<IssueStatus> statuses = new ArrayList<>();
+        for (int i = 0; i < issues.size(); i++) {
+            String id = issues.get(i).getId();
+            if (errors.get(i) != null) {
+                statuses.add(new IssueStatus(id, IssueStatus.Status.INVALID, errors.get(i)));
+            } else {
+                statuses.add(new IssueStatus(id, existing.contains(id) ? IssueStatus.Status.UPDATED : IssueStatus.Status.CREATED, null));
+            }
+        }
+        return statuses;
+    }
+
+    private String validate(Issue issue) {
+        if (issue.getId() == null || issue.getId().isEmpty()) {
+            return "Issues need an id";
+        } else if (!isComplete(issue.getAffectsVersion())) {
+            return "Affects version needs both a component and a version";
+        } else if (!isComplete(issue.getFixVersion())) {
+            return "Fix version needs both a component and a version";
+        }
+        return null;
+    }
+
+    private boolean isComplete(VersionId version) {
+        return version == null || (version.getComponent() != null && version.getVersion() != null);
+    }
+
+    public long getRevision() {
+        return revisionTracker.getIssueRevision();
     }
 
     public Optional<Issue> getIssue(String issueId) {
         return issueDao.getIssue(issueId);
     }
 
-    public Set<Issue> getIssues() {
-        return issueDao.getIssues();
+    public void getIssues(Consumer<Issue> consumer) {
+        issueDao.getIssues(consumer);
+    }
+
+    public Page<Issue> getIssues(String query, String sort, String cursor, int limit) {
+        Keyset keyset = Keyset.of("id", sort, cursor, limit);
+        List<Issue> issues = issueDao.getIssues(query, keyset.isDescending(), keyset.getAfter(), keyset.getFetchSize());
+        return keyset.toPage(issues, issueDao.countIssues(query), Issue::getId);
+    }
+
+    //Empty if the issue doesn't exist
+    public Optional<Page<ImpactedVersion>> getImpact(String issueId, String sort, String cursor, int limit) {
+        Keyset keyset = Keyset.of("component", sort, cursor, limit);
+        VersionId after = keyset.getAfterVersion();
+
+        Optional<Long> total = issueDao.countImpact(issueId);
+        if (!total.isPresent()) {
+            return Optional.empty();
+        }
+
+        List<ImpactedVersion> impact = issueDao.getImpact(issueId, keyset.isDescending(), after, keyset.getFetchSize());
+        return Optional.of(keyset.toPage(impact, total.get(), v -> Keyset.versionKey(v.getComponent(), v.getVersion())));
     }
 }
@@ -0,0 +1,112 @@
+/*
+ * Copyright 2016 Yodle, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+
+ *     http://www.apache.org/licenses/LICENSE-2.0
+
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yodle.vantage.component.service;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.List;
+import java.util.function.Function;
+
+import com.yodle.vantage.component.domain.Page;
+import com.yodle.vantage.component.domain.VersionId;
+import com.yodle.vantage.exception.InvalidPageException;
+
+//Paging parameters for the keyset-paginated lists.  A cursor is the sort key of the last item on the previous page, so
+//the next page starts with an index seek past it instead of skipping over everything before it, and no items are
+//repeated or missed when others are added or removed between requests
+final class Keyset {
+    static final int MAX_LIMIT = 1000;
+    //separates the component from the version in the cursor of a list sorted by both, since neither can contain it
+    private static final String VERSION_SEPARATOR = "\u0000";
+
+    private final String after;
+    private final boolean descending;
+    private final int limit;
+
+    private Keyset(String after, boolean descending, int limit) {
+        this.after = after;
+        this.descending = descending;
+        this.limit = limit;
+    }
+
+    //sort is either the sort key for ascending order or the sort key prefixed with - for descending order
+    static Keyset of(String sortKey, String sort, String cursor, int limit) {
+        if (limit < 1 || limit > MAX_LIMIT) {
+            throw new InvalidPageException("Invalid limit [" + limit + "].  Pages hold between 1 and [" + MAX_LIMIT + "] entries");
+        }
+
+        boolean descending;
+        if (sortKey.equals(sort)) {
+            descending = false;
+        } else if (("-" + sortKey).equals(sort)) {
+            descending = true;
+        } else {
+            throw new InvalidPageException("Invalid sort [" + sort + "].  Sort by [" + sortKey + "] or [-" + sortKey + "]");
+        }
+
+        return new Keyset(cursor == null ? null : decode(cursor), descending, limit);
+    }
+
+    String getAfter() {
+        return after;
+    }
+
+    //For lists sorted by component and then version
+    VersionId getAfterVersion() {
+        if (after == null) {
+            return null;
+        }
+        String[] key = after.split(VERSION_SEPARATOR, -1);
+        if (key.length != 2) {
+            throw new InvalidPageException("Invalid cursor [" + encode(after) + "]");
+        }
+        return new VersionId(key[0], key[1]);
+    }
+
+    boolean isDescending() {
+        return descending;
+    }
+
+    //One more than the limit, so whether there's a next page is known without another query
+    int getFetchSize() {
+        return limit + 1;
+    }
+
+    <T> Page<T> toPage(List<T> fetched, long total, Function<T, String> sortKey) {
+        if (fetched.size() <= limit) {
+            return new Page<>(fetched, total, null);
+        }
+
+        List<T> items = fetched.subList(0, limit);
+        return new Page<>(items, total, encode(sortKey.apply(items.get(limit - 1))));
+    }
+
+    static String versionKey(String component, String version) {
+        return component + VERSION_SEPARATOR + version;
+    }
+
+    static String encode(String key) {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(key.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String decode(String cursor) {
+        try {
+            return new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+        } catch (IllegalArgumentException e) {
+            throw new InvalidPageException("Invalid cursor [" + cursor + "]");
+        }
+    }
+}
@@ -19,17 +19,22 @@ import java.util.Collection;
 import java.util.regex.Pattern;
 
 public class MavenVersionUtils {
+    private static final Pattern NON_NUMERIC = Pattern.compile("[^0-9]");
+    private static final Pattern MAVEN_SEPARATOR = Pattern.compile("[\\-.]");
+
+    static boolean isNumeric(String version) {
+        return !NON_NUMERIC.matcher(version).find();
+    }
+
     static boolean isMavenStrategy(Collection<String> versions) {
-        Pattern mavenPattern = Pattern.compile("[\\-.]");
-        Pattern nonNumeric = Pattern.compile("[^0-9]");
         for (String v : versions) {
             //if it has . or -, we know it's a maven version
-            if (mavenPattern.matcher(v).find()) {
+            if (MAVEN_SEPARATOR.matcher(v).find()) {
                 return true;
             }
 
             //if it doesn't have . or - and it's not purely numeric, it must be a commit id
-            if (nonNumeric.matcher(v).find()) {
+            if (NON_NUMERIC.matcher(v).find()) {
                 return false;
             }
         }
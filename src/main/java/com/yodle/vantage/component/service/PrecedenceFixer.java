@@ -17,54 +17,230 @@ package com.yodle.vantage.component.service;
 
 import static com.yodle.vantage.component.service.MavenVersionUtils.isMavenStrategy;
 
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
-import java.util.SortedSet;
-import java.util.TreeSet;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import org.apache.maven.artifact.versioning.ComparableVersion;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
+import com.yodle.vantage.component.dao.IssueDao;
 import com.yodle.vantage.component.dao.VersionDao;
+import com.yodle.vantage.component.dao.VersionDao.Precedence;
 import com.yodle.vantage.component.domain.VersionId;
 
 @Component
 public class PrecedenceFixer {
+    //Versions are ranked within their component so that precedence can be checked by comparing ranks instead of walking
+    //PRECEDES.  New ranks are spaced this far apart so versions inserted between two others rarely need any renumbering
+    static final long RANK_GAP = 1L << 20;
+
     @Autowired private VersionDao versionDao;
+    @Autowired private IssueDao issueDao;
+    @Autowired private IssueIndex issueIndex;
+    @Autowired private RevisionTracker revisionTracker;
 
     public void fixPrecedence(Collection<VersionId> versions) {
-        for (VersionId v : versions) {
-            fixPrecendence(v);
-        }
+        //group by component, keeping the order we were given so that locks are still taken in a deterministic order
+        Map<String, List<String>> versionsByComponent = versions.stream().collect(Collectors.groupingBy(
+                VersionId::getComponent,
+                LinkedHashMap::new,
+                Collectors.mapping(VersionId::getVersion, Collectors.toList())
+        ));
+
+        versionsByComponent.forEach(this::fixPrecedence);
     }
 
     public void fixPrecendence(VersionId version) {
-        //get all known versions
-        List<String> versions = versionDao.getVersions(version.getComponent());
+        fixPrecedence(Collections.singletonList(version));
+    }
 
-        //determine insertion strategy
-        boolean standard = isMavenStrategy(versions);
+    private void fixPrecedence(String component, List<String> created) {
+        Set<String> createdSet = new HashSet<>(created);
+
+        //determine insertion strategy.  The created versions are the newest ones, so existing versions only need to be
+        //looked at when the created ones are all numeric and can't decide it
+        List<String> newestVersions = new ArrayList<>(created);
+        if (created.stream().allMatch(MavenVersionUtils::isNumeric)) {
+            versionDao.getNewestNonNumericVersion(component).ifPresent(newestVersions::add);
+        }
+        boolean standard = isMavenStrategy(newestVersions);
 
         if (standard) {
-            List<ComparableVersion> comparableVersions = versions.stream().map(ComparableVersion::new).collect(Collectors.toList());
-            TreeSet<ComparableVersion> cvTree = new TreeSet<>();
-            cvTree.addAll(comparableVersions);
+            //get all known versions once for the whole batch
+            Map<String, Long> ranks = versionDao.getVersionRanks(component);
+            List<String> sorted = Stream.concat(ranks.keySet().stream(), created.stream())
+                    .distinct()
+                    .map(ComparableVersion::new)
+                    .sorted()
+                    .map(ComparableVersion::toString)
+                    .collect(Collectors.toList());
+
+            //walk the merged order once.  Every adjacent pair touching a created version gets linked, and every pair of
+            //existing versions that now has created versions between them loses its direct link
+            List<Precedence> replaced = new ArrayList<>();
+            List<Precedence> inserted = new ArrayList<>();
+            String prev = null;
+            String prevExisting = null;
+            boolean createdSincePrevExisting = false;
+            for (String v : sorted) {
+                boolean isCreated = createdSet.contains(v);
+                if (prev != null && (isCreated || createdSet.contains(prev))) {
+                    inserted.add(new Precedence(prev, v));
+                }
+
+                if (isCreated) {
+                    createdSincePrevExisting = true;
+                } else {
+                    if (prevExisting != null && createdSincePrevExisting) {
+                        replaced.add(new Precedence(prevExisting, v));
+                    }
+                    prevExisting = v;
+                    createdSincePrevExisting = false;
+                }
+                prev = v;
+            }
+
+            String last = sorted.get(sorted.size() - 1);
+            String latest = createdSet.contains(last) ? last : null;
+            insertPrecedences(component, replaced, inserted, assignRanks(sorted, ranks), latest);
+        } else {
+            //created versions are chained, in the order given, after the component's latest version, so nothing but
+            //that version needs to be loaded
+            Map<String, Long> ranks = versionDao.getLatestVersionRank(component);
+            List<String> order = ranks.keySet().stream()
+                    .filter(v -> !createdSet.contains(v))
+                    .collect(Collectors.toList());
+            List<Precedence> inserted = new ArrayList<>();
+            String prev = order.isEmpty() ? null : order.get(order.size() - 1);
+            for (String v : created) {
+                if (prev != null) {
+                    inserted.add(new Precedence(prev, v));
+                }
+                order.add(v);
+                prev = v;
+            }
+
+            insertPrecedences(component, Collections.emptyList(), inserted, assignRanks(order, ranks), prev);
+        }
+    }
+
+    //Ranks every version of the component that doesn't have one yet, following the existing PRECEDES links.  Versions
+    //created before ranks existed are picked up this way
+    public void rankUnrankedVersions(String component) {
+        Map<String, Long> ranks = versionDao.getVersionRanks(component);
+        List<Precedence> precedences = versionDao.getPrecedences(component);
+
+        Map<String, List<String>> nexts = new HashMap<>();
+        Map<String, Integer> incoming = new HashMap<>();
+        for (Precedence p : precedences) {
+            nexts.computeIfAbsent(p.prev, k -> new ArrayList<>()).add(p.next);
+            incoming.merge(p.next, 1, Integer::sum);
+        }
 
-            ComparableVersion inserted = new ComparableVersion(version.getVersion());
+        //topological order of the precedence links, breaking ties by creation order
+        List<String> byCreated = new ArrayList<>(ranks.keySet());
+        Collections.reverse(byCreated);
+        Deque<String> ready = byCreated.stream().filter(v -> !incoming.containsKey(v)).collect(Collectors.toCollection(ArrayDeque::new));
+        List<String> order = new ArrayList<>();
+        while (!ready.isEmpty()) {
+            String v = ready.poll();
+            order.add(v);
+            for (String next : nexts.getOrDefault(v, Collections.emptyList())) {
+                if (incoming.merge(next, -1, Integer::sum) == 0 && ranks.containsKey(next)) {
+                    ready.add(next);
+                }
+            }
+        }
+        //anything left over is caught in a precedence cycle, so just put it at the end
+        Set<String> ordered = new HashSet<>(order);
+        byCreated.stream().filter(v -> !ordered.contains(v)).forEach(order::add);
 
-            SortedSet<ComparableVersion> allPrev = cvTree.headSet(inserted);
-            String prev = allPrev.size() > 0 ? allPrev.last().toString() : null;
-            SortedSet<ComparableVersion> allNext = cvTree.tailSet(inserted, false);
-            String next = allNext.size() > 0 ? allNext.first().toString() : null;
+        insertPrecedences(component, Collections.emptyList(), Collections.emptyList(), assignRanks(order, ranks), null);
+    }
 
-            versionDao.insertPrecendenceBetween(version.getComponent(), version.getVersion(), prev, next);
+    private void insertPrecedences(
+            String component, List<Precedence> replaced, List<Precedence> inserted, Map<String, Long> changedRanks, String latest
+    ) {
+        Set<String> changedComponents = new HashSet<>();
+        changedComponents.add(component);
 
-        } else {
-            versionDao.insertPrecedenceAtEnd(version.getComponent(), version.getVersion());
+        versionDao.insertPrecedences(component, replaced, inserted, changedRanks, latest);
+        if (latest != null) {
+            changedComponents.addAll(versionDao.updateActiveAfterLatestMoved(component));
         }
+        //newly ranked versions may fall inside issues' ranges, exposing everything that depends on them
+        changedComponents.addAll(issueDao.addExposureThrough(component, changedRanks.keySet()));
+        issueIndex.ranksChanged(component, changedRanks);
+        revisionTracker.componentsChanged(changedComponents);
     }
 
+    //Gives every version in order that has no rank one that falls between its neighbours' ranks.  Where the neighbours
+    //are too close together to fit everything between them, the window is widened a version at a time on each side and
+    //the versions inside it are spread out evenly again.  Returns only the ranks that changed.
+    static Map<String, Long> assignRanks(List<String> order, Map<String, Long> ranks) {
+        Map<String, Long> working = new HashMap<>(ranks);
+        Map<String, Long> changed = new LinkedHashMap<>();
+        int i = 0;
+        while (i < order.size()) {
+            if (working.get(order.get(i)) != null) {
+                ++i;
+                continue;
+            }
+
+            int left = i - 1;
+            int right = nextRanked(order, working, i);
+            while (true) {
+                Long lo = left >= 0 ? working.get(order.get(left)) : null;
+                Long hi = right < order.size() ? working.get(order.get(right)) : null;
+                int slots = right - left - 1;
+                if (lo != null && hi != null && hi - lo <= slots) {
+                    left = Math.max(left - 1, -1);
+                    right = right < order.size() ? nextRanked(order, working, right + 1) : right;
+                    continue;
+                }
+
+                for (int j = left + 1; j < right; ++j) {
+                    long rank;
+                    if (lo != null && hi != null) {
+                        rank = lo + (hi - lo) / (slots + 1) * (j - left);
+                    } else if (lo != null) {
+                        rank = lo + RANK_GAP * (j - left);
+                    } else if (hi != null) {
+                        rank = hi - RANK_GAP * (right - j);
+                    } else {
+                        rank = RANK_GAP * (j - left);
+                    }
+
+                    String v = order.get(j);
+                    if (!Long.valueOf(rank).equals(working.get(v))) {
+                        working.put(v, rank);
+                        changed.put(v, rank);
+                    }
+                }
+                break;
+            }
+            i = right;
+        }
+        return changed;
+    }
+
+    private static int nextRanked(List<String> order, Map<String, Long> ranks, int from) {
+        int i = from;
+        while (i < order.size() && ranks.get(order.get(i)) == null) {
+            ++i;
+        }
+        return i;
+    }
 }
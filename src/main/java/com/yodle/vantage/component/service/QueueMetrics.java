@@ -0,0 +1,59 @@
+/*
+ * Copyright 2016 Yodle, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+
+ *     http://www.apache.org/licenses/LICENSE-2.0
+
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yodle.vantage.component.service;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.dao.DataAccessException;
+import org.springframework.stereotype.Component;
+
+import com.yodle.vantage.component.dao.CreateQueue;
+
+//Reports the current state of the create queue on /metrics.  Timings for processing entries are submitted by QueueService
+@Component
+public class QueueMetrics implements PublicMetrics {
+    @Autowired private CreateQueue createQueue;
+    private static Logger l = LoggerFactory.getLogger(QueueMetrics.class);
+
+    @Override
+    public Collection<Metric<?>> metrics() {
+        CreateQueue.QueueStats stats;
+        try {
+            stats = createQueue.getQueueStats();
+        } catch (DataAccessException e) {
+            //don't take the rest of /metrics down with us
+            l.warn("Unable to read create queue metrics", e);
+            return Collections.emptyList();
+        }
+
+        List<Metric<?>> metrics = new ArrayList<>();
+        metrics.add(new Metric<>("queue.create.depth", stats.depth));
+        if (stats.oldestCreated != null) {
+            metrics.add(new Metric<>("queue.create.oldest.age", Math.max(0, System.currentTimeMillis() - stats.oldestCreated)));
+        }
+        metrics.add(new Metric<>("queue.create.blob.size.mean", stats.depth == 0 ? 0 : stats.totalBlobSize / stats.depth));
+        metrics.add(new Metric<>("queue.create.blob.size.total", stats.totalBlobSize));
+        return metrics;
+    }
+}
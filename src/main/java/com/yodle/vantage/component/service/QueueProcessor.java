@@ -15,21 +15,142 @@
  */
 package com.yodle.vantage.component.service;
 
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationListener;
 import org.springframework.context.annotation.Profile;
+import org.springframework.dao.TransientDataAccessException;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Component;
 
+import com.yodle.vantage.component.dao.QueueDao;
+import com.yodle.vantage.exception.QueueEntryFailedException;
+
 @Component
 @Profile("!test")
-public class QueueProcessor {
+public class QueueProcessor implements ApplicationListener<CreateRequestQueuedEvent> {
     @Autowired private QueueService queueService;
+    @Autowired private QueueDao queueDao;
+    @Value("${vantage.queue.batch-size:1}") private int batchSize;
     private static Logger l = LoggerFactory.getLogger(QueueProcessor.class);
 
-    @Scheduled(fixedDelay=5000)
+    //number of drain requests each consumer has received since its drain loop last found nothing to process.  Whoever
+    //moves a consumer's count off of 0 is responsible for starting that consumer's drain loop
+    private AtomicInteger[] drainRequests;
+    private ExecutorService drainExecutor;
+
+    @PostConstruct
+    public void startDrainExecutor() {
+        int consumers = queueDao.getConsumers();
+        drainRequests = new AtomicInteger[consumers];
+        for (int consumer = 0; consumer < consumers; ++consumer) {
+            drainRequests[consumer] = new AtomicInteger();
+        }
+
+        AtomicInteger threadCount = new AtomicInteger();
+        //each consumer has at most one drain loop running at a time, so this gives every consumer its own thread
+        drainExecutor = Executors.newFixedThreadPool(consumers, r -> {
+            Thread t = new Thread(r, "vantage-queue-drain-" + threadCount.getAndIncrement());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    @PreDestroy
+    public void stopDrainExecutor() {
+        drainExecutor.shutdownNow();
+    }
+
+    @Override
+    public void onApplicationEvent(CreateRequestQueuedEvent event) {
+        requestDrain(queueDao.getConsumer(event.getVersion().getComponent()));
+    }
+
+    //Creates queued through this instance wake the drain loop directly.  The poll is just a fallback for creates queued
+    //by other instances or left behind when a drain stopped because of an error
+    @Scheduled(fixedDelayString = "${vantage.queue.poll-interval-ms:5000}")
     public void processFrontOfQueue() {
-        queueService.processFrontOfQueue();
+        for (int consumer = 0; consumer < drainRequests.length; ++consumer) {
+            requestDrain(consumer);
+        }
+    }
+
+    void requestDrain(int consumer) {
+        if (drainRequests[consumer].getAndIncrement() == 0) {
+            drainExecutor.execute(() -> drain(consumer));
+        }
+    }
+
+    void drain(int consumer) {
+        int seen;
+        do {
+            seen = drainRequests[consumer].get();
+            try {
+                while (processBatch(consumer)) {
+                    //keep going until there's nothing left for this consumer
+                }
+            } catch (RuntimeException e) {
+                l.error("Error processing the create queue for consumer " + consumer + ", will retry on the next poll", e);
+                drainRequests[consumer].set(0);
+                return;
+            }
+            //if anything was queued while we were draining, the count will have moved and we need to go around again
+        } while (!drainRequests[consumer].compareAndSet(seen, 0));
+    }
+
+    //A single bad entry shouldn't hold up the rest of its batch, so if the batch as a whole fails its entries are
+    //retried one per transaction
+    private boolean processBatch(int consumer) {
+        if (batchSize == 1) {
+            return processEntry(consumer);
+        }
+
+        try {
+            return queueService.processFrontOfQueue(consumer, batchSize);
+        } catch (RuntimeException e) {
+            l.warn("Error processing a batch of the create queue for consumer " + consumer + ", retrying its entries one at a time", e);
+        }
+
+        boolean processedAny = false;
+        for (int i = 0; i < batchSize && processEntry(consumer); ++i) {
+            processedAny = true;
+        }
+        return processedAny;
+    }
+
+    //Failures that can be pinned on the entry are charged to it and the drain moves on, which will pass over that entry
+    //until it's due to be retried.  Anything else stops the drain, including deadlocks and other transient errors: they
+    //say nothing about the entry, which is tried again on the next poll without losing an attempt
+    private boolean processEntry(int consumer) {
+        try {
+            return queueService.processFrontOfQueue(consumer, 1);
+        } catch (QueueEntryFailedException e) {
+            if (isTransient(e.getCause())) {
+                throw e;
+            }
+            l.warn("Error processing create queue entry [" + e.getCreateRequestId() + "]", e.getCause());
+            queueService.recordFailure(e.getCreateRequestId(), e.getCause());
+            return true;
+        }
+    }
+
+    //Spring only translates some of neo4j's transient errors, so its status codes are checked as well
+    static boolean isTransient(Throwable e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof TransientDataAccessException
+                    || (cause.getMessage() != null && cause.getMessage().contains("Neo.TransientError"))) {
+                return true;
+            }
+        }
+        return false;
     }
 }
@@ -15,45 +15,179 @@
  */
 package com.yodle.vantage.component.service;
 
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Optional;
+import java.util.Set;
+import java.util.stream.Collectors;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.metrics.CounterService;
+import org.springframework.boot.actuate.metrics.GaugeService;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.stereotype.Component;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
+import com.google.common.collect.Lists;
+import com.yodle.vantage.component.dao.CreateQueue;
 import com.yodle.vantage.component.dao.QueueDao;
+import com.yodle.vantage.component.domain.DeadLetteredCreateRequest;
 import com.yodle.vantage.component.domain.Version;
+import com.yodle.vantage.component.domain.VersionId;
+import com.yodle.vantage.exception.QueueEntryFailedException;
 
 @Transactional
 @Component
 public class QueueService {
     @Autowired private QueueDao queueDao;
+    @Autowired private CreateQueue createQueue;
     @Autowired private ComponentService componentService;
+    @Autowired private ApplicationEventPublisher eventPublisher;
+    @Autowired private GaugeService gaugeService;
+    @Autowired private CounterService counterService;
+    @Value("${vantage.queue.max-attempts:5}") private int maxAttempts;
+    @Value("${vantage.queue.retry-backoff-ms:30000}") private long retryBackoffMs;
 
     private static Logger l = LoggerFactory.getLogger(QueueService.class);
 
     public void queueCreateRequest(Version version) {
         l.info("Saving create request for [{}]:[{}]", version.getComponent(), version.getVersion());
         //serialize adding things to the end of the queue
-        queueDao.lockQueueTail();
-        queueDao.saveCreateRequest(version);
+        createQueue.lockQueueTail();
+        createQueue.saveCreateRequest(version);
+        publishAfterCommit(new CreateRequestQueuedEvent(this, version.toId()));
     }
 
-    public void processFrontOfQueue() {
-        queueDao.lockQueueHead();
-        Optional<QueueDao.QueueCreateRequest> createRequest = queueDao.getCreateRequest();
+    //Consumers can't see the new queue entry until our transaction commits, so hold the event until then
+    private void publishAfterCommit(CreateRequestQueuedEvent event) {
+        afterCommit(() -> eventPublisher.publishEvent(event));
+    }
+
+    //Runs the action once the current transaction commits, if there is one.  Metrics are submitted this way too, since
+    //entries whose transaction rolls back haven't been processed and are processed again when they're retried
+    private static void afterCommit(Runnable action) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+                @Override
+                public void afterCommit() {
+                    action.run();
+                }
+            });
+        } else {
+            action.run();
+        }
+    }
+
+    public boolean processFrontOfQueue() {
+        return processFrontOfQueue(0, 1);
+    }
+
+    //Processes up to maxEntries of the first create requests belonging to the given consumer in a single transaction.
+    //Returns whether or not there were any to process.  Each create takes its locks in sorted order, but a batch holds
+    //on to them until it commits, so batches of two consumers with overlapping dependencies can deadlock.  Neo4j then
+    //fails one of them, and QueueProcessor retries its entries one at a time without charging them for the deadlock
+    public boolean processFrontOfQueue(int consumer, int maxEntries) {
+        queueDao.lockQueueHead(consumer);
+        List<CreateQueue.QueueCreateRequest> createRequests = createQueue.getCreateRequests(consumer, maxEntries);
 
-        createRequest.map(qcr -> {
-            l.info("Processing create queue entry for {}:{}", qcr.v.getComponent(), qcr.v.getVersion());
-            componentService.createOrUpdateVersion(qcr.v);
+        //a later entry in the batch may already have been coalesced into an earlier one
+        Set<String> processed = new LinkedHashSet<>();
+        for (CreateQueue.QueueCreateRequest qcr : createRequests) {
+            if (!processed.contains(qcr.id)) {
+                processed.addAll(process(qcr));
+            }
+        }
+
+        if (!processed.isEmpty()) {
             //strictly speaking not always necessary, but safe to do in case the head of the queue is also the tail
             //and deleting the node we just processed interferes with en1queuing a new node
-            queueDao.lockQueueTail();
-            queueDao.deleteCreateRequest(qcr.id);
-            l.info("Processed create queue entry for {}:{}", qcr.v.getComponent(), qcr.v.getVersion());
-            return null;
+            createQueue.lockQueueTail();
+            processed.forEach(createQueue::deleteCreateRequest);
+        }
+
+        return !createRequests.isEmpty();
+    }
+
+    //Creates the version for the given entry and returns the ids of every entry that creation took care of
+    private List<String> process(CreateQueue.QueueCreateRequest qcr) {
+        //Any later entries for the same version are folded into this one since creating them together has the same
+        //result as creating them one after the other.  They all belong to this consumer, so nobody else can be
+        //processing them.
+        List<CreateQueue.QueueCreateRequest> duplicates = createQueue.getDuplicateCreateRequests(qcr);
+        Version version = qcr.v;
+        if (!duplicates.isEmpty()) {
+            l.info("Coalescing [{}] later create queue entries for {}:{}", duplicates.size(), qcr.v.getComponent(), qcr.v.getVersion());
+            List<Version> versions = Lists.newArrayList(qcr.v);
+            duplicates.forEach(d -> versions.add(d.v));
+            version = CreateRequestCoalescer.coalesce(versions);
+        }
+
+        l.info("Processing create queue entry for {}:{}", qcr.v.getComponent(), qcr.v.getVersion());
+        long start = System.currentTimeMillis();
+        try {
+            componentService.createOrUpdateVersion(version);
+        } catch (RuntimeException e) {
+            throw new QueueEntryFailedException(qcr.id, e);
+        }
+        long end = System.currentTimeMillis();
+        l.info("Processed create queue entry for {}:{}", qcr.v.getComponent(), qcr.v.getVersion());
+
+        List<CreateQueue.QueueCreateRequest> entries = Lists.newArrayList(qcr);
+        entries.addAll(duplicates);
+        afterCommit(() -> {
+            //timer.* gauges are reported as timings by the actuator's metric writers
+            gaugeService.submit("timer.queue.create.processing", end - start);
+            for (CreateQueue.QueueCreateRequest entry : entries) {
+                if (entry.created != null) {
+                    gaugeService.submit("timer.queue.create.latency", end - entry.created);
+                }
+                counterService.increment("queue.create.processed");
+            }
         });
+
+        return entries.stream().map(e -> e.id).collect(Collectors.toList());
+    }
+
+    //Charges a failed attempt to the entry.  It's retried after a backoff that doubles with every failed attempt until
+    //it runs out of attempts, at which point it's moved to the dead letter list so it stops holding up its component
+    public void recordFailure(String createRequestId, Throwable cause) {
+        int attempts = createQueue.recordFailedAttempt(createRequestId, String.valueOf(cause));
+        if (attempts == 0) {
+            return;
+        }
+
+        if (attempts >= maxAttempts) {
+            l.error("Dead lettering create queue entry [{}] after [{}] failed attempts", createRequestId, attempts);
+            createQueue.lockQueueTail();
+            createQueue.deadLetterCreateRequest(createRequestId);
+            afterCommit(() -> counterService.increment("queue.create.dead-lettered"));
+        } else {
+            long delay = retryBackoffMs << Math.min(attempts - 1, 10);
+            l.warn("Retrying create queue entry [{}] in [{}]ms after [{}] failed attempts", createRequestId, delay, attempts);
+            createQueue.delayCreateRequest(createRequestId, delay);
+        }
+    }
+
+    public List<DeadLetteredCreateRequest> getDeadLetteredCreateRequests() {
+        return createQueue.getDeadLetteredCreateRequests();
+    }
+
+    //Puts a dead lettered entry back on the end of the queue and wakes its consumer just as queuing it did.  Returns
+    //false if there was no such dead lettered entry
+    public boolean replayDeadLetteredCreateRequest(String createRequestId) {
+        createQueue.lockQueueTail();
+        Optional<VersionId> replayed = createQueue.replayDeadLetteredCreateRequest(createRequestId);
+        if (!replayed.isPresent()) {
+            return false;
+        }
+
+        l.info("Replayed dead lettered create queue entry [{}]", createRequestId);
+        publishAfterCommit(new CreateRequestQueuedEvent(this, replayed.get()));
+        return true;
     }
 }
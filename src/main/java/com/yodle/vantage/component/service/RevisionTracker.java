@@ -0,0 +1,107 @@
+/*
+ * Copyright 2016 Yodle, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+
+ *     http://www.apache.org/licenses/LICENSE-2.0
+
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yodle.vantage.component.service;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import com.yodle.vantage.component.dao.ComponentDao;
+import com.yodle.vantage.component.dao.IssueDao;
+
+//Tracks a revision for each component, bumped by every write that changes anything read for it, and one revision for
+//all issues.  Reads use them as ETags.  Changes made during a transaction are collected and the revisions are bumped once,
+//in name order, just before it commits, so the locks bumping takes are held as briefly as possible and always taken in
+//the same order
+@Component
+public class RevisionTracker {
+    @Autowired private ComponentDao componentDao;
+    @Autowired private IssueDao issueDao;
+    @Autowired private ComponentCache componentCache;
+    @Autowired private IssueIndex issueIndex;
+
+    public void componentsChanged(Collection<String> components) {
+        componentCache.invalidate(components);
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            pending().components.addAll(components);
+        } else {
+            componentDao.bumpRevisions(new ArrayList<>(new TreeSet<>(components)));
+        }
+    }
+
+    public void issuesChanged() {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            pending().issues = true;
+        } else {
+            issueDao.bumpRevision();
+        }
+    }
+
+    //The cache and the issue index are told about a new revision before anything is read through them, so changes made
+    //through another instance aren't served from what they held before.  The index catches up first, so a body reloaded
+    //under the new revision doesn't miss the issues of versions it hadn't ranked yet
+    public long getComponentRevision(String component) {
+        long revision = componentDao.getRevision(component);
+        if (!componentCache.isRevisionSeen(component, revision)) {
+            issueIndex.componentChanged(component);
+            componentCache.revisionSeen(component, revision);
+        }
+        return revision;
+    }
+
+    public long getTotalComponentRevision() {
+        return componentDao.getTotalRevision();
+    }
+
+    public long getIssueRevision() {
+        return issueDao.getRevision();
+    }
+
+    private Pending pending() {
+        Pending pending = (Pending) TransactionSynchronizationManager.getResource(this);
+        if (pending == null) {
+            pending = new Pending();
+            TransactionSynchronizationManager.bindResource(this, pending);
+            TransactionSynchronizationManager.registerSynchronization(pending);
+        }
+        return pending;
+    }
+
+    //Not called when the transaction rolls back, so dry runs leave revisions alone
+    private class Pending extends TransactionSynchronizationAdapter {
+        private final Set<String> components = new TreeSet<>();
+        private boolean issues;
+
+        @Override
+        public void beforeCommit(boolean readOnly) {
+            componentDao.bumpRevisions(new ArrayList<>(components));
+            if (issues) {
+                issueDao.bumpRevision();
+            }
+        }
+
+        @Override
+        public void afterCompletion(int status) {
+            TransactionSynchronizationManager.unbindResource(RevisionTracker.this);
+        }
+    }
+}
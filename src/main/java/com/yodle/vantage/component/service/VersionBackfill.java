@@ -0,0 +1,103 @@
+/*
+ * Copyright 2016 Yodle, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+
+ *     http://www.apache.org/licenses/LICENSE-2.0
+
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yodle.vantage.component.service;
+
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationListener;
+import org.springframework.context.event.ContextRefreshedEvent;
+import org.springframework.stereotype.Component;
+
+import com.yodle.vantage.component.dao.IssueDao;
+import com.yodle.vantage.component.dao.VersionDao;
+import com.yodle.vantage.component.domain.VersionId;
+
+//Versions created by older releases are missing the rank, sort key and active flag newer releases give every version,
+//their components are missing a LATEST relationship and their issues are missing EXPOSED_TO relationships.  Queries that
+//rely on them can't see those versions until they have them, so this fills them in once at startup; after that they are
+//kept up to date as versions and issues are created
+@Component
+public class VersionBackfill implements ApplicationListener<ContextRefreshedEvent> {
+    private static final int SORT_KEY_BATCH_SIZE = 1000;
+
+    @Autowired private VersionDao versionDao;
+    @Autowired private IssueDao issueDao;
+    @Autowired private PrecedenceFixer precedenceFixer;
+    @Autowired private ActiveFlagRebuilder activeFlagRebuilder;
+    private static Logger l = LoggerFactory.getLogger(VersionBackfill.class);
+
+    @Override
+    public void onApplicationEvent(ContextRefreshedEvent event) {
+        rankVersions();
+        versionDao.setMissingLatestVersions();
+        setActiveFlags();
+        setSortKeys();
+        exposeIssues();
+    }
+
+    private void rankVersions() {
+        List<String> components = versionDao.getComponentsWithUnrankedVersions();
+        if (components.isEmpty()) {
+            return;
+        }
+
+        l.info("Ranking versions of [{}] components", components.size());
+        for (String component : components) {
+            precedenceFixer.rankUnrankedVersions(component);
+        }
+        l.info("Finished ranking versions");
+    }
+
+    //whether a version is active depends on LATEST, so this has to run after it's set
+    private void setActiveFlags() {
+        List<String> components = versionDao.getComponentsWithoutActiveFlags();
+        if (components.isEmpty()) {
+            return;
+        }
+
+        l.info("Setting active flags for versions of [{}] components", components.size());
+        activeFlagRebuilder.rebuild(components);
+        l.info("Finished setting active flags");
+    }
+
+    private void setSortKeys() {
+        int count = 0;
+        List<VersionId> versions;
+        while (!(versions = versionDao.getVersionsWithoutSortKey(SORT_KEY_BATCH_SIZE)).isEmpty()) {
+            versionDao.setSortKeys(versions);
+            count += versions.size();
+        }
+
+        if (count > 0) {
+            l.info("Set sort keys for [{}] versions", count);
+        }
+    }
+
+    //exposure depends on ranks, so this has to run after versions are ranked
+    private void exposeIssues() {
+        List<String> issues = issueDao.getIssuesWithoutExposure();
+        if (issues.isEmpty()) {
+            return;
+        }
+
+        l.info("Computing exposure to [{}] issues", issues.size());
+        issues.forEach(issueDao::updateIssueExposure);
+        l.info("Finished computing issue exposure");
+    }
+}
@@ -24,6 +24,7 @@ import com.mangofactory.swagger.plugin.SwaggerSpringMvcPlugin;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.web.context.request.WebRequest;
 
 /**
  * See http://swagger.io/ for more info
@@ -49,7 +50,7 @@ public class SwaggerConfig {
                 .apiInfo(apiInfo())
                 .apiVersion("1")
                 .includePatterns("/api/.*")
-                .ignoredParameterTypes(Principal.class);
+                .ignoredParameterTypes(Principal.class, WebRequest.class);
     }
 
 
@@ -66,6 +66,8 @@ public class GlobalExceptionHandler {
             .put(NoComponentFoundException.class, HttpStatus.NOT_FOUND)
             .put(NoVersionFoundException.class, HttpStatus.NOT_FOUND)
             .put(NoIssueFoundException.class, HttpStatus.NOT_FOUND)
+            .put(NoDeadLetterFoundException.class, HttpStatus.NOT_FOUND)
+            .put(InvalidPageException.class, HttpStatus.BAD_REQUEST)
             .build();
 
     @ExceptionHandler(Exception.class)
@@ -0,0 +1,30 @@
+/*
+ * Copyright 2016 Yodle, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+
+ *     http://www.apache.org/licenses/LICENSE-2.0
+
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yodle.vantage.exception;
+
+//Thrown when a specific create queue entry can't be processed, so that the failure can be charged to that entry
+public class QueueEntryFailedException extends RuntimeException {
+    private final String createRequestId;
+
+    public QueueEntryFailedException(String createRequestId, Throwable cause) {
+        super("Could not process create queue entry [" + createRequestId + "]", cause);
+        this.createRequestId = createRequestId;
+    }
+
+    public String getCreateRequestId() {
+        return createRequestId;
+    }
+}
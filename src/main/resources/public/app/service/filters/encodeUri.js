@@ -0,0 +1,10 @@
+define([
+    'service/module'
+], function(service) {
+    //For building links out of names that may hold characters that aren't allowed in a URL path segment
+    service.filter('encodeUri', function() {
+        return function(value) {
+            return encodeURIComponent(value);
+        };
+    });
+});
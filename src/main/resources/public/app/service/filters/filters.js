@@ -1,4 +1,5 @@
 define([
-    ], function() {
+    'service/filters/encodeUri'
+], function() {
 
 });
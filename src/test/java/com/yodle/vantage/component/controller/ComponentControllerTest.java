@@ -18,32 +18,134 @@ package com.yodle.vantage.component.controller;
 import static org.junit.Assert.*;
 import static org.mockito.Mockito.*;
 
-import java.util.List;
+import java.util.Optional;
+import java.util.function.Consumer;
 
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
+import org.mockito.Spy;
 import org.mockito.runners.MockitoJUnitRunner;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.web.context.request.ServletWebRequest;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import com.yodle.vantage.component.domain.Dependency;
+import com.yodle.vantage.component.domain.Page;
 import com.yodle.vantage.component.domain.VantageComponent;
+import com.yodle.vantage.component.domain.Version;
 import com.yodle.vantage.component.service.ComponentService;
+import com.yodle.vantage.exception.NoVersionFoundException;
 
 @RunWith(MockitoJUnitRunner.class)
 public class ComponentControllerTest {
     @InjectMocks private ComponentController componentController;
     @Mock private ComponentService componentService;
+    @Spy private ObjectMapper objectMapper = new ObjectMapper();
 
     @Test
-    public void getAllComponents_getsAllComponents() throws Exception {
-        List<VantageComponent> returnedComponents = Lists.newArrayList(
-                new VantageComponent("comp1", "desc1")
-        );
-        when(componentService.getAllComponents()).thenReturn(returnedComponents);
+    @SuppressWarnings("unchecked")
+    public void getAllComponents_streamsComponentsAsJsonArray() throws Exception {
+        doAnswer(invocation -> {
+            Consumer<VantageComponent> consumer = (Consumer<VantageComponent>) invocation.getArguments()[0];
+            consumer.accept(new VantageComponent("comp1", "desc1"));
+            consumer.accept(new VantageComponent("comp2", null));
+            return null;
+        }).when(componentService).getAllComponents(any(Consumer.class));
+        ServletWebRequest request = request(null);
 
-        List < VantageComponent > allComponents = componentController.getAllComponents();
+        componentController.getAllComponents(request, request.getResponse());
 
-        assertEquals(returnedComponents, allComponents);
+        MockHttpServletResponse response = (MockHttpServletResponse) request.getResponse();
+        assertEquals("application/json", response.getContentType());
+        assertEquals("[{\"name\":\"comp1\",\"description\":\"desc1\"},{\"name\":\"comp2\"}]", response.getContentAsString());
+    }
+
+    @Test
+    public void getComponents_getsRequestedPage() throws Exception {
+        Page<VantageComponent> returnedPage = new Page<>(Lists.newArrayList(new VantageComponent("comp1", "desc1")), 1L, null);
+        when(componentService.getComponents("comp", "-name", "cursor", 10)).thenReturn(returnedPage);
+
+        Page<VantageComponent> page = componentController.getComponents(10, "cursor", "comp", "-name", request(null));
+
+        assertEquals(returnedPage, page);
+    }
+
+    @Test
+    public void givenMatchingEtag_getVersion_answersNotModifiedWithoutReadingVersion() throws Exception {
+        when(componentService.getRevision("comp1")).thenReturn(3L);
+        ServletWebRequest request = request("\"3\"");
+
+        assertNull(componentController.getVersion("comp1", "1.0", request));
+
+        assertEquals(304, request.getResponse().getStatus());
+        verify(componentService, never()).getVersion(anyString(), anyString());
+    }
+
+    @Test
+    public void givenStaleEtag_getVersion_returnsVersionWithCurrentEtag() throws Exception {
+        Version version = new Version("comp1", "1.0");
+        when(componentService.getRevision("comp1")).thenReturn(4L);
+        when(componentService.getVersion("comp1", "1.0")).thenReturn(Optional.of(version));
+        ServletWebRequest request = request("\"3\"");
+
+        assertEquals(version, componentController.getVersion("comp1", "1.0", request));
+
+        assertEquals(200, request.getResponse().getStatus());
+        assertEquals("\"4\"", request.getResponse().getHeader("ETag"));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void givenMatchingEtag_getAllComponents_answersNotModifiedFromTotalRevision() throws Exception {
+        when(componentService.getRevision()).thenReturn(12L);
+        ServletWebRequest request = request("\"12\"");
+
+        componentController.getAllComponents(request, request.getResponse());
+
+        assertEquals(304, request.getResponse().getStatus());
+        verify(componentService, never()).getAllComponents(any(Consumer.class));
+    }
+
+    @Test
+    public void givenDirectDependents_getDependents_usesComponentRevision() throws Exception {
+        Page<Dependency> returnedPage = new Page<>(Lists.newArrayList(new Dependency(new Version("comp2", "2.0"), Sets.newHashSet("compile"))), 1L, null);
+        when(componentService.getRevision("comp1")).thenReturn(5L);
+        when(componentService.getDependents("comp1", "1.0", 1, true, "compile", "component", null, 10)).thenReturn(Optional.of(returnedPage));
+        ServletWebRequest request = request(null);
+
+        assertEquals(returnedPage, componentController.getDependents("comp1", "1.0", 10, null, 1, true, "compile", "component", request));
+
+        assertEquals("\"5\"", request.getResponse().getHeader("ETag"));
+    }
+
+    @Test
+    public void givenIndirectDependents_getDependents_answersNotModifiedFromTotalRevision() throws Exception {
+        when(componentService.getRevision()).thenReturn(12L);
+        ServletWebRequest request = request("\"12\"");
+
+        assertNull(componentController.getDependents("comp1", "1.0", 10, null, 2, true, null, "component", request));
+
+        assertEquals(304, request.getResponse().getStatus());
+        verify(componentService, never()).getRevision("comp1");
+    }
+
+    @Test(expected = NoVersionFoundException.class)
+    public void givenNoVersion_getDependents_throws() throws Exception {
+        when(componentService.getDependents("comp1", "1.0", 1, true, null, "component", null, 10)).thenReturn(Optional.empty());
+
+        componentController.getDependents("comp1", "1.0", 10, null, 1, true, null, "component", request(null));
+    }
+
+    private ServletWebRequest request(String ifNoneMatch) {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "");
+        if (ifNoneMatch != null) {
+            request.addHeader("If-None-Match", ifNoneMatch);
+        }
+        return new ServletWebRequest(request, new MockHttpServletResponse());
     }
 }
@@ -0,0 +1,149 @@
+/*
+ * Copyright 2016 Yodle, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+
+ *     http://www.apache.org/licenses/LICENSE-2.0
+
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yodle.vantage.component.controller;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyListOf;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Optional;
+import java.util.function.Consumer;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.Spy;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.springframework.http.converter.HttpMessageNotReadableException;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.web.context.request.ServletWebRequest;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.Lists;
+import com.yodle.vantage.component.domain.ImpactedVersion;
+import com.yodle.vantage.component.domain.Issue;
+import com.yodle.vantage.component.domain.IssueLevel;
+import com.yodle.vantage.component.domain.IssueStatus;
+import com.yodle.vantage.component.domain.Page;
+import com.yodle.vantage.component.domain.VersionId;
+import com.yodle.vantage.component.service.IssueService;
+import com.yodle.vantage.exception.NoIssueFoundException;
+
+@RunWith(MockitoJUnitRunner.class)
+public class IssueControllerTest {
+    @InjectMocks private IssueController issueController;
+    @Mock private IssueService issueService;
+    @Spy private ObjectMapper objectMapper = new ObjectMapper();
+
+    @Test
+    public void addIssuesFromNdjson_readsOneIssuePerLine() throws Exception {
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        request.setContent((
+                "{\"id\":\"one\",\"affectsVersion\":{\"component\":\"a\",\"version\":\"1\"}}\n" +
+                        "{\"id\":\"two\",\"level\":\"MINOR\"}\n"
+        ).getBytes(StandardCharsets.UTF_8));
+        List<IssueStatus> statuses = Lists.newArrayList(new IssueStatus("one", IssueStatus.Status.CREATED, null));
+        when(issueService.createOrUpdate(anyListOf(Issue.class))).thenReturn(statuses);
+
+        assertEquals(statuses, issueController.addIssuesFromNdjson(request));
+
+        Issue one = new Issue();
+        one.setId("one");
+        one.setAffectsVersion(new VersionId("a", "1"));
+        Issue two = new Issue();
+        two.setId("two");
+        two.setLevel(IssueLevel.MINOR);
+        verify(issueService).createOrUpdate(Lists.newArrayList(one, two));
+    }
+
+    @Test(expected = HttpMessageNotReadableException.class)
+    public void givenMalformedLine_addIssuesFromNdjson_throwsNotReadable() throws Exception {
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        request.setContent("{\"id\":\"one\"}\n{\"id\":".getBytes(StandardCharsets.UTF_8));
+
+        issueController.addIssuesFromNdjson(request);
+    }
+
+    @Test
+    public void getImpact_returnsPage() throws Exception {
+        Page<ImpactedVersion> page = new Page<>(Lists.newArrayList(new ImpactedVersion("library", "1.0", true, false)), 1L, null);
+        when(issueService.getImpact("issue", "component", null, 2)).thenReturn(Optional.of(page));
+
+        assertEquals(page, issueController.getImpact("issue", 2, null, "component"));
+    }
+
+    @Test(expected = NoIssueFoundException.class)
+    public void givenNonexistentIssue_getImpact_throws() throws Exception {
+        when(issueService.getImpact("issue", "component", null, 2)).thenReturn(Optional.empty());
+
+        issueController.getImpact("issue", 2, null, "component");
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void getIssues_streamsIssuesAsJsonArray() throws Exception {
+        doAnswer(invocation -> {
+            Consumer<Issue> consumer = (Consumer<Issue>) invocation.getArguments()[0];
+            Issue issue = new Issue();
+            issue.setId("one");
+            consumer.accept(issue);
+            return null;
+        }).when(issueService).getIssues(any(Consumer.class));
+        MockHttpServletResponse response = new MockHttpServletResponse();
+
+        issueController.getIssues(new ServletWebRequest(new MockHttpServletRequest("GET", ""), response), response);
+
+        assertEquals("application/json", response.getContentType());
+        assertEquals("[{\"id\":\"one\"}]", response.getContentAsString());
+    }
+
+    @Test
+    public void givenMatchingEtag_getIssues_answersNotModifiedWithoutReadingIssues() throws Exception {
+        when(issueService.getRevision()).thenReturn(7L);
+        MockHttpServletRequest servletRequest = new MockHttpServletRequest("GET", "");
+        servletRequest.addHeader("If-None-Match", "\"7\"");
+        ServletWebRequest request = new ServletWebRequest(servletRequest, new MockHttpServletResponse());
+
+        assertNull(issueController.getIssues(10, null, null, "id", request));
+
+        assertEquals(304, request.getResponse().getStatus());
+        verify(issueService, never()).getIssues(anyString(), anyString(), anyString(), anyInt());
+    }
+
+    @Test
+    public void givenNoEtag_getIssue_returnsIssueWithEtag() throws Exception {
+        Issue issue = new Issue();
+        issue.setId("issue");
+        when(issueService.getRevision()).thenReturn(7L);
+        when(issueService.getIssue("issue")).thenReturn(Optional.of(issue));
+        ServletWebRequest request = new ServletWebRequest(new MockHttpServletRequest("GET", ""), new MockHttpServletResponse());
+
+        assertEquals(issue, issueController.getIssue("issue", request));
+
+        assertEquals("\"7\"", request.getResponse().getHeader("ETag"));
+    }
+}
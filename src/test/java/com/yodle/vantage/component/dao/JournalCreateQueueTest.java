@@ -0,0 +1,212 @@
+/*
+ * Copyright 2016 Yodle, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+
+ *     http://www.apache.org/licenses/LICENSE-2.0
+
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yodle.vantage.component.dao;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Collectors;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.Lists;
+import com.yodle.vantage.component.domain.Version;
+import com.yodle.vantage.component.domain.VersionId;
+
+public class JournalCreateQueueTest {
+    @Rule public TemporaryFolder tmp = new TemporaryFolder();
+
+    private File dir;
+    private JournalCreateQueue queue;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = tmp.newFolder("journal");
+        queue = openQueue(1024 * 1024);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        queue.close();
+    }
+
+    @Test
+    public void createRequestsAreDequeuedInTheOrderTheyWereQueued() {
+        for (int i = 0; i < 5; ++i) {
+            queue.saveCreateRequest(new Version("component", "1." + i));
+        }
+
+        for (int i = 0; i < 5; ++i) {
+            CreateQueue.QueueCreateRequest createRequest = queue.getCreateRequests(0, 1).get(0);
+            assertEquals("1." + i, createRequest.v.getVersion());
+            queue.deleteCreateRequest(createRequest.id);
+        }
+
+        assertTrue("Queue should be empty", queue.getCreateRequests(0, 1).isEmpty());
+    }
+
+    @Test
+    public void givenReopened_queueIsRecovered() throws IOException {
+        queue.saveCreateRequest(new Version("component", "1.0"));
+        queue.saveCreateRequest(new Version("component", "2.0"));
+        queue.saveCreateRequest(new Version("component", "3.0"));
+        queue.deleteCreateRequest(queue.getCreateRequests(0, 1).get(0).id);
+
+        queue.close();
+        queue = openQueue(1024 * 1024);
+
+        assertEquals(Lists.newArrayList("2.0", "3.0"), versions(queue.getCreateRequests(0, 10)));
+        queue.saveCreateRequest(new Version("component", "4.0"));
+        assertEquals(Lists.newArrayList("2.0", "3.0", "4.0"), versions(queue.getCreateRequests(0, 10)));
+    }
+
+    @Test
+    public void givenTornRecord_reopen_keepsEverythingBeforeIt() throws IOException {
+        queue.saveCreateRequest(new Version("component", "1.0"));
+        queue.saveCreateRequest(new Version("component", "2.0"));
+        queue.close();
+
+        //corrupt the body of the second record, as if we'd crashed while writing it
+        File segment = dir.listFiles((d, name) -> name.endsWith(JournalSegment.SUFFIX))[0];
+        try (RandomAccessFile raf = new RandomAccessFile(segment, "rw")) {
+            int firstLength = raf.readInt();
+            raf.seek(JournalSegment.FRAME_BYTES + firstLength + JournalSegment.FRAME_BYTES + 1);
+            raf.writeByte(0x7f);
+        }
+        queue = openQueue(1024 * 1024);
+
+        assertEquals(Lists.newArrayList("1.0"), versions(queue.getCreateRequests(0, 10)));
+        queue.saveCreateRequest(new Version("component", "3.0"));
+        assertEquals(Lists.newArrayList("1.0", "3.0"), versions(queue.getCreateRequests(0, 10)));
+    }
+
+    @Test
+    public void givenEntryWaitingToBeRetried_getCreateRequests_passesOverItsComponent() {
+        queue.saveCreateRequest(new Version("component1", "1.0"));
+        queue.saveCreateRequest(new Version("component2", "1.0"));
+        queue.saveCreateRequest(new Version("component1", "2.0"));
+        String id = queue.getCreateRequests(0, 1).get(0).id;
+
+        assertEquals(1, queue.recordFailedAttempt(id, "failed"));
+        queue.delayCreateRequest(id, 60000);
+
+        List<CreateQueue.QueueCreateRequest> createRequests = queue.getCreateRequests(0, 10);
+        assertEquals(1, createRequests.size());
+        assertEquals("component2", createRequests.get(0).v.getComponent());
+    }
+
+    @Test
+    public void givenDeadLetteredEntry_replay_putsItOnTheEndOfTheQueue() throws IOException {
+        queue.saveCreateRequest(new Version("component1", "1.0"));
+        queue.saveCreateRequest(new Version("component2", "1.0"));
+        String id = queue.getCreateRequests(0, 1).get(0).id;
+        queue.recordFailedAttempt(id, "failed");
+        queue.deadLetterCreateRequest(id);
+
+        queue.close();
+        queue = openQueue(1024 * 1024);
+
+        assertTrue(queue.isDeadLettered(id));
+        assertEquals(1, queue.getDeadLetteredCreateRequests().size());
+        assertEquals("failed", queue.getDeadLetteredCreateRequests().get(0).getLastError());
+        assertEquals(1, queue.getQueueStats().depth);
+
+        assertEquals(Optional.of(new VersionId("component1", "1.0")), queue.replayDeadLetteredCreateRequest(id));
+
+        assertFalse(queue.isDeadLettered(id));
+        assertEquals(Lists.newArrayList("component2", "component1"),
+                queue.getCreateRequests(0, 10).stream().map(qcr -> qcr.v.getComponent()).collect(Collectors.toList()));
+    }
+
+    @Test
+    public void givenOldSegmentsConsumed_compaction_dropsThemAndKeepsLiveEntries() throws IOException {
+        queue.close();
+        dir = tmp.newFolder("small-segments");
+        queue = openQueue(4096);
+        queue.saveCreateRequest(new Version("dead", "1.0"));
+        String deadId = queue.getCreateRequests(0, 1).get(0).id;
+        queue.deadLetterCreateRequest(deadId);
+
+        for (int i = 0; i < 200; ++i) {
+            queue.saveCreateRequest(new Version("component", "1." + i));
+            queue.deleteCreateRequest(queue.getCreateRequests(0, 1).get(0).id);
+        }
+        queue.saveCreateRequest(new Version("component", "2.0"));
+
+        assertTrue("Consumed segments should have been deleted",
+                dir.listFiles((d, name) -> name.endsWith(JournalSegment.SUFFIX)).length < 5);
+        assertTrue(new File(dir, "checkpoint").exists());
+
+        queue.close();
+        queue = openQueue(4096);
+
+        assertTrue(queue.isDeadLettered(deadId));
+        assertEquals(Lists.newArrayList("2.0"), versions(queue.getCreateRequests(0, 10)));
+    }
+
+    @Test
+    public void getDuplicateCreateRequests_findsLaterEntriesForSameVersion() {
+        queue.saveCreateRequest(new Version("component", "1.0"));
+        queue.saveCreateRequest(new Version("component", "2.0"));
+        queue.saveCreateRequest(new Version("component", "1.0"));
+
+        CreateQueue.QueueCreateRequest first = queue.getCreateRequests(0, 1).get(0);
+        List<CreateQueue.QueueCreateRequest> duplicates = queue.getDuplicateCreateRequests(first);
+
+        assertEquals(1, duplicates.size());
+        assertEquals(queue.getCreateRequests(0, 3).get(2).id, duplicates.get(0).id);
+    }
+
+    private JournalCreateQueue openQueue(int segmentBytes) throws IOException {
+        ObjectMapper objectMapper = new ObjectMapper();
+        JsonQueueBlobCodec jsonCodec = new JsonQueueBlobCodec();
+        ReflectionTestUtils.setField(jsonCodec, "objectMapper", objectMapper);
+        QueueBlobSerializer serializer = new QueueBlobSerializer();
+        ReflectionTestUtils.setField(serializer, "codecs", Lists.newArrayList(jsonCodec));
+        ReflectionTestUtils.setField(serializer, "codecName", "json");
+        serializer.init();
+        QueueDao queueDao = mock(QueueDao.class);
+        when(queueDao.getConsumer(anyString())).thenReturn(0);
+
+        JournalCreateQueue journal = new JournalCreateQueue();
+        ReflectionTestUtils.setField(journal, "queueDao", queueDao);
+        ReflectionTestUtils.setField(journal, "queueBlobSerializer", serializer);
+        ReflectionTestUtils.setField(journal, "dir", dir.getPath());
+        ReflectionTestUtils.setField(journal, "segmentBytes", segmentBytes);
+        ReflectionTestUtils.setField(journal, "fsync", "never");
+        journal.open();
+        return journal;
+    }
+
+    private List<String> versions(List<CreateQueue.QueueCreateRequest> createRequests) {
+        return createRequests.stream().map(qcr -> qcr.v.getVersion()).collect(Collectors.toList());
+    }
+}
@@ -0,0 +1,69 @@
+/*
+ * Copyright 2016 Yodle, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+
+ *     http://www.apache.org/licenses/LICENSE-2.0
+
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yodle.vantage.component.dao;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+
+import org.apache.maven.artifact.versioning.ComparableVersion;
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+
+public class MavenVersionSortKeyTest {
+    private static final List<String> VERSIONS = Lists.newArrayList(
+            "1", "1.0", "1.0.0", "1.0.1", "1.1", "1.2", "1.10", "2.0", "10.0", "0.1", "0.0.1", "01.2",
+            "1-alpha", "1.0-alpha-1", "1.0-alpha-2", "1.0-alpha2", "1.0-a1", "1.0-beta", "1.0-b2", "1.0-m1", "1.0-M2",
+            "1.0-rc1", "1.0-cr2", "1.0-RC-3", "1.0-SNAPSHOT", "1.1-SNAPSHOT", "1.0-ga", "1.0-final", "1.0-sp", "1.0-sp1",
+            "1.0-xyz", "1.0-abc", "1.0-jre", "1.0-android", "1.0-1", "1.0-2", "1.0-10",
+            "1.0.0.RELEASE", "1.0.1.RELEASE", "4.3.10.RELEASE", "2.0.0.M1", "2.0.0.RC1", "2.0.0.BUILD-SNAPSHOT", "3.2.1.Final",
+            "1.0.0-20160101.120000-1", "1.0.0-20160102.120000-1", "1a", "1b1", "1.0a1", "1.2.3-beta.2", "1.2.3-beta.10",
+            "20160101", "20160102", "2.0.0-alpha.1"
+    );
+
+    @Test
+    public void encode_sortsTheSameWayAsComparableVersion() {
+        for (String left : VERSIONS) {
+            for (String right : VERSIONS) {
+                int expected = Integer.signum(new ComparableVersion(left).compareTo(new ComparableVersion(right)));
+                int actual = Integer.signum(MavenVersionSortKey.encode(left).compareTo(MavenVersionSortKey.encode(right)));
+
+                assertEquals("Comparing [" + left + "] to [" + right + "]", expected, actual);
+            }
+        }
+    }
+
+    @Test
+    public void givenVersionsComparableVersionCannotOrder_encode_picksAConsistentOrder() {
+        //ComparableVersion has 1.0.1-SNAPSHOT < 1.0.1 < 1.0.1.RELEASE but also 1.0.1-SNAPSHOT > 1.0.1.RELEASE
+        String snapshot = MavenVersionSortKey.encode("1.0.1-SNAPSHOT");
+        String release = MavenVersionSortKey.encode("1.0.1");
+        String dotRelease = MavenVersionSortKey.encode("1.0.1.RELEASE");
+
+        assertTrue(snapshot.compareTo(release) < 0);
+        assertTrue(release.compareTo(dotRelease) < 0);
+        assertTrue(snapshot.compareTo(dotRelease) < 0);
+    }
+
+    @Test
+    public void encode_givesEquivalentVersionsTheSameKey() {
+        assertEquals(MavenVersionSortKey.encode("1"), MavenVersionSortKey.encode("1.0.0"));
+        assertEquals(MavenVersionSortKey.encode("1.0-final"), MavenVersionSortKey.encode("1.0-GA"));
+        assertEquals(MavenVersionSortKey.encode("1.0-cr1"), MavenVersionSortKey.encode("1.0-RC1"));
+    }
+}
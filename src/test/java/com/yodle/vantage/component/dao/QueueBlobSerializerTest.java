@@ -0,0 +1,100 @@
+/*
+ * Copyright 2016 Yodle, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+
+ *     http://www.apache.org/licenses/LICENSE-2.0
+
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yodle.vantage.component.dao;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import com.yodle.vantage.component.domain.Dependency;
+import com.yodle.vantage.component.domain.Version;
+
+public class QueueBlobSerializerTest {
+    private ObjectMapper objectMapper = new ObjectMapper();
+    private JsonQueueBlobCodec jsonCodec = new JsonQueueBlobCodec();
+    private DeflateQueueBlobCodec deflateCodec = new DeflateQueueBlobCodec();
+    private Version version;
+
+    @Before
+    public void setUp() {
+        ReflectionTestUtils.setField(jsonCodec, "objectMapper", objectMapper);
+        ReflectionTestUtils.setField(deflateCodec, "objectMapper", objectMapper);
+
+        version = new Version("component", "1.0");
+        version.setResolvedDependencies(Sets.newHashSet(
+                new Dependency(new Version("dep1", "1.0"), Sets.newHashSet("compile")),
+                new Dependency(new Version("dep2", "2.0"), Sets.newHashSet("compile", "testCompile"))
+        ));
+    }
+
+    @Test
+    public void givenDeflateCodec_serialize_roundTrips() throws IOException {
+        QueueBlobSerializer serializer = createSerializer("deflate");
+
+        String blob = serializer.serialize(version);
+
+        assertTrue("Blob should be marked with its codec", blob.startsWith("deflate:"));
+        assertRoundTrips(version, serializer.deserialize(blob));
+    }
+
+    @Test
+    public void givenJsonCodec_serialize_writesUnmarkedJson() throws IOException {
+        QueueBlobSerializer serializer = createSerializer("json");
+
+        String blob = serializer.serialize(version);
+
+        assertEquals(objectMapper.writeValueAsString(version), blob);
+        assertRoundTrips(version, serializer.deserialize(blob));
+    }
+
+    @Test
+    public void deserialize_readsBlobsWrittenWithOtherCodec() throws IOException {
+        String blob = createSerializer("json").serialize(version);
+
+        assertRoundTrips(version, createSerializer("deflate").deserialize(blob));
+    }
+
+    @Test(expected = IOException.class)
+    public void givenUnknownMarker_deserialize_throws() throws IOException {
+        createSerializer("deflate").deserialize("smile:abc");
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void givenUnknownCodecConfigured_init_throws() {
+        createSerializer("smile");
+    }
+
+    private QueueBlobSerializer createSerializer(String codecName) {
+        QueueBlobSerializer serializer = new QueueBlobSerializer();
+        ReflectionTestUtils.setField(serializer, "codecs", Lists.newArrayList(jsonCodec, deflateCodec));
+        ReflectionTestUtils.setField(serializer, "codecName", codecName);
+        serializer.init();
+        return serializer;
+    }
+
+    private void assertRoundTrips(Version expected, Version actual) {
+        assertEquals(expected, actual);
+        assertEquals(expected.getResolvedDependencies(), actual.getResolvedDependencies());
+    }
+}
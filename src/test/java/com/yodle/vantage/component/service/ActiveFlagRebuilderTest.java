@@ -0,0 +1,72 @@
+/*
+ * Copyright 2016 Yodle, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+
+ *     http://www.apache.org/licenses/LICENSE-2.0
+
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yodle.vantage.component.service;
+
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyZeroInteractions;
+import static org.mockito.Mockito.when;
+
+import java.util.Collections;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import com.yodle.vantage.component.dao.ComponentDao;
+import com.yodle.vantage.component.dao.VersionDao;
+import com.yodle.vantage.component.domain.VantageComponent;
+
+@RunWith(MockitoJUnitRunner.class)
+public class ActiveFlagRebuilderTest {
+    @InjectMocks private ActiveFlagRebuilder activeFlagRebuilder;
+    @Mock private ComponentDao componentDao;
+    @Mock private VersionDao versionDao;
+    @Mock private RevisionTracker revisionTracker;
+
+    @Test
+    public void rebuild_rebuildsEveryComponent() {
+        when(componentDao.getComponentsWithMostRecentVersion()).thenReturn(Lists.newArrayList(
+                new VantageComponent("component1", null),
+                new VantageComponent("component2", null)
+        ));
+
+        activeFlagRebuilder.rebuild();
+
+        verify(versionDao).rebuildActive("component1");
+        verify(versionDao).rebuildActive("component2");
+    }
+
+    @Test
+    public void givenFixedFlags_rebuild_reportsChangedComponents() {
+        when(versionDao.rebuildActive("component1")).thenReturn(Sets.newHashSet("component1", "library"));
+        when(versionDao.rebuildActive("component2")).thenReturn(Collections.emptySet());
+
+        activeFlagRebuilder.rebuild(Lists.newArrayList("component1", "component2"));
+
+        verify(revisionTracker).componentsChanged(Sets.newHashSet("component1", "library"));
+    }
+
+    @Test
+    public void givenNoFixedFlags_rebuild_reportsNothing() {
+        activeFlagRebuilder.rebuild(Lists.newArrayList("component1"));
+
+        verifyZeroInteractions(revisionTracker);
+    }
+}
@@ -0,0 +1,154 @@
+/*
+ * Copyright 2016 Yodle, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+
+ *     http://www.apache.org/licenses/LICENSE-2.0
+
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yodle.vantage.component.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.google.common.collect.Sets;
+import com.yodle.vantage.component.domain.VantageComponent;
+import com.yodle.vantage.component.domain.Version;
+
+public class ComponentCacheTest {
+    private ComponentCache componentCache;
+
+    @Before
+    public void setUp() {
+        componentCache = new ComponentCache();
+        ReflectionTestUtils.setField(componentCache, "maxSize", 100L);
+        ReflectionTestUtils.setField(componentCache, "ttlMs", 60000L);
+        componentCache.init();
+    }
+
+    @Test
+    public void givenCachedVersion_getVersion_doesNotLoadAgain() {
+        Counting<Optional<Version>> loader = new Counting<>(() -> Optional.of(new Version("component", "1.0")));
+
+        Optional<Version> first = componentCache.getVersion("component", "1.0", loader);
+        Optional<Version> second = componentCache.getVersion("component", "1.0", loader);
+
+        assertSame(first, second);
+        assertEquals(1, loader.loads.get());
+    }
+
+    @Test
+    public void givenMissingComponent_getComponent_cachesThatItsMissing() {
+        Counting<Optional<VantageComponent>> loader = new Counting<>(Optional::empty);
+
+        componentCache.getComponent("component", loader);
+        componentCache.getComponent("component", loader);
+
+        assertEquals(1, loader.loads.get());
+    }
+
+    @Test
+    public void invalidate_onlyInvalidatesGivenComponents() {
+        Counting<Optional<Version>> invalidated = new Counting<>(() -> Optional.of(new Version("component", "1.0")));
+        Counting<Optional<Version>> kept = new Counting<>(() -> Optional.of(new Version("other", "1.0")));
+        Counting<Optional<VantageComponent>> invalidatedComponent = new Counting<>(() -> Optional.of(new VantageComponent("component", null)));
+        componentCache.getVersion("component", "1.0", invalidated);
+        componentCache.getVersion("other", "1.0", kept);
+        componentCache.getComponent("component", invalidatedComponent);
+
+        componentCache.invalidate(Sets.newHashSet("component"));
+        componentCache.getVersion("component", "1.0", invalidated);
+        componentCache.getVersion("other", "1.0", kept);
+        componentCache.getComponent("component", invalidatedComponent);
+
+        assertEquals(2, invalidated.loads.get());
+        assertEquals(1, kept.loads.get());
+        assertEquals(2, invalidatedComponent.loads.get());
+    }
+
+    @Test
+    public void givenInvalidationDuringLoad_getVersions_doesNotCacheWhatItLoaded() {
+        AtomicInteger loads = new AtomicInteger();
+        Supplier<Optional<List<Version>>> loader = () -> {
+            if (loads.incrementAndGet() == 1) {
+                componentCache.invalidate(Sets.newHashSet("component"));
+            }
+            return Optional.empty();
+        };
+
+        componentCache.getVersions("component", loader);
+        componentCache.getVersions("component", loader);
+        componentCache.getVersions("component", loader);
+
+        assertEquals(2, loads.get());
+    }
+
+    @Test
+    public void revisionSeen_invalidatesComponentOnlyWhenItsRevisionChanges() {
+        Counting<Optional<VantageComponent>> loader = new Counting<>(() -> Optional.of(new VantageComponent("component", null)));
+        componentCache.getComponent("component", loader);
+
+        componentCache.revisionSeen("component", 1L);
+        componentCache.getComponent("component", loader);
+        componentCache.revisionSeen("component", 1L);
+        componentCache.getComponent("component", loader);
+        componentCache.revisionSeen("component", 2L);
+        componentCache.getComponent("component", loader);
+
+        //once for the first load, once after the first revision seen and once after it changed
+        assertEquals(3, loader.loads.get());
+    }
+
+    @Test
+    public void metrics_reportHitsAndMisses() {
+        componentCache.getComponent("component", Optional::empty);
+        componentCache.getComponent("component", Optional::empty);
+        componentCache.getComponent("component", Optional::empty);
+
+        Map<String, Number> metrics = metrics(componentCache.metrics());
+
+        assertEquals(2L, metrics.get("cache.component.hits"));
+        assertEquals(1L, metrics.get("cache.component.misses"));
+        assertEquals(1L, metrics.get("cache.component.size"));
+        assertEquals(0L, metrics.get("cache.version.misses"));
+    }
+
+    private static Map<String, Number> metrics(Collection<Metric<?>> metrics) {
+        return metrics.stream().collect(Collectors.toMap(Metric::getName, Metric::getValue));
+    }
+
+    private static class Counting<T> implements Supplier<T> {
+        private final Supplier<T> loader;
+        private final AtomicInteger loads = new AtomicInteger();
+
+        Counting(Supplier<T> loader) {
+            this.loader = loader;
+        }
+
+        @Override
+        public T get() {
+            loads.incrementAndGet();
+            return loader.get();
+        }
+    }
+}
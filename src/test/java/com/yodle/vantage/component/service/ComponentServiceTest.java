@@ -19,10 +19,14 @@ package com.yodle.vantage.component.service;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.anyListOf;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyZeroInteractions;
 import static org.mockito.Mockito.when;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
@@ -31,14 +35,19 @@ import java.util.Set;
 import java.util.stream.Collectors;
 
 import org.apache.commons.lang3.RandomStringUtils;
+import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.mockito.Answers;
+import org.mockito.InOrder;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.Spy;
 import org.mockito.runners.MockitoJUnitRunner;
 
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
@@ -49,9 +58,11 @@ import com.yodle.vantage.component.dao.VersionDao;
 import com.yodle.vantage.component.domain.Dependency;
 import com.yodle.vantage.component.domain.Issue;
 import com.yodle.vantage.component.domain.IssueLevel;
+import com.yodle.vantage.component.domain.Page;
 import com.yodle.vantage.component.domain.VantageComponent;
 import com.yodle.vantage.component.domain.Version;
 import com.yodle.vantage.component.domain.VersionId;
+import com.yodle.vantage.exception.InvalidPageException;
 
 @RunWith(MockitoJUnitRunner.class)
 public class ComponentServiceTest {
@@ -62,9 +73,18 @@ public class ComponentServiceTest {
     @Mock private ComponentDao componentDao;
     @Mock private QueueDao queueDao;
     @Mock private IssueDao issueDao;
+    @Mock private IssueIndex issueIndex;
     @Mock private VersionDao versionDao;
     @Mock private PrecedenceFixer precedenceFixer;
     @Mock(answer = Answers.CALLS_REAL_METHODS) private VersionPurifier versionPurifier;
+    @Spy private ComponentCache componentCache = new ComponentCache();
+    @Mock private RevisionTracker revisionTracker;
+
+    @Before
+    public void setUp() {
+        //a cache that holds nothing, so every read goes through to the mocks
+        componentCache.init();
+    }
 
     /**
      * createOrUpdateVersion
@@ -72,17 +92,17 @@ public class ComponentServiceTest {
 
     @Test
     public void givenVersionHasNoDependencies_createOrUpdateVersion_justCreatesVersion() {
-        when(versionDao.getVersion(COMPONENT, VERSION)).thenReturn(Optional.of(new Version(COMPONENT, VERSION)));
+        when(versionDao.getVersion(COMPONENT, VERSION, ComponentService.DEPENDENTS_IN_VERSION)).thenReturn(Optional.of(new Version(COMPONENT, VERSION)));
 
         componentService.createOrUpdateVersion(new Version(COMPONENT, VERSION));
 
-        verify(componentDao).ensureCreated(COMPONENT);
-        verify(versionDao).createNewVersion(COMPONENT, VERSION);
+        verify(componentDao).ensureAllCreated(Lists.newArrayList(COMPONENT));
+        verify(versionDao).createNewVersions(Lists.newArrayList(new VersionId(COMPONENT, VERSION)));
     }
 
     @Test
     public void givenVersionHasResolvedDependencies_createOrUpdateVersion_createsResolvedDependencyVersions() {
-        when(versionDao.getVersion(COMPONENT, VERSION)).thenReturn(Optional.of(new Version(COMPONENT, VERSION)));
+        when(versionDao.getVersion(COMPONENT, VERSION, ComponentService.DEPENDENTS_IN_VERSION)).thenReturn(Optional.of(new Version(COMPONENT, VERSION)));
 
         Version version = new Version(COMPONENT, VERSION);
         Dependency dependency = createDependency();
@@ -90,13 +110,62 @@ public class ComponentServiceTest {
 
         componentService.createOrUpdateVersion(version);
 
-        verify(componentDao).ensureCreated(dependency.getVersion().getComponent());
-        verify(versionDao).createResolvedDependency(version, dependency.getVersion(), dependency.getProfiles());
+        verify(componentDao).ensureAllCreated(sorted(COMPONENT, dependency.getVersion().getComponent()));
+        verify(versionDao).createResolvedDependencies(version, Sets.newHashSet(dependency));
+    }
+
+    @Test
+    public void givenVersionHasResolvedDependencies_createOrUpdateVersion_updatesExposureAfterSavingDependencies() {
+        when(versionDao.getVersion(COMPONENT, VERSION, ComponentService.DEPENDENTS_IN_VERSION)).thenReturn(Optional.of(new Version(COMPONENT, VERSION)));
+
+        Version version = new Version(COMPONENT, VERSION);
+        Dependency dependency = createDependency();
+        version.setResolvedDependencies(Sets.newHashSet(dependency));
+
+        componentService.createOrUpdateVersion(version);
+
+        InOrder inOrder = Mockito.inOrder(versionDao, issueDao);
+        inOrder.verify(versionDao).createResolvedDependencies(version, Sets.newHashSet(dependency));
+        inOrder.verify(issueDao).updateVersionExposure(version);
+    }
+
+    @Test
+    public void givenVersionHasResolvedDependencies_createOrUpdateVersion_readsIssuesAroundIndex() {
+        Version version = new Version(COMPONENT, VERSION);
+        Dependency dependency = createDependency();
+        version.setResolvedDependencies(Sets.newHashSet(dependency));
+        Version saved = new Version(COMPONENT, VERSION);
+        saved.setResolvedDependencies(Sets.newHashSet(new Dependency(new Version(dependency.getVersion().getComponent(), dependency.getVersion().getVersion()), dependency.getProfiles())));
+        when(versionDao.getVersion(COMPONENT, VERSION, ComponentService.DEPENDENTS_IN_VERSION)).thenReturn(Optional.of(saved));
+        List<Issue> issues = Lists.newArrayList(createIssue(dependency.getVersion()));
+        when(issueDao.getIssuesDirectlyAffectingVersion(dependency.getVersion().getComponent(), dependency.getVersion().getVersion()))
+                .thenReturn(issues);
+
+        Version created = componentService.createOrUpdateVersion(version);
+
+        assertEquals(new HashSet<>(issues), Iterables.getOnlyElement(created.getResolvedDependencies()).getVersion().getDirectIssues());
+        assertEquals(new HashSet<>(issues), created.getTransitiveIssues());
+        verifyZeroInteractions(issueIndex);
+    }
+
+    @Test
+    public void givenVersionHasResolvedDependencies_createOrUpdateVersion_activatesDependenciesAfterSavingThem() {
+        when(versionDao.getVersion(COMPONENT, VERSION, ComponentService.DEPENDENTS_IN_VERSION)).thenReturn(Optional.of(new Version(COMPONENT, VERSION)));
+
+        Version version = new Version(COMPONENT, VERSION);
+        Dependency dependency = createDependency();
+        version.setResolvedDependencies(Sets.newHashSet(dependency));
+
+        componentService.createOrUpdateVersion(version);
+
+        InOrder inOrder = Mockito.inOrder(versionDao);
+        inOrder.verify(versionDao).createResolvedDependencies(version, Sets.newHashSet(dependency));
+        inOrder.verify(versionDao).activateDependencies(version);
     }
 
     @Test
     public void givenVersionHasRequestedDependencies_createOrUpdateVersion_createsRequestedDependencyVersions() {
-        when(versionDao.getVersion(COMPONENT, VERSION)).thenReturn(Optional.of(new Version(COMPONENT, VERSION)));
+        when(versionDao.getVersion(COMPONENT, VERSION, ComponentService.DEPENDENTS_IN_VERSION)).thenReturn(Optional.of(new Version(COMPONENT, VERSION)));
 
         Version version = new Version(COMPONENT, VERSION);
         Dependency dependency = createDependency();
@@ -104,14 +173,16 @@ public class ComponentServiceTest {
 
         componentService.createOrUpdateVersion(version);
 
-        verify(componentDao).ensureCreated(dependency.getVersion().getComponent());
-        verify(versionDao).createRequestedDependency(version, dependency.getVersion(), versionPurifier.purifyVersion(dependency.getVersion()).getVersion(), dependency.getProfiles());
+        verify(componentDao).ensureAllCreated(sorted(COMPONENT, dependency.getVersion().getComponent()));
+        verify(versionDao).createRequestedDependencies(Lists.newArrayList(
+                new VersionDao.RequestedDependency(version.toId(), dependency.getVersion().toId(), versionPurifier.purifyVersion(dependency.getVersion()).getVersion(), dependency.getProfiles())
+        ));
     }
 
 
     @Test
     public void givenVersionHasResolvedDependenciesWithRequestedDependencies_createOrUpdateVersion_createsResolvedDependencysRequestedDependencies() {
-        when(versionDao.getVersion(COMPONENT, VERSION)).thenReturn(Optional.of(new Version(COMPONENT, VERSION)));
+        when(versionDao.getVersion(COMPONENT, VERSION, ComponentService.DEPENDENTS_IN_VERSION)).thenReturn(Optional.of(new Version(COMPONENT, VERSION)));
 
         Version version = new Version(COMPONENT, VERSION);
         Dependency dependency = createDependency();
@@ -121,18 +192,20 @@ public class ComponentServiceTest {
 
         componentService.createOrUpdateVersion(version);
 
-        verify(componentDao).ensureCreated(requestedDependency.getVersion().getComponent());
-        verify(versionDao).createRequestedDependency(
-                dependency.getVersion(),
-                requestedDependency.getVersion(),
-                versionPurifier.purifyVersion(requestedDependency.getVersion()).getVersion(),
-                requestedDependency.getProfiles()
-        );
+        verify(componentDao).ensureAllCreated(sorted(COMPONENT, dependency.getVersion().getComponent(), requestedDependency.getVersion().getComponent()));
+        verify(versionDao).createRequestedDependencies(Lists.newArrayList(
+                new VersionDao.RequestedDependency(
+                        dependency.getVersion().toId(),
+                        requestedDependency.getVersion().toId(),
+                        versionPurifier.purifyVersion(requestedDependency.getVersion()).getVersion(),
+                        requestedDependency.getProfiles()
+                )
+        ));
     }
 
     @Test
     public void givenVersionsActuallyCreated_createOrUpdateVersion_fixesPrecedenceForThoseVersions() {
-        when(versionDao.getVersion(COMPONENT, VERSION)).thenReturn(Optional.of(new Version(COMPONENT, VERSION)));
+        when(versionDao.getVersion(COMPONENT, VERSION, ComponentService.DEPENDENTS_IN_VERSION)).thenReturn(Optional.of(new Version(COMPONENT, VERSION)));
 
         Version version = new Version(COMPONENT, VERSION);
         Dependency createdResolvedDependency = createDependency("DependencyA");
@@ -145,14 +218,12 @@ public class ComponentServiceTest {
         version.setResolvedDependencies(Sets.newHashSet(createdResolvedDependency, existingResolvedDependency));
         version.setRequestedDependencies(Sets.newHashSet(createdRequestedDependency, existingRequestedDependency));
 
-        when(versionDao.createNewVersion(COMPONENT, VERSION)).thenReturn(true);
-        when(versionDao.createNewVersion(
-                createdRequestedDependency.getVersion().getComponent(),
-                createdRequestedDependency.getVersion().getVersion()
-
-        )).thenReturn(true);
-        when(versionDao.createNewVersion(createdDependencyRequestedDependency.getVersion().getComponent(), createdDependencyRequestedDependency.getVersion().getVersion())).thenReturn(true);
-        when(versionDao.createNewVersion(createdResolvedDependency.getVersion().getComponent(), createdResolvedDependency.getVersion().getVersion())).thenReturn(true);
+        when(versionDao.createNewVersions(anyListOf(VersionId.class))).thenReturn(Sets.newHashSet(
+                version.toId(),
+                createdRequestedDependency.getVersion().toId(),
+                createdDependencyRequestedDependency.getVersion().toId(),
+                createdResolvedDependency.getVersion().toId()
+        ));
 
         componentService.createOrUpdateVersion(version);
 
@@ -164,6 +235,28 @@ public class ComponentServiceTest {
         ));
     }
 
+    /**
+     * ensureVersionsExist
+     */
+    @Test
+    public void ensureVersionsExist_createsVersionsInOrderAndFixesPrecedenceForCreatedOnes() {
+        when(versionDao.createNewVersions(anyListOf(VersionId.class))).thenReturn(Sets.newHashSet(
+                new VersionId("b", "1.10"),
+                new VersionId("a", "2")
+        ));
+
+        componentService.ensureVersionsExist(Lists.newArrayList(
+                new VersionId("b", "1.10"),
+                new VersionId("a", "2"),
+                new VersionId("b", "1.9"),
+                new Version("b", "1.10")
+        ));
+
+        verify(componentDao).ensureAllCreated(Lists.newArrayList("a", "b"));
+        verify(versionDao).createNewVersions(Lists.newArrayList(new VersionId("a", "2"), new VersionId("b", "1.9"), new VersionId("b", "1.10")));
+        verify(precedenceFixer).fixPrecedence(Lists.newArrayList(new VersionId("a", "2"), new VersionId("b", "1.10")));
+    }
+
     /**
      * getVersions
      */
@@ -179,7 +272,8 @@ public class ComponentServiceTest {
     @Test
     public void givenComponentExistsButHasNoVersions_getVersions_returnsOptionalWithEmptyList() {
         when(componentDao.getComponent(COMPONENT)).thenReturn(Optional.of(new VantageComponent(COMPONENT, "")));
-        when(versionDao.getVersions(COMPONENT)).thenReturn(new ArrayList<>());
+        when(versionDao.getNewestNonNumericVersion(COMPONENT)).thenReturn(Optional.empty());
+        when(versionDao.getVersionsInSortOrder(COMPONENT)).thenReturn(new ArrayList<>());
 
         Optional<List<Version>> versions = componentService.getVersions(COMPONENT);
 
@@ -190,6 +284,7 @@ public class ComponentServiceTest {
     @Test
     public void givenComponentExistsAndHasVersions_getVersions_marksActiveVersionsAsActive() {
         when(componentDao.getComponent(COMPONENT)).thenReturn(Optional.of(new VantageComponent(COMPONENT, "")));
+        when(versionDao.getNewestNonNumericVersion(COMPONENT)).thenReturn(Optional.of(VERSION + "2"));
         when(versionDao.getVersions(COMPONENT)).thenReturn(Lists.newArrayList(VERSION + "1", VERSION + "2"));
         when(versionDao.getActiveVersions(COMPONENT)).thenReturn(Lists.newArrayList(VERSION + 1));
 
@@ -206,9 +301,10 @@ public class ComponentServiceTest {
     @Test
     public void givenComponentExistsAndHasVersions_getVersions_attachesIssuesToVersions() {
         when(componentDao.getComponent(COMPONENT)).thenReturn(Optional.of(new VantageComponent(COMPONENT, "")));
+        when(versionDao.getNewestNonNumericVersion(COMPONENT)).thenReturn(Optional.of(VERSION));
         when(versionDao.getVersions(COMPONENT)).thenReturn(Lists.newArrayList(VERSION ));
         Set<Issue> directIssues = Sets.newHashSet(createIssue(COMPONENT, VERSION));
-        when(issueDao.getIssuesDirectlyAffectingVersions(COMPONENT)).thenReturn(
+        when(issueIndex.getIssuesDirectlyAffectingVersions(COMPONENT)).thenReturn(
                 ImmutableMap.of(
                         VERSION, directIssues
                 )
@@ -230,10 +326,11 @@ public class ComponentServiceTest {
     }
 
     @Test
-    public void givenComponentExistsAndHasVersionsWithMavenVersionScheme_getVersions_sortsIssuesByMavenScheme() {
+    public void givenComponentExistsAndHasVersionsWithMavenVersionScheme_getVersions_returnsVersionsInSortKeyOrder() {
         when(componentDao.getComponent(COMPONENT)).thenReturn(Optional.of(new VantageComponent(COMPONENT, "")));
-        when(versionDao.getVersions(COMPONENT)).thenReturn(Lists.newArrayList("1.0.0", "2.0.0", "1.0.1", "1.5.1"));
+        when(versionDao.getNewestNonNumericVersion(COMPONENT)).thenReturn(Optional.of("1.5.1"));
         List<String> expectedVersionOrdering = Lists.newArrayList("2.0.0", "1.5.1", "1.0.1", "1.0.0");
+        when(versionDao.getVersionsInSortOrder(COMPONENT)).thenReturn(expectedVersionOrdering);
 
         Optional<List<Version>> versions = componentService.getVersions(COMPONENT);
 
@@ -245,6 +342,7 @@ public class ComponentServiceTest {
     public void givenComponentExistsAndHasVersionsWithMavenVersionScheme_getVersions_doesNotSortVersions() {
         when(componentDao.getComponent(COMPONENT)).thenReturn(Optional.of(new VantageComponent(COMPONENT, "")));
         List<String> expectedVersionOrdering = Lists.newArrayList("abe46", "de351");
+        when(versionDao.getNewestNonNumericVersion(COMPONENT)).thenReturn(Optional.of("abe46"));
         when(versionDao.getVersions(COMPONENT)).thenReturn(expectedVersionOrdering);
 
         Optional<List<Version>> versions = componentService.getVersions(COMPONENT);
@@ -258,19 +356,19 @@ public class ComponentServiceTest {
      */
     @Test
     public void givenVersionDoesNotExist_getVersion_returnsEmpty() {
-        when(versionDao.getVersion(COMPONENT, VERSION)).thenReturn(Optional.empty());
+        when(versionDao.getVersion(COMPONENT, VERSION, ComponentService.DEPENDENTS_IN_VERSION)).thenReturn(Optional.empty());
         Optional<Version> version = componentService.getVersion(COMPONENT, VERSION);
         assertFalse("Version should be empty because it doesn't exist", version.isPresent());
     }
 
     @Test
     public void givenVersionExist_getVersion_returnsDirectIssues() {
-        when(versionDao.getVersion(COMPONENT, VERSION)).thenReturn(Optional.of(new Version(COMPONENT, VERSION)));
+        when(versionDao.getVersion(COMPONENT, VERSION, ComponentService.DEPENDENTS_IN_VERSION)).thenReturn(Optional.of(new Version(COMPONENT, VERSION)));
         List<Issue> issues = Lists.newArrayList(
                 createIssue(COMPONENT, VERSION),
                 createIssue(COMPONENT, VERSION)
         );
-        when(issueDao.getIssuesDirectlyAffectingVersion(COMPONENT, VERSION)).thenReturn(issues);
+        when(issueIndex.getIssuesDirectlyAffectingVersion(COMPONENT, VERSION)).thenReturn(issues);
 
         Optional<Version> version = componentService.getVersion(COMPONENT, VERSION);
 
@@ -287,16 +385,15 @@ public class ComponentServiceTest {
                 dep1,
                 dep2
         ));
-        when(versionDao.getVersion(COMPONENT, VERSION)).thenReturn(Optional.of(daoVersion));
+        when(versionDao.getVersion(COMPONENT, VERSION, ComponentService.DEPENDENTS_IN_VERSION)).thenReturn(Optional.of(daoVersion));
 
         Set<Issue> dep1Issues = Sets.newHashSet(createIssue(dep1.getVersion()));
         Set<Issue> dep2Issues = Sets.newHashSet(createIssue(dep2.getVersion()), createIssue(dep2.getVersion())
         );
-        when(issueDao.getIssuesByDependenciesOf(COMPONENT, VERSION)).thenReturn(
-                ImmutableMap.of(
-                        dep1.getVersion(), dep1Issues,
-                        dep2.getVersion(), dep2Issues
-        ));
+        when(issueIndex.getIssuesDirectlyAffectingVersion(dep1.getVersion().getComponent(), dep1.getVersion().getVersion()))
+                .thenReturn(new ArrayList<>(dep1Issues));
+        when(issueIndex.getIssuesDirectlyAffectingVersion(dep2.getVersion().getComponent(), dep2.getVersion().getVersion()))
+                .thenReturn(new ArrayList<>(dep2Issues));
 
         Optional<Version> version = componentService.getVersion(COMPONENT, VERSION);
 
@@ -310,10 +407,97 @@ public class ComponentServiceTest {
         assertEquals(transitiveIssues, version.get().getTransitiveIssues());
     }
 
+    /**
+     * getComponents
+     */
+
+    @Test
+    public void givenMoreComponentsThanLimit_getComponents_returnsCursorPastLastComponent() {
+        when(componentDao.getComponents("q", true, "d", 3)).thenReturn(Lists.newArrayList(
+                new VantageComponent("c", null), new VantageComponent("b", null), new VantageComponent("a", null)
+        ));
+        when(componentDao.countComponents("q")).thenReturn(7L);
+
+        Page<VantageComponent> page = componentService.getComponents("q", "-name", Keyset.encode("d"), 2);
+
+        assertEquals(Lists.newArrayList(new VantageComponent("c", null), new VantageComponent("b", null)), page.getItems());
+        assertEquals(7L, page.getTotal());
+        assertEquals(Keyset.encode("b"), page.getNextCursor());
+    }
+
+    /**
+     * getDependents
+     */
+
+    @Test
+    public void givenMoreDependentsThanLimit_getDependents_returnsCursorPastLastDependent() {
+        when(versionDao.getNodeId(new VersionId(COMPONENT, VERSION))).thenReturn(Optional.of(1L));
+        when(versionDao.getDirectDependents(Collections.singleton(1L), "compile")).thenReturn(Lists.newArrayList(
+                dependent(2L, "c", "1", Sets.newHashSet("compile"), false),
+                dependent(3L, "a", "1", Sets.newHashSet("compile"), false),
+                dependent(4L, "0", "1", Sets.newHashSet("compile"), false)
+        ));
+        when(versionDao.getDirectDependents(Lists.newArrayList(2L, 3L, 4L), "compile")).thenReturn(Lists.newArrayList(
+                dependent(5L, "b", "1", Sets.newHashSet("compile"), false),
+                dependent(3L, "a", "1", Sets.newHashSet("compile"), false)
+        ));
+
+        Optional<Page<Dependency>> page = componentService.getDependents(COMPONENT, VERSION, 2, false, "compile", "component", Keyset.encode("0\u00009"), 2);
+
+        assertEquals(Lists.newArrayList(
+                new Dependency(new Version("a", "1"), Sets.newHashSet("compile")),
+                new Dependency(new Version("b", "1"), Sets.<String>newHashSet())
+        ), page.get().getItems());
+        assertEquals(4L, page.get().getTotal());
+        assertEquals(Keyset.encode("b\u00001"), page.get().getNextCursor());
+    }
+
+    @Test
+    public void givenActiveOnly_getDependents_walksThroughInactiveDependents() {
+        when(versionDao.getNodeId(new VersionId(COMPONENT, VERSION))).thenReturn(Optional.of(1L));
+        when(versionDao.getDirectDependents(Collections.singleton(1L), null))
+                .thenReturn(Lists.newArrayList(dependent(2L, "a", "1", Sets.newHashSet("compile"), false)));
+        when(versionDao.getDirectDependents(Lists.newArrayList(2L), null))
+                .thenReturn(Lists.newArrayList(dependent(3L, "b", "1", Sets.newHashSet("compile"), true)));
+
+        Optional<Page<Dependency>> page = componentService.getDependents(COMPONENT, VERSION, 2, true, null, "-component", null, 10);
+
+        assertEquals(Lists.newArrayList(new Dependency(new Version("b", "1"), Sets.<String>newHashSet())), page.get().getItems());
+        assertEquals(1L, page.get().getTotal());
+        verify(versionDao, never()).getDirectDependents(Lists.newArrayList(3L), null);
+    }
+
+    @Test
+    public void givenNoVersion_getDependents_returnsEmpty() {
+        when(versionDao.getNodeId(new VersionId(COMPONENT, VERSION))).thenReturn(Optional.empty());
+
+        assertFalse(componentService.getDependents(COMPONENT, VERSION, 1, true, null, "component", null, 10).isPresent());
+    }
+
+    @Test(expected = InvalidPageException.class)
+    public void givenDepthPastMax_getDependents_throws() {
+        componentService.getDependents(COMPONENT, VERSION, ComponentService.MAX_DEPENDENT_DEPTH + 1, true, null, "component", null, 10);
+    }
+
+    @Test(expected = InvalidPageException.class)
+    public void givenCursorWithoutVersion_getDependents_throws() {
+        componentService.getDependents(COMPONENT, VERSION, 1, true, null, "component", Keyset.encode("a"), 10);
+    }
+
+    private static VersionDao.Dependent dependent(long nodeId, String component, String version, Set<String> profiles, boolean active) {
+        return new VersionDao.Dependent(nodeId, new Dependency(new Version(component, version), profiles), active);
+    }
+
     private Dependency createDependency() {
         return createDependency("Dependency");
     }
 
+    private List<String> sorted(String... components) {
+        List<String> sorted = Lists.newArrayList(components);
+        Collections.sort(sorted);
+        return sorted;
+    }
+
     private Dependency createDependency(String componentPrefix) {
         Version version = new Version(
                 componentPrefix + "-" + RandomStringUtils.randomAlphanumeric(10),
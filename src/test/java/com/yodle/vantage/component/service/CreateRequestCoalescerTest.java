@@ -0,0 +1,98 @@
+/*
+ * Copyright 2016 Yodle, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+
+ *     http://www.apache.org/licenses/LICENSE-2.0
+
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yodle.vantage.component.service;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.yodle.vantage.component.domain.Dependency;
+import com.yodle.vantage.component.domain.Version;
+import com.yodle.vantage.component.domain.VersionId;
+
+public class CreateRequestCoalescerTest {
+    private static final String COMPONENT = "component";
+    private static final String VERSION = "version";
+
+    @Test
+    public void givenDifferentDependencies_coalesce_keepsAllOfThem() {
+        Version first = new Version(COMPONENT, VERSION);
+        first.setResolvedDependencies(Sets.newHashSet(createDependency("dep1", "1.0", "compile")));
+        first.setRequestedDependencies(Sets.newHashSet(createDependency("dep1", "1.0", "compile")));
+        Version second = new Version(COMPONENT, VERSION);
+        second.setResolvedDependencies(Sets.newHashSet(createDependency("dep2", "2.0", "compile")));
+        second.setRequestedDependencies(Sets.newHashSet(createDependency("dep2", "2.+", "compile")));
+
+        Version merged = CreateRequestCoalescer.coalesce(Lists.newArrayList(first, second));
+
+        assertEquals(COMPONENT, merged.getComponent());
+        assertEquals(VERSION, merged.getVersion());
+        assertEquals(
+                Sets.newHashSet(createDependency("dep1", "1.0", "compile"), createDependency("dep2", "2.0", "compile")),
+                merged.getResolvedDependencies()
+        );
+        assertEquals(
+                Sets.newHashSet(createDependency("dep1", "1.0", "compile"), createDependency("dep2", "2.+", "compile")),
+                merged.getRequestedDependencies()
+        );
+    }
+
+    @Test
+    public void givenSameDependencyWithDifferentProfiles_coalesce_keepsLaterProfiles() {
+        Version first = new Version(COMPONENT, VERSION);
+        first.setResolvedDependencies(Sets.newHashSet(createDependency("dep", "1.0", "compile")));
+        first.setRequestedDependencies(Sets.newHashSet(createDependency("dep", "1.0", "compile")));
+        Version second = new Version(COMPONENT, VERSION);
+        second.setResolvedDependencies(Sets.newHashSet(createDependency("dep", "1.0", "testCompile")));
+        second.setRequestedDependencies(Sets.newHashSet(createDependency("dep", "1.0", "testCompile")));
+
+        Version merged = CreateRequestCoalescer.coalesce(Lists.newArrayList(first, second));
+
+        assertEquals(Sets.newHashSet(createDependency("dep", "1.0", "testCompile")), merged.getResolvedDependencies());
+        assertEquals(Sets.newHashSet(createDependency("dep", "1.0", "testCompile")), merged.getRequestedDependencies());
+    }
+
+    @Test
+    public void givenSameResolvedDependencyWithDifferentRequestedDependencies_coalesce_keepsAllRequestedDependencies() {
+        Dependency firstDep = createDependency("dep", "1.0", "compile");
+        firstDep.getVersion().setRequestedDependencies(Sets.newHashSet(createDependency("transitive1", "1.0", "compile")));
+        Version first = new Version(COMPONENT, VERSION);
+        first.setResolvedDependencies(Sets.newHashSet(firstDep));
+
+        Dependency secondDep = createDependency("dep", "1.0", "compile");
+        secondDep.getVersion().setRequestedDependencies(Sets.newHashSet(createDependency("transitive2", "1.0", "compile")));
+        Version second = new Version(COMPONENT, VERSION);
+        second.setResolvedDependencies(Sets.newHashSet(secondDep));
+
+        Version merged = CreateRequestCoalescer.coalesce(Lists.newArrayList(first, second));
+
+        Map<VersionId, Dependency> resolvedById = Maps.uniqueIndex(merged.getResolvedDependencies(), d -> d.getVersion().toId());
+        assertEquals(1, resolvedById.size());
+        assertEquals(
+                Sets.newHashSet(createDependency("transitive1", "1.0", "compile"), createDependency("transitive2", "1.0", "compile")),
+                resolvedById.get(new VersionId("dep", "1.0")).getVersion().getRequestedDependencies()
+        );
+    }
+
+    private Dependency createDependency(String component, String version, String profile) {
+        return new Dependency(new Version(component, version), Sets.newHashSet(profile));
+    }
+}
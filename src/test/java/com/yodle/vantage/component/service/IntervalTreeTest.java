@@ -0,0 +1,94 @@
+/*
+ * Copyright 2016 Yodle, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+
+ *     http://www.apache.org/licenses/LICENSE-2.0
+
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yodle.vantage.component.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Collectors;
+
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+import com.yodle.vantage.component.service.IntervalTree.Interval;
+
+public class IntervalTreeTest {
+
+    @Test
+    public void givenNoIntervals_build_returnsNull() {
+        assertNull(IntervalTree.build(new ArrayList<Interval<String>>()));
+    }
+
+    @Test
+    public void givenOnlyEmptyIntervals_build_returnsNull() {
+        assertNull(IntervalTree.build(intervals(new Interval<>(5, 5, "a"))));
+    }
+
+    @Test
+    public void stab_treatsIntervalsAsHalfOpen() {
+        IntervalTree<String> tree = IntervalTree.build(intervals(new Interval<>(10, 20, "a")));
+
+        assertEquals(Collections.emptyList(), tree.stab(9));
+        assertEquals(Lists.newArrayList("a"), tree.stab(10));
+        assertEquals(Lists.newArrayList("a"), tree.stab(19));
+        assertEquals(Collections.emptyList(), tree.stab(20));
+    }
+
+    @Test
+    public void stab_findsEveryIntervalContainingPoint() {
+        IntervalTree<String> tree = IntervalTree.build(intervals(
+                new Interval<>(0, 10, "a"),
+                new Interval<>(5, Long.MAX_VALUE, "b"),
+                new Interval<>(12, 15, "c"),
+                new Interval<>(8, 13, "d")
+        ));
+
+        assertEquals(Lists.newArrayList("a", "b", "d"), sorted(tree.stab(8)));
+        assertEquals(Lists.newArrayList("b", "c", "d"), sorted(tree.stab(12)));
+        assertEquals(Lists.newArrayList("b"), sorted(tree.stab(1000)));
+    }
+
+    @Test
+    public void stab_matchesLinearScan() {
+        Random random = new Random(42);
+        List<Interval<Integer>> intervals = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            long start = random.nextInt(1000);
+            intervals.add(new Interval<>(start, start + random.nextInt(200), i));
+        }
+        IntervalTree<Integer> tree = IntervalTree.build(intervals);
+
+        for (long point = -1; point <= 1200; point++) {
+            long p = point;
+            List<Integer> expected = intervals.stream().filter(i -> i.start <= p && p < i.end).map(i -> i.value).sorted().collect(Collectors.toList());
+            assertEquals(expected, sorted(tree.stab(point)));
+        }
+    }
+
+    @SafeVarargs
+    private static List<Interval<String>> intervals(Interval<String>... intervals) {
+        return Arrays.asList(intervals);
+    }
+
+    private static <T extends Comparable<T>> List<T> sorted(List<T> values) {
+        return values.stream().sorted().collect(Collectors.toList());
+    }
+}
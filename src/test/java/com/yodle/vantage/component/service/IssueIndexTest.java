@@ -0,0 +1,186 @@
+/*
+ * Copyright 2016 Yodle, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+
+ *     http://www.apache.org/licenses/LICENSE-2.0
+
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yodle.vantage.component.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyZeroInteractions;
+import static org.mockito.Mockito.when;
+
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import com.yodle.vantage.component.dao.IssueDao;
+import com.yodle.vantage.component.dao.VersionDao;
+import com.yodle.vantage.component.domain.Issue;
+import com.yodle.vantage.component.domain.Version;
+
+@RunWith(MockitoJUnitRunner.class)
+public class IssueIndexTest {
+    private static final String COMPONENT = "component";
+    @InjectMocks private IssueIndex issueIndex;
+    @Mock private IssueDao issueDao;
+    @Mock private VersionDao versionDao;
+
+    private Issue openIssue;
+    private Issue fixedIssue;
+
+    @Before
+    public void setUp() {
+        openIssue = issue("open", "2.0", null);
+        fixedIssue = issue("fixed", "1.0", "3.0");
+
+        Map<String, Long> ranks = new LinkedHashMap<>();
+        ranks.put("4.0", 400L);
+        ranks.put("3.0", 300L);
+        ranks.put("2.0", 200L);
+        ranks.put("1.0", 100L);
+        when(issueDao.getIssues()).thenReturn(Sets.newHashSet(openIssue, fixedIssue));
+        when(versionDao.getVersionRanks(COMPONENT)).thenReturn(ranks);
+    }
+
+    @Test
+    public void getIssuesDirectlyAffectingVersion_includesAffectsVersionAndExcludesFixVersion() {
+        assertEquals(Lists.newArrayList(fixedIssue), issueIndex.getIssuesDirectlyAffectingVersion(COMPONENT, "1.0"));
+        assertEquals(Sets.newHashSet(openIssue, fixedIssue), Sets.newHashSet(issueIndex.getIssuesDirectlyAffectingVersion(COMPONENT, "2.0")));
+        assertEquals(Lists.newArrayList(openIssue), issueIndex.getIssuesDirectlyAffectingVersion(COMPONENT, "3.0"));
+    }
+
+    @Test
+    public void givenUnknownComponentOrVersion_getIssuesDirectlyAffectingVersion_returnsNothing() {
+        assertTrue(issueIndex.getIssuesDirectlyAffectingVersion("other", "1.0").isEmpty());
+        assertTrue(issueIndex.getIssuesDirectlyAffectingVersion(COMPONENT, "5.0").isEmpty());
+    }
+
+    @Test
+    public void getIssuesDirectlyAffectingVersions_onlyIncludesAffectedVersions() {
+        Map<String, Collection<Issue>> issues = issueIndex.getIssuesDirectlyAffectingVersions(COMPONENT);
+
+        assertEquals(Sets.newHashSet("1.0", "2.0", "3.0", "4.0"), issues.keySet());
+        assertEquals(Lists.newArrayList(fixedIssue), issues.get("1.0"));
+    }
+
+    @Test
+    public void givenIssueFixed_issueUpdated_endsItsInterval() {
+        issueIndex.getIssuesDirectlyAffectingVersions(COMPONENT);
+
+        Issue nowFixed = issue("open", "2.0", "4.0");
+        issueIndex.issueUpdated(nowFixed);
+
+        assertEquals(Lists.newArrayList(nowFixed), issueIndex.getIssuesDirectlyAffectingVersion(COMPONENT, "3.0"));
+        assertTrue(issueIndex.getIssuesDirectlyAffectingVersion(COMPONENT, "4.0").isEmpty());
+    }
+
+    @Test
+    public void givenIssuesForNewComponent_issuesUpdated_loadsItsRanksOnce() {
+        issueIndex.getIssuesDirectlyAffectingVersions(COMPONENT);
+        when(versionDao.getVersionRanks("other")).thenReturn(ImmutableMap.of("1.0", 100L, "2.0", 200L));
+        Issue first = issue("first", new Version("other", "1.0"));
+        Issue second = issue("second", new Version("other", "2.0"));
+
+        issueIndex.issuesUpdated(Lists.newArrayList(first, second));
+
+        assertEquals(Sets.newHashSet(first, second), Sets.newHashSet(issueIndex.getIssuesDirectlyAffectingVersion("other", "2.0")));
+        verify(versionDao, times(1)).getVersionRanks("other");
+    }
+
+    @Test
+    public void givenIndexNotLoaded_issueUpdated_leavesLoadingForFirstUse() {
+        issueIndex.issueUpdated(issue("open", "2.0", "4.0"));
+
+        verifyZeroInteractions(issueDao, versionDao);
+    }
+
+    @Test
+    public void givenNewVersionRanked_ranksChanged_includesItInOpenIssues() {
+        issueIndex.getIssuesDirectlyAffectingVersions(COMPONENT);
+
+        issueIndex.ranksChanged(COMPONENT, ImmutableMap.of("2.5", 250L));
+
+        List<Issue> issues = issueIndex.getIssuesDirectlyAffectingVersion(COMPONENT, "2.5");
+        assertEquals(Sets.newHashSet(openIssue, fixedIssue), Sets.newHashSet(issues));
+    }
+
+    @Test
+    public void givenVersionRankedElsewhere_getIssuesDirectlyAffectingVersion_loadsItsRank() {
+        issueIndex.getIssuesDirectlyAffectingVersions(COMPONENT);
+        when(versionDao.getVersionRanks(COMPONENT)).thenReturn(ImmutableMap.of("2.5", 250L));
+
+        List<Issue> issues = issueIndex.getIssuesDirectlyAffectingVersion(COMPONENT, "2.5");
+
+        assertEquals(Sets.newHashSet(openIssue, fixedIssue), Sets.newHashSet(issues));
+    }
+
+    @Test
+    public void givenUnrankedVersion_getIssuesDirectlyAffectingVersion_onlyLoadsRanksOnce() {
+        issueIndex.getIssuesDirectlyAffectingVersion(COMPONENT, "5.0");
+        issueIndex.getIssuesDirectlyAffectingVersion(COMPONENT, "5.0");
+
+        //once for the initial load and once for the miss
+        verify(versionDao, times(2)).getVersionRanks(COMPONENT);
+    }
+
+    @Test
+    public void givenRanksChangedElsewhere_componentChanged_reloadsRanks() {
+        issueIndex.getIssuesDirectlyAffectingVersions(COMPONENT);
+        when(versionDao.getVersionRanks(COMPONENT)).thenReturn(ImmutableMap.of("1.0", 250L));
+
+        issueIndex.componentChanged(COMPONENT);
+
+        assertEquals(Lists.newArrayList(openIssue), issueIndex.getIssuesDirectlyAffectingVersion(COMPONENT, "2.0"));
+    }
+
+    @Test
+    public void givenIssuesChangedElsewhere_componentChanged_reloadsIssues() {
+        issueIndex.getIssuesDirectlyAffectingVersions(COMPONENT);
+        Issue added = issue("added", "4.0", null);
+        when(issueDao.getRevision()).thenReturn(1L);
+        when(issueDao.getIssues()).thenReturn(Sets.newHashSet(openIssue, fixedIssue, added));
+
+        issueIndex.componentChanged("other");
+
+        assertEquals(Sets.newHashSet(openIssue, added), Sets.newHashSet(issueIndex.getIssuesDirectlyAffectingVersion(COMPONENT, "4.0")));
+    }
+
+    private static Issue issue(String id, String affects, String fix) {
+        Issue issue = issue(id, new Version(COMPONENT, affects));
+        if (fix != null) {
+            issue.setFixVersion(new Version(COMPONENT, fix));
+        }
+        return issue;
+    }
+
+    private static Issue issue(String id, Version affects) {
+        Issue issue = new Issue();
+        issue.setId(id);
+        issue.setAffectsVersion(affects);
+        return issue;
+    }
+}
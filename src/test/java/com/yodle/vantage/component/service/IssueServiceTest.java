@@ -15,7 +15,21 @@
  */
 package com.yodle.vantage.component.service;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyBoolean;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyZeroInteractions;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
 
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -25,15 +39,23 @@ import org.mockito.Mock;
 import org.mockito.Mockito;
 import org.mockito.runners.MockitoJUnitRunner;
 
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
 import com.yodle.vantage.component.dao.IssueDao;
+import com.yodle.vantage.component.domain.ImpactedVersion;
 import com.yodle.vantage.component.domain.Issue;
+import com.yodle.vantage.component.domain.IssueStatus;
+import com.yodle.vantage.component.domain.Page;
 import com.yodle.vantage.component.domain.Version;
+import com.yodle.vantage.component.domain.VersionId;
 
 @RunWith(MockitoJUnitRunner.class)
 public class IssueServiceTest {
     @InjectMocks private IssueService issueService;
     @Mock private IssueDao issueDao;
     @Mock private ComponentService componentService;
+    @Mock private IssueIndex issueIndex;
+    @Mock private RevisionTracker revisionTracker;
 
     @Test
     public void givenNoFixOrAffectsVersion_createOrUpdate_justCreates() {
@@ -44,6 +66,23 @@ public class IssueServiceTest {
         verify(issueDao).createOrUpdate(issue);
     }
 
+    @Test
+    public void createOrUpdate_reportsComponentsAffectedBeforeAndAfterUpdateAsChanged() {
+        Issue issue = new Issue();
+        issue.setId("wat");
+        when(issueDao.createOrUpdate(issue)).thenReturn(issue);
+        when(issueDao.getComponentsAffectedByIssues(Collections.singletonList("wat")))
+                .thenReturn(Sets.newHashSet("old"))
+                .thenReturn(Sets.newHashSet("new"));
+        issueService.createOrUpdate(issue);
+
+        InOrder inOrder = Mockito.inOrder(issueDao, issueIndex, revisionTracker);
+        inOrder.verify(issueDao).updateIssueExposure("wat");
+        inOrder.verify(issueIndex).issueUpdated(issue);
+        inOrder.verify(revisionTracker).componentsChanged(Sets.newHashSet("old", "new"));
+        verify(revisionTracker).issuesChanged();
+    }
+
     @Test
     public void givenFixVersion_createOrUpdate_createsFixVersionFirst() {
         Issue issue = new Issue();
@@ -69,6 +108,117 @@ public class IssueServiceTest {
         inOrder.verify(issueDao).createOrUpdate(issue);
     }
 
+    @Test
+    public void createOrUpdate_updatesIssueIndexWithSavedIssue() {
+        Issue issue = new Issue();
+        issue.setId("wat");
+        Issue saved = new Issue();
+        saved.setId("wat");
+        saved.setAffectsVersion(new Version("component", "version"));
+        when(issueDao.createOrUpdate(issue)).thenReturn(saved);
 
+        issueService.createOrUpdate(issue);
 
-}
\ No newline at end of file
+        verify(issueIndex).issueUpdated(saved);
+    }
+
+    @Test
+    public void createOrUpdate_updatesIssueExposureAfterSaving() {
+        Issue issue = new Issue();
+        issue.setId("wat");
+        when(issueDao.createOrUpdate(issue)).thenReturn(issue);
+
+        issueService.createOrUpdate(issue);
+
+        InOrder inOrder = Mockito.inOrder(issueDao);
+        inOrder.verify(issueDao).createOrUpdate(issue);
+        inOrder.verify(issueDao).updateIssueExposure("wat");
+    }
+
+    @Test
+    public void bulkCreateOrUpdate_ensuresAllVersionsAtOnceAndReportsStatuses() {
+        Issue created = issue("created", new Version("a", "1"), new Version("a", "2"));
+        Issue updated = issue("updated", new Version("b", "1"), null);
+        Issue noId = issue(null, new Version("c", "1"), null);
+        Issue incompleteFix = issue("incomplete", new Version("c", "1"), new Version("c", null));
+        when(issueDao.getExistingIssueIds(Sets.newHashSet("created", "updated"))).thenReturn(Sets.newHashSet("updated"));
+        when(issueDao.getIssues(Sets.newHashSet("created", "updated"))).thenReturn(Sets.newHashSet(created, updated));
+
+        List<IssueStatus> statuses = issueService.createOrUpdate(Lists.newArrayList(created, noId, updated, incompleteFix));
+
+        assertEquals(Lists.newArrayList(
+                new IssueStatus("created", IssueStatus.Status.CREATED, null),
+                new IssueStatus(null, IssueStatus.Status.INVALID, "Issues need an id"),
+                new IssueStatus("updated", IssueStatus.Status.UPDATED, null),
+                new IssueStatus("incomplete", IssueStatus.Status.INVALID, "Fix version needs both a component and a version")
+        ), statuses);
+        verify(componentService).ensureVersionsExist(Lists.newArrayList(new VersionId("a", "1"), new VersionId("a", "2"), new VersionId("b", "1")));
+        verify(componentService, never()).ensureVersionExists(anyString(), anyString());
+        verify(issueDao).createOrUpdate(Lists.newArrayList(created, updated));
+        verify(issueDao).updateIssueExposure(Lists.newArrayList("created", "updated"));
+        verify(issueIndex).issuesUpdated(Sets.newHashSet(created, updated));
+    }
+
+    @Test
+    public void bulkCreateOrUpdate_writesInBatches() {
+        List<Issue> issues = new ArrayList<>();
+        for (int i = 0; i < IssueService.BULK_BATCH_SIZE + 1; i++) {
+            issues.add(issue("issue" + i, new Version("a", "1"), null));
+        }
+
+        issueService.createOrUpdate(issues);
+
+        verify(issueDao).createOrUpdate(issues.subList(0, IssueService.BULK_BATCH_SIZE));
+        verify(issueDao).createOrUpdate(issues.subList(IssueService.BULK_BATCH_SIZE, IssueService.BULK_BATCH_SIZE + 1));
+    }
+
+    @Test
+    public void givenNoValidIssues_bulkCreateOrUpdate_writesNothing() {
+        List<IssueStatus> statuses = issueService.createOrUpdate(Lists.newArrayList(issue(null, new Version("a", "1"), null)));
+
+        assertEquals(Lists.newArrayList(new IssueStatus(null, IssueStatus.Status.INVALID, "Issues need an id")), statuses);
+        verifyZeroInteractions(issueDao, componentService);
+    }
+
+    @Test
+    public void givenMoreImpactThanLimit_getImpact_returnsCursorPastLastVersion() {
+        ImpactedVersion first = new ImpactedVersion("a", "1", true, false);
+        ImpactedVersion second = new ImpactedVersion("b", "1", false, true);
+        when(issueDao.countImpact("wat")).thenReturn(Optional.of(5L));
+        when(issueDao.getImpact("wat", true, new VersionId("c", "9"), 3))
+                .thenReturn(Lists.newArrayList(first, second, new ImpactedVersion("c", "1", false, true)));
+
+        Optional<Page<ImpactedVersion>> page = issueService.getImpact("wat", "-component", Keyset.encode("c\u00009"), 2);
+
+        assertEquals(Lists.newArrayList(first, second), page.get().getItems());
+        assertEquals(5L, page.get().getTotal());
+        assertEquals(Keyset.encode("b\u00001"), page.get().getNextCursor());
+    }
+
+    @Test
+    public void givenNoIssue_getImpact_returnsEmpty() {
+        when(issueDao.countImpact("wat")).thenReturn(Optional.empty());
+
+        assertFalse(issueService.getImpact("wat", "component", null, 10).isPresent());
+        verify(issueDao, never()).getImpact(anyString(), anyBoolean(), any(VersionId.class), anyInt());
+    }
+
+    @Test
+    public void givenLastPage_getIssues_hasNoCursor() {
+        List<Issue> issues = Lists.newArrayList(issue("a", new Version("c", "1"), null));
+        when(issueDao.getIssues(null, false, null, 3)).thenReturn(issues);
+        when(issueDao.countIssues(null)).thenReturn(1L);
+
+        Page<Issue> page = issueService.getIssues(null, "id", null, 2);
+
+        assertEquals(new Page<>(issues, 1L, null), page);
+    }
+
+    private static Issue issue(String id, Version affects, Version fix) {
+        Issue issue = new Issue();
+        issue.setId(id);
+        issue.setAffectsVersion(affects);
+        issue.setFixVersion(fix);
+        return issue;
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright 2016 Yodle, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+
+ *     http://www.apache.org/licenses/LICENSE-2.0
+
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yodle.vantage.component.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import java.util.function.Function;
+
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+import com.yodle.vantage.component.domain.Page;
+import com.yodle.vantage.exception.InvalidPageException;
+
+public class KeysetTest {
+
+    @Test
+    public void givenSortKey_of_sortsAscending() {
+        Keyset keyset = Keyset.of("name", "name", null, 10);
+
+        assertFalse(keyset.isDescending());
+        assertNull(keyset.getAfter());
+        assertEquals(11, keyset.getFetchSize());
+    }
+
+    @Test
+    public void givenNegatedSortKey_of_sortsDescending() {
+        assertTrue(Keyset.of("name", "-name", null, 10).isDescending());
+    }
+
+    @Test(expected = InvalidPageException.class)
+    public void givenUnknownSort_of_throws() {
+        Keyset.of("name", "description", null, 10);
+    }
+
+    @Test(expected = InvalidPageException.class)
+    public void givenZeroLimit_of_throws() {
+        Keyset.of("name", "name", null, 0);
+    }
+
+    @Test(expected = InvalidPageException.class)
+    public void givenLimitOverMax_of_throws() {
+        Keyset.of("name", "name", null, Keyset.MAX_LIMIT + 1);
+    }
+
+    @Test(expected = InvalidPageException.class)
+    public void givenMalformedCursor_of_throws() {
+        Keyset.of("name", "name", "not a cursor!", 10);
+    }
+
+    @Test
+    public void givenMoreThanLimitFetched_toPage_returnsCursorForLastItem() {
+        Keyset keyset = Keyset.of("name", "name", null, 2);
+
+        Page<String> page = keyset.toPage(Lists.newArrayList("a", "b", "c"), 5, Function.identity());
+
+        assertEquals(Lists.newArrayList("a", "b"), page.getItems());
+        assertEquals(5, page.getTotal());
+        assertEquals("b", Keyset.of("name", "name", page.getNextCursor(), 2).getAfter());
+    }
+
+    @Test
+    public void givenNoMoreThanLimitFetched_toPage_hasNoCursor() {
+        Keyset keyset = Keyset.of("name", "name", null, 2);
+        List<String> fetched = Lists.newArrayList("a", "b");
+
+        Page<String> page = keyset.toPage(fetched, 2, Function.identity());
+
+        assertEquals(fetched, page.getItems());
+        assertNull(page.getNextCursor());
+    }
+
+    @Test
+    public void givenNonAsciiKey_cursor_roundTrips() {
+        String cursor = Keyset.encode("com.\u00fcn\u00efcode:wat/ok?");
+
+        assertEquals("com.\u00fcn\u00efcode:wat/ok?", Keyset.of("name", "name", cursor, 1).getAfter());
+    }
+}
@@ -15,54 +15,241 @@
  */
 package com.yodle.vantage.component.service;
 
+import static com.yodle.vantage.component.service.PrecedenceFixer.RANK_GAP;
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.mockito.InOrder;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
+import org.mockito.Mockito;
 import org.mockito.runners.MockitoJUnitRunner;
 
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import com.yodle.vantage.component.dao.IssueDao;
 import com.yodle.vantage.component.dao.VersionDao;
+import com.yodle.vantage.component.dao.VersionDao.Precedence;
 import com.yodle.vantage.component.domain.VersionId;
 
 @RunWith(MockitoJUnitRunner.class)
 public class PrecedenceFixerTest {
     private static final String COMPONENT = "component";
+    private static final String OTHER_COMPONENT = "other-component";
     @InjectMocks private PrecedenceFixer precedenceFixer;
     @Mock private VersionDao versionDao;
+    @Mock private IssueDao issueDao;
+    @Mock private IssueIndex issueIndex;
+    @Mock private RevisionTracker revisionTracker;
 
     @Test
     public void givenVersionsFollowMavenPrecedence_fixPrecedence_insertsBetweenMavenVersions() {
-        when(versionDao.getVersions("component")).thenReturn(Lists.newArrayList("1.5.0", "1.0.1", "2.0.0", "1.0.0"));
+        when(versionDao.getVersionRanks("component")).thenReturn(ranks("1.3.0", null, "1.5.0", 300L, "1.0.1", 200L, "2.0.0", 400L, "1.0.0", 100L));
+        precedenceFixer.fixPrecendence(new VersionId(COMPONENT, "1.3.0"));
+
+        verify(versionDao).insertPrecedences(
+                COMPONENT,
+                Lists.newArrayList(new Precedence("1.0.1", "1.5.0")),
+                Lists.newArrayList(new Precedence("1.0.1", "1.3.0"), new Precedence("1.3.0", "1.5.0")),
+                ImmutableMap.of("1.3.0", 250L),
+                null
+        );
+    }
+
+    @Test
+    public void fixPrecedence_passesChangedRanksToIssueIndex() {
+        when(versionDao.getVersionRanks("component")).thenReturn(ranks("1.3.0", null, "1.5.0", 300L, "1.0.1", 200L, "2.0.0", 400L, "1.0.0", 100L));
+        precedenceFixer.fixPrecendence(new VersionId(COMPONENT, "1.3.0"));
+
+        verify(issueIndex).ranksChanged(COMPONENT, ImmutableMap.of("1.3.0", 250L));
+    }
+
+    @Test
+    public void fixPrecedence_exposesDependentsOfNewlyRankedVersions() {
+        when(versionDao.getVersionRanks("component")).thenReturn(ranks("1.3.0", null, "1.5.0", 300L, "1.0.1", 200L, "2.0.0", 400L, "1.0.0", 100L));
+        precedenceFixer.fixPrecendence(new VersionId(COMPONENT, "1.3.0"));
+
+        verify(issueDao).addExposureThrough(COMPONENT, Sets.newHashSet("1.3.0"));
+    }
+
+    @Test
+    public void givenNewLatestVersion_fixPrecedence_updatesActiveFlagsAfterMovingLatest() {
+        when(versionDao.getVersionRanks("component")).thenReturn(ranks("3.0.0", null, "2.0.0", 400L));
+        precedenceFixer.fixPrecendence(new VersionId(COMPONENT, "3.0.0"));
+
+        InOrder inOrder = Mockito.inOrder(versionDao);
+        inOrder.verify(versionDao).insertPrecedences(COMPONENT, Collections.emptyList(), Lists.newArrayList(new Precedence("2.0.0", "3.0.0")), ImmutableMap.of("3.0.0", 400L + RANK_GAP), "3.0.0");
+        inOrder.verify(versionDao).updateActiveAfterLatestMoved(COMPONENT);
+    }
+
+    @Test
+    public void givenNewLatestVersion_fixPrecedence_reportsComponentAndEveryComponentItChangedAsChanged() {
+        when(versionDao.getVersionRanks("component")).thenReturn(ranks("3.0.0", null, "2.0.0", 400L));
+        when(versionDao.updateActiveAfterLatestMoved(COMPONENT)).thenReturn(Sets.newHashSet("dependency"));
+        when(issueDao.addExposureThrough(COMPONENT, Sets.newHashSet("3.0.0"))).thenReturn(Sets.newHashSet("dependent"));
+        precedenceFixer.fixPrecendence(new VersionId(COMPONENT, "3.0.0"));
+
+        InOrder inOrder = Mockito.inOrder(issueIndex, revisionTracker);
+        inOrder.verify(issueIndex).ranksChanged(COMPONENT, ImmutableMap.of("3.0.0", 400L + RANK_GAP));
+        inOrder.verify(revisionTracker).componentsChanged(Sets.newHashSet(COMPONENT, "dependency", "dependent"));
+    }
+
+    @Test
+    public void givenLatestVersionUnchanged_fixPrecedence_leavesActiveFlags() {
+        when(versionDao.getVersionRanks("component")).thenReturn(ranks("1.3.0", null, "1.5.0", 300L, "1.0.1", 200L));
         precedenceFixer.fixPrecendence(new VersionId(COMPONENT, "1.3.0"));
 
-        verify(versionDao).insertPrecendenceBetween(COMPONENT, "1.3.0", "1.0.1", "1.5.0");
+        verify(versionDao, never()).updateActiveAfterLatestMoved(COMPONENT);
     }
 
     @Test
     public void givenVersionsFollowMavenPrecedenceAndNoPrevious_fixPrecedence_insertsPrecedenceProperly() {
-        when(versionDao.getVersions("component")).thenReturn(Lists.newArrayList("1.5.0", "1.0.1", "2.0.0", "1.0.0"));
+        when(versionDao.getVersionRanks("component")).thenReturn(ranks("0.9.0", null, "1.5.0", 300L, "1.0.1", 200L, "2.0.0", 400L, "1.0.0", 100L));
         precedenceFixer.fixPrecendence(new VersionId(COMPONENT, "0.9.0"));
 
-        verify(versionDao).insertPrecendenceBetween(COMPONENT, "0.9.0", null, "1.0.0");
+        verify(versionDao).insertPrecedences(
+                COMPONENT,
+                Collections.emptyList(),
+                Lists.newArrayList(new Precedence("0.9.0", "1.0.0")),
+                ImmutableMap.of("0.9.0", 100L - RANK_GAP),
+                null
+        );
     }
 
     @Test
     public void givenVersionsFollowMavenPrecedenceAndNoNext_fixPrecedence_insertsPrecedenceProperly() {
-        when(versionDao.getVersions("component")).thenReturn(Lists.newArrayList("1.5.0", "1.0.1", "2.0.0", "1.0.0"));
+        when(versionDao.getVersionRanks("component")).thenReturn(ranks("3.0.0", null, "1.5.0", 300L, "1.0.1", 200L, "2.0.0", 400L, "1.0.0", 100L));
         precedenceFixer.fixPrecendence(new VersionId(COMPONENT, "3.0.0"));
 
-        verify(versionDao).insertPrecendenceBetween(COMPONENT, "3.0.0", "2.0.0", null);
+        verify(versionDao).insertPrecedences(
+                COMPONENT,
+                Collections.emptyList(),
+                Lists.newArrayList(new Precedence("2.0.0", "3.0.0")),
+                ImmutableMap.of("3.0.0", 400L + RANK_GAP),
+                "3.0.0"
+        );
+    }
+
+    @Test
+    public void givenSeveralCreatedMavenVersions_fixPrecedence_loadsVersionsOnceAndWritesOneBatch() {
+        when(versionDao.getVersionRanks("component")).thenReturn(ranks("1.6.0", null, "1.5.0", null, "3.0.0", null, "1.0.0", 100L, "2.0.0", 400L));
+        precedenceFixer.fixPrecedence(Lists.newArrayList(
+                new VersionId(COMPONENT, "1.5.0"),
+                new VersionId(COMPONENT, "1.6.0"),
+                new VersionId(COMPONENT, "3.0.0")
+        ));
+
+        verify(versionDao, times(1)).getVersionRanks(COMPONENT);
+        verify(versionDao).insertPrecedences(
+                COMPONENT,
+                Lists.newArrayList(new Precedence("1.0.0", "2.0.0")),
+                Lists.newArrayList(
+                        new Precedence("1.0.0", "1.5.0"),
+                        new Precedence("1.5.0", "1.6.0"),
+                        new Precedence("1.6.0", "2.0.0"),
+                        new Precedence("2.0.0", "3.0.0")
+                ),
+                ImmutableMap.of("1.5.0", 200L, "1.6.0", 300L, "3.0.0", 400L + RANK_GAP),
+                "3.0.0"
+        );
+    }
+
+    @Test
+    public void givenVersionsOfSeveralComponents_fixPrecedence_writesOneBatchPerComponent() {
+        when(versionDao.getVersionRanks(COMPONENT)).thenReturn(ranks("2.0.0", null, "1.0.0", RANK_GAP));
+        precedenceFixer.fixPrecedence(Lists.newArrayList(
+                new VersionId(COMPONENT, "2.0.0"),
+                new VersionId(OTHER_COMPONENT, "abc123"),
+                new VersionId(OTHER_COMPONENT, "def345")
+        ));
+
+        verify(versionDao).insertPrecedences(
+                COMPONENT,
+                Collections.emptyList(),
+                Lists.newArrayList(new Precedence("1.0.0", "2.0.0")),
+                ImmutableMap.of("2.0.0", 2 * RANK_GAP),
+                "2.0.0"
+        );
+        verify(versionDao).insertPrecedences(
+                OTHER_COMPONENT,
+                Collections.emptyList(),
+                Lists.newArrayList(new Precedence("abc123", "def345")),
+                ImmutableMap.of("abc123", RANK_GAP, "def345", 2 * RANK_GAP),
+                "def345"
+        );
     }
 
     @Test
     public void givenVersionsDontFollowMavenPrecedence_fixPrecedence_insertsPrecedenceAtEnd() {
-        when(versionDao.getVersions("component")).thenReturn(Lists.newArrayList("abc123", "def345", "1f3eac"));
+        when(versionDao.getLatestVersionRank("component")).thenReturn(ranks("abc123", 300L));
         precedenceFixer.fixPrecendence(new VersionId(COMPONENT, "125fed"));
 
-        verify(versionDao).insertPrecedenceAtEnd(COMPONENT, "125fed");
+        verify(versionDao, never()).getVersionRanks(COMPONENT);
+        verify(versionDao).insertPrecedences(
+                COMPONENT,
+                Collections.emptyList(),
+                Lists.newArrayList(new Precedence("abc123", "125fed")),
+                ImmutableMap.of("125fed", 300L + RANK_GAP),
+                "125fed"
+        );
+    }
+
+    @Test
+    public void givenNumericVersionOfComponentWithCommitIdVersions_fixPrecedence_insertsPrecedenceAtEnd() {
+        when(versionDao.getNewestNonNumericVersion(COMPONENT)).thenReturn(Optional.of("abc123"));
+        when(versionDao.getLatestVersionRank("component")).thenReturn(ranks("abc123", 300L));
+        precedenceFixer.fixPrecendence(new VersionId(COMPONENT, "12345"));
+
+        verify(versionDao).insertPrecedences(
+                COMPONENT,
+                Collections.emptyList(),
+                Lists.newArrayList(new Precedence("abc123", "12345")),
+                ImmutableMap.of("12345", 300L + RANK_GAP),
+                "12345"
+        );
+    }
+
+    @Test
+    public void givenNoRoomBetweenNeighbours_assignRanks_renumbersNearbyVersions() {
+        Map<String, Long> assigned = PrecedenceFixer.assignRanks(
+                Lists.newArrayList("a", "b", "new", "c", "d"),
+                ranks("a", 0L, "b", 10L, "new", null, "c", 11L, "d", 20L)
+        );
+
+        assertEquals(ImmutableMap.of("b", 5L, "new", 10L, "c", 15L), assigned);
+    }
+
+    @Test
+    public void givenUnrankedVersions_rankUnrankedVersions_ranksThemInPrecedenceOrder() {
+        when(versionDao.getVersionRanks(COMPONENT)).thenReturn(ranks("ccc", null, "aaa", null, "bbb", null));
+        when(versionDao.getPrecedences(COMPONENT)).thenReturn(Lists.newArrayList(new Precedence("bbb", "ccc"), new Precedence("aaa", "bbb")));
+        precedenceFixer.rankUnrankedVersions(COMPONENT);
+
+        verify(versionDao).insertPrecedences(
+                COMPONENT,
+                Collections.emptyList(),
+                Collections.emptyList(),
+                ImmutableMap.of("aaa", RANK_GAP, "bbb", 2 * RANK_GAP, "ccc", 3 * RANK_GAP),
+                null
+        );
+    }
+
+    private static Map<String, Long> ranks(Object... versionsAndRanks) {
+        Map<String, Long> ranks = new LinkedHashMap<>();
+        for (int i = 0; i < versionsAndRanks.length; i += 2) {
+            ranks.put((String) versionsAndRanks[i], (Long) versionsAndRanks[i + 1]);
+        }
+        return ranks;
     }
 }
\ No newline at end of file
@@ -0,0 +1,74 @@
+/*
+ * Copyright 2016 Yodle, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+
+ *     http://www.apache.org/licenses/LICENSE-2.0
+
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yodle.vantage.component.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.when;
+
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.dao.DataAccessResourceFailureException;
+
+import com.yodle.vantage.component.dao.CreateQueue;
+
+@RunWith(MockitoJUnitRunner.class)
+public class QueueMetricsTest {
+    @InjectMocks private QueueMetrics queueMetrics;
+    @Mock private CreateQueue createQueue;
+
+    @Test
+    public void metrics_reportsQueueStats() {
+        when(createQueue.getQueueStats()).thenReturn(new CreateQueue.QueueStats(4, System.currentTimeMillis() - 60000, 200));
+
+        Map<String, Number> metrics = getMetrics();
+
+        assertEquals(4L, metrics.get("queue.create.depth"));
+        assertTrue(metrics.get("queue.create.oldest.age").longValue() >= 60000);
+        assertEquals(50L, metrics.get("queue.create.blob.size.mean"));
+        assertEquals(200L, metrics.get("queue.create.blob.size.total"));
+    }
+
+    @Test
+    public void givenEmptyQueue_metrics_omitsOldestAge() {
+        when(createQueue.getQueueStats()).thenReturn(new CreateQueue.QueueStats(0, null, 0));
+
+        Map<String, Number> metrics = getMetrics();
+
+        assertEquals(0L, metrics.get("queue.create.depth"));
+        assertEquals(0L, metrics.get("queue.create.blob.size.mean"));
+        assertFalse(metrics.containsKey("queue.create.oldest.age"));
+    }
+
+    @Test
+    public void givenDatabaseUnavailable_metrics_reportsNothing() {
+        when(createQueue.getQueueStats()).thenThrow(new DataAccessResourceFailureException("unavailable"));
+
+        assertTrue(queueMetrics.metrics().isEmpty());
+    }
+
+    private Map<String, Number> getMetrics() {
+        return queueMetrics.metrics().stream().collect(Collectors.toMap(Metric::getName, Metric::getValue));
+    }
+}
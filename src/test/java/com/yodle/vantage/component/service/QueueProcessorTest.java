@@ -0,0 +1,170 @@
+/*
+ * Copyright 2016 Yodle, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+
+ *     http://www.apache.org/licenses/LICENSE-2.0
+
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yodle.vantage.component.service;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.sql.SQLException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.springframework.dao.DeadlockLoserDataAccessException;
+import org.springframework.jdbc.UncategorizedSQLException;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.yodle.vantage.component.dao.QueueDao;
+import com.yodle.vantage.component.domain.VersionId;
+import com.yodle.vantage.exception.QueueEntryFailedException;
+
+@RunWith(MockitoJUnitRunner.class)
+public class QueueProcessorTest {
+    @InjectMocks private QueueProcessor queueProcessor;
+    @Mock private QueueService queueService;
+    @Mock private QueueDao queueDao;
+
+    @Before
+    public void setUp() {
+        when(queueDao.getConsumers()).thenReturn(2);
+        ReflectionTestUtils.setField(queueProcessor, "batchSize", 1);
+        queueProcessor.startDrainExecutor();
+    }
+
+    @After
+    public void tearDown() {
+        queueProcessor.stopDrainExecutor();
+    }
+
+    @Test
+    public void drain_processesUntilConsumerHasNothingLeft() {
+        when(queueService.processFrontOfQueue(1, 1)).thenReturn(true, true, true, false);
+
+        queueProcessor.drain(1);
+
+        verify(queueService, times(4)).processFrontOfQueue(1, 1);
+        verify(queueService, never()).processFrontOfQueue(0, 1);
+    }
+
+    @Test
+    public void givenProcessingFails_drain_stopsDraining() {
+        when(queueService.processFrontOfQueue(0, 1)).thenReturn(true).thenThrow(new RuntimeException("failed"));
+
+        queueProcessor.drain(0);
+
+        verify(queueService, times(2)).processFrontOfQueue(0, 1);
+    }
+
+    @Test
+    public void givenCreateRequestQueued_onApplicationEvent_drainsComponentsConsumer() {
+        when(queueDao.getConsumer("component")).thenReturn(1);
+
+        queueProcessor.onApplicationEvent(new CreateRequestQueuedEvent(this, new VersionId("component", "version")));
+
+        verify(queueService, timeout(1000)).processFrontOfQueue(1, 1);
+        verify(queueService, never()).processFrontOfQueue(0, 1);
+    }
+
+    @Test
+    public void processFrontOfQueue_drainsEveryConsumer() {
+        queueProcessor.processFrontOfQueue();
+
+        verify(queueService, timeout(1000)).processFrontOfQueue(0, 1);
+        verify(queueService, timeout(1000)).processFrontOfQueue(1, 1);
+        verify(queueService, never()).processFrontOfQueue();
+        verify(queueService, times(2)).processFrontOfQueue(anyInt(), anyInt());
+    }
+
+    @Test
+    public void givenBatchSize_drain_processesBatchesOfThatSize() {
+        ReflectionTestUtils.setField(queueProcessor, "batchSize", 10);
+        when(queueService.processFrontOfQueue(0, 10)).thenReturn(true, false);
+
+        queueProcessor.drain(0);
+
+        verify(queueService, times(2)).processFrontOfQueue(0, 10);
+        verify(queueService, never()).processFrontOfQueue(0, 1);
+    }
+
+    @Test
+    public void givenBatchFails_drain_retriesItsEntriesOneAtATime() {
+        ReflectionTestUtils.setField(queueProcessor, "batchSize", 3);
+        when(queueService.processFrontOfQueue(0, 3)).thenThrow(new RuntimeException("failed")).thenReturn(false);
+        when(queueService.processFrontOfQueue(0, 1)).thenReturn(true);
+
+        queueProcessor.drain(0);
+
+        verify(queueService, times(2)).processFrontOfQueue(0, 3);
+        verify(queueService, times(3)).processFrontOfQueue(0, 1);
+    }
+
+    @Test
+    public void givenEntryFailsByItself_drain_stopsDraining() {
+        ReflectionTestUtils.setField(queueProcessor, "batchSize", 3);
+        when(queueService.processFrontOfQueue(0, 3)).thenThrow(new RuntimeException("failed"));
+        when(queueService.processFrontOfQueue(0, 1)).thenReturn(true).thenThrow(new RuntimeException("failed"));
+
+        queueProcessor.drain(0);
+
+        verify(queueService, times(1)).processFrontOfQueue(0, 3);
+        verify(queueService, times(2)).processFrontOfQueue(0, 1);
+    }
+
+    @Test
+    public void givenEntryDeadlocks_drain_stopsWithoutChargingEntry() {
+        RuntimeException cause = new DeadlockLoserDataAccessException("deadlock", null);
+        when(queueService.processFrontOfQueue(0, 1))
+                .thenThrow(new QueueEntryFailedException("requestId", cause))
+                .thenReturn(true, false);
+
+        queueProcessor.drain(0);
+
+        verify(queueService, never()).recordFailure("requestId", cause);
+        verify(queueService, times(1)).processFrontOfQueue(0, 1);
+    }
+
+    @Test
+    public void givenNeo4jTransientError_isTransient_returnsTrue() {
+        RuntimeException cause = new UncategorizedSQLException("create", null,
+                new SQLException("Error executing query: Neo.TransientError.Transaction.DeadlockDetected"));
+
+        assertTrue(QueueProcessor.isTransient(cause));
+        assertFalse(QueueProcessor.isTransient(new RuntimeException("failed")));
+    }
+
+    @Test
+    public void givenEntryFails_drain_chargesEntryAndKeepsGoing() {
+        RuntimeException cause = new RuntimeException("failed");
+        when(queueService.processFrontOfQueue(0, 1))
+                .thenThrow(new QueueEntryFailedException("requestId", cause))
+                .thenReturn(true, false);
+
+        queueProcessor.drain(0);
+
+        verify(queueService).recordFailure("requestId", cause);
+        verify(queueService, times(3)).processFrontOfQueue(0, 1);
+    }
+}
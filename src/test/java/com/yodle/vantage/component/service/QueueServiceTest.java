@@ -15,21 +15,45 @@
  */
 package com.yodle.vantage.component.service;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyDouble;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyNoMoreInteractions;
 import static org.mockito.Mockito.when;
 
 import java.util.Optional;
+import java.util.Set;
 
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
 import org.mockito.InOrder;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.Mockito;
 import org.mockito.runners.MockitoJUnitRunner;
+import org.springframework.boot.actuate.metrics.CounterService;
+import org.springframework.boot.actuate.metrics.GaugeService;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import com.yodle.vantage.component.dao.CreateQueue;
 import com.yodle.vantage.component.dao.QueueDao;
+import com.yodle.vantage.component.domain.Dependency;
 import com.yodle.vantage.component.domain.Version;
+import com.yodle.vantage.component.domain.VersionId;
+import com.yodle.vantage.exception.QueueEntryFailedException;
 
 //This suite does a lot of in-order verification to ensure that the queue gets locked at the appropriate time
  @RunWith(MockitoJUnitRunner.class)
@@ -37,6 +61,10 @@ public class QueueServiceTest {
     @InjectMocks private QueueService queueService;
     @Mock private ComponentService componentService;
     @Mock private QueueDao queueDao;
+    @Mock private CreateQueue createQueue;
+    @Mock private ApplicationEventPublisher eventPublisher;
+    @Mock private GaugeService gaugeService;
+    @Mock private CounterService counterService;
 
     @Test
     public void queueCreateRequest_locksTailBeforeSaving() {
@@ -44,39 +72,218 @@ public class QueueServiceTest {
 
         queueService.queueCreateRequest(version);
 
-        InOrder inOrder = Mockito.inOrder(queueDao);
-        inOrder.verify(queueDao).lockQueueTail();
-        inOrder.verify(queueDao).saveCreateRequest(version);
+        InOrder inOrder = Mockito.inOrder(queueDao, createQueue);
+        inOrder.verify(createQueue).lockQueueTail();
+        inOrder.verify(createQueue).saveCreateRequest(version);
+    }
+
+    @Test
+    public void queueCreateRequest_publishesQueuedEvent() {
+        Version version = new Version("component", "version");
+
+        queueService.queueCreateRequest(version);
+
+        verify(eventPublisher).publishEvent(any(CreateRequestQueuedEvent.class));
     }
 
     @Test
     public void givenEmptyQueue_processFrontOfQueue_locksHead() {
-        when(queueDao.getCreateRequest()).thenReturn(Optional.empty());
+        when(createQueue.getCreateRequests(0, 1)).thenReturn(Lists.newArrayList());
 
-        queueService.processFrontOfQueue();
+        boolean processed = queueService.processFrontOfQueue();
 
-        InOrder inOrder = Mockito.inOrder(queueDao);
+        assertFalse("Nothing should have been processed because the queue is empty", processed);
+        InOrder inOrder = Mockito.inOrder(queueDao, createQueue);
 
-        inOrder.verify(queueDao).lockQueueHead();
-        inOrder.verify(queueDao).getCreateRequest();
-        verifyNoMoreInteractions(queueDao, componentService);
+        inOrder.verify(queueDao).lockQueueHead(0);
+        inOrder.verify(createQueue).getCreateRequests(0, 1);
+        verifyNoMoreInteractions(queueDao, createQueue, componentService);
     }
 
     @Test
     public void givenNonemptyQueue_processFrontOfQueue_processesInCorrectOrder() {
         Version version = new Version("component", "version");
         String requestId = "requestId";
-        when(queueDao.getCreateRequest()).thenReturn(Optional.of(new QueueDao.QueueCreateRequest(version, requestId)));
+        when(createQueue.getCreateRequests(0, 1)).thenReturn(Lists.newArrayList(new QueueDao.QueueCreateRequest(version, requestId)));
+
+        boolean processed = queueService.processFrontOfQueue();
+
+        assertTrue("The front of the queue should have been processed", processed);
+        InOrder inOrder = Mockito.inOrder(queueDao, createQueue, componentService);
+
+        inOrder.verify(queueDao).lockQueueHead(0);
+        inOrder.verify(componentService).createOrUpdateVersion(version);
+        inOrder.verify(createQueue).lockQueueTail();
+        inOrder.verify(createQueue).deleteCreateRequest(requestId);
+    }
+
+    @Test
+    public void givenLaterEntriesForSameVersion_processFrontOfQueue_createsThemTogetherAndDeletesThemAll() {
+        Version version = new Version("component", "version");
+        version.setResolvedDependencies(Sets.newHashSet(new Dependency(new Version("dep1", "1.0"), Sets.newHashSet("compile"))));
+        Version duplicateVersion = new Version("component", "version");
+        duplicateVersion.setResolvedDependencies(Sets.newHashSet(new Dependency(new Version("dep2", "1.0"), Sets.newHashSet("compile"))));
+        QueueDao.QueueCreateRequest createRequest = new QueueDao.QueueCreateRequest(version, "requestId");
+        QueueDao.QueueCreateRequest duplicate = new QueueDao.QueueCreateRequest(duplicateVersion, "duplicateId");
+        when(createQueue.getCreateRequests(0, 1)).thenReturn(Lists.newArrayList(createRequest));
+        when(createQueue.getDuplicateCreateRequests(createRequest)).thenReturn(Lists.newArrayList(duplicate));
 
         queueService.processFrontOfQueue();
 
-        InOrder inOrder = Mockito.inOrder(queueDao, componentService);
+        ArgumentCaptor<Version> created = ArgumentCaptor.forClass(Version.class);
+        InOrder inOrder = Mockito.inOrder(queueDao, createQueue, componentService);
+        inOrder.verify(componentService).createOrUpdateVersion(created.capture());
+        inOrder.verify(createQueue).lockQueueTail();
+        inOrder.verify(createQueue).deleteCreateRequest("requestId");
+        inOrder.verify(createQueue).deleteCreateRequest("duplicateId");
+
+        Set<Dependency> expectedDependencies = Sets.newHashSet(version.getResolvedDependencies());
+        expectedDependencies.addAll(duplicateVersion.getResolvedDependencies());
+        assertEquals(expectedDependencies, created.getValue().getResolvedDependencies());
+    }
 
-        inOrder.verify(queueDao).lockQueueHead();
+    @Test
+    public void givenMultipleConsumers_processFrontOfQueue_processesConsumersOwnEntry() {
+        Version version = new Version("component", "version");
+        String requestId = "requestId";
+        when(createQueue.getCreateRequests(2, 1)).thenReturn(Lists.newArrayList(new QueueDao.QueueCreateRequest(version, requestId)));
+
+        boolean processed = queueService.processFrontOfQueue(2, 1);
+
+        assertTrue("The consumer's entry should have been processed", processed);
+        InOrder inOrder = Mockito.inOrder(queueDao, createQueue, componentService);
+
+        inOrder.verify(queueDao).lockQueueHead(2);
         inOrder.verify(componentService).createOrUpdateVersion(version);
-        inOrder.verify(queueDao).lockQueueTail();
-        inOrder.verify(queueDao).deleteCreateRequest(requestId);
+        inOrder.verify(createQueue).lockQueueTail();
+        inOrder.verify(createQueue).deleteCreateRequest(requestId);
+    }
+
+    @Test
+    public void givenBatch_processFrontOfQueue_createsEveryEntryBeforeDeletingThem() {
+        Version version1 = new Version("component1", "version");
+        Version version2 = new Version("component2", "version");
+        when(createQueue.getCreateRequests(0, 5)).thenReturn(Lists.newArrayList(
+                new QueueDao.QueueCreateRequest(version1, "requestId1"),
+                new QueueDao.QueueCreateRequest(version2, "requestId2")
+        ));
+
+        boolean processed = queueService.processFrontOfQueue(0, 5);
+
+        assertTrue("The batch should have been processed", processed);
+        InOrder inOrder = Mockito.inOrder(queueDao, createQueue, componentService);
+
+        inOrder.verify(queueDao).lockQueueHead(0);
+        inOrder.verify(componentService).createOrUpdateVersion(version1);
+        inOrder.verify(componentService).createOrUpdateVersion(version2);
+        inOrder.verify(createQueue).lockQueueTail();
+        inOrder.verify(createQueue).deleteCreateRequest("requestId1");
+        inOrder.verify(createQueue).deleteCreateRequest("requestId2");
+    }
+
+    @Test
+    public void givenBatchWithSameVersionTwice_processFrontOfQueue_createsItOnce() {
+        Version version = new Version("component", "version");
+        QueueDao.QueueCreateRequest createRequest = new QueueDao.QueueCreateRequest(version, "requestId");
+        QueueDao.QueueCreateRequest duplicate = new QueueDao.QueueCreateRequest(new Version("component", "version"), "duplicateId");
+        when(createQueue.getCreateRequests(0, 5)).thenReturn(Lists.newArrayList(createRequest, duplicate));
+        when(createQueue.getDuplicateCreateRequests(createRequest)).thenReturn(Lists.newArrayList(duplicate));
+
+        queueService.processFrontOfQueue(0, 5);
+
+        verify(componentService).createOrUpdateVersion(any(Version.class));
+        verify(createQueue).deleteCreateRequest("requestId");
+        verify(createQueue).deleteCreateRequest("duplicateId");
+        verify(createQueue, never()).getDuplicateCreateRequests(duplicate);
+    }
+
+    @Test
+    public void processFrontOfQueue_recordsTimings() {
+        QueueDao.QueueCreateRequest createRequest = new QueueDao.QueueCreateRequest(new Version("component", "version"), "requestId", System.currentTimeMillis());
+        QueueDao.QueueCreateRequest legacyRequest = new QueueDao.QueueCreateRequest(new Version("component2", "version"), "legacyId");
+        when(createQueue.getCreateRequests(0, 2)).thenReturn(Lists.newArrayList(createRequest, legacyRequest));
+
+        queueService.processFrontOfQueue(0, 2);
+
+        verify(gaugeService, times(2)).submit(eq("timer.queue.create.processing"), anyDouble());
+        //the legacy request doesn't know when it was queued
+        verify(gaugeService, times(1)).submit(eq("timer.queue.create.latency"), anyDouble());
+        verify(counterService, times(2)).increment("queue.create.processed");
+    }
+
+    @Test
+    public void givenTransaction_processFrontOfQueue_recordsTimingsOnlyOnceCommitted() {
+        QueueDao.QueueCreateRequest createRequest = new QueueDao.QueueCreateRequest(new Version("component", "version"), "requestId", System.currentTimeMillis());
+        when(createQueue.getCreateRequests(0, 1)).thenReturn(Lists.newArrayList(createRequest));
+
+        TransactionSynchronizationManager.initSynchronization();
+        try {
+            queueService.processFrontOfQueue();
+
+            verify(counterService, never()).increment("queue.create.processed");
+            TransactionSynchronizationManager.getSynchronizations().forEach(TransactionSynchronization::afterCommit);
+        } finally {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+
+        verify(gaugeService).submit(eq("timer.queue.create.processing"), anyDouble());
+        verify(counterService).increment("queue.create.processed");
     }
 
+    @Test(expected = QueueEntryFailedException.class)
+    public void givenCreateFails_processFrontOfQueue_blamesEntry() {
+        Version version = new Version("component", "version");
+        when(createQueue.getCreateRequests(0, 1)).thenReturn(Lists.newArrayList(new QueueDao.QueueCreateRequest(version, "requestId")));
+        when(componentService.createOrUpdateVersion(version)).thenThrow(new RuntimeException("failed"));
+
+        queueService.processFrontOfQueue();
+    }
+
+    @Test
+    public void givenAttemptsRemaining_recordFailure_delaysEntry() {
+        ReflectionTestUtils.setField(queueService, "maxAttempts", 5);
+        ReflectionTestUtils.setField(queueService, "retryBackoffMs", 1000L);
+        when(createQueue.recordFailedAttempt("requestId", "java.lang.RuntimeException: failed")).thenReturn(3);
 
-}
\ No newline at end of file
+        queueService.recordFailure("requestId", new RuntimeException("failed"));
+
+        verify(createQueue).delayCreateRequest("requestId", 4000L);
+        verify(createQueue, never()).deadLetterCreateRequest("requestId");
+    }
+
+    @Test
+    public void givenNoAttemptsRemaining_recordFailure_deadLettersEntry() {
+        ReflectionTestUtils.setField(queueService, "maxAttempts", 5);
+        when(createQueue.recordFailedAttempt("requestId", "java.lang.RuntimeException: failed")).thenReturn(5);
+
+        queueService.recordFailure("requestId", new RuntimeException("failed"));
+
+        InOrder inOrder = Mockito.inOrder(queueDao, createQueue);
+        inOrder.verify(createQueue).lockQueueTail();
+        inOrder.verify(createQueue).deadLetterCreateRequest("requestId");
+        verify(createQueue, never()).delayCreateRequest(eq("requestId"), anyLong());
+    }
+
+    @Test
+    public void givenUnknownDeadLetter_replayDeadLetteredCreateRequest_doesNothing() {
+        when(createQueue.replayDeadLetteredCreateRequest("requestId")).thenReturn(Optional.empty());
+
+        assertFalse(queueService.replayDeadLetteredCreateRequest("requestId"));
+
+        verify(eventPublisher, never()).publishEvent(any(CreateRequestQueuedEvent.class));
+    }
+
+    @Test
+    public void givenDeadLetter_replayDeadLetteredCreateRequest_publishesQueuedEvent() {
+        when(createQueue.replayDeadLetteredCreateRequest("requestId")).thenReturn(Optional.of(new VersionId("component", "version")));
+
+        assertTrue(queueService.replayDeadLetteredCreateRequest("requestId"));
+
+        InOrder inOrder = Mockito.inOrder(createQueue);
+        inOrder.verify(createQueue).lockQueueTail();
+        inOrder.verify(createQueue).replayDeadLetteredCreateRequest("requestId");
+        ArgumentCaptor<CreateRequestQueuedEvent> event = ArgumentCaptor.forClass(CreateRequestQueuedEvent.class);
+        verify(eventPublisher).publishEvent(event.capture());
+        assertEquals(new VersionId("component", "version"), event.getValue().getVersion());
+    }
+}
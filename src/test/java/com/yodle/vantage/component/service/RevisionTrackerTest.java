@@ -0,0 +1,121 @@
+/*
+ * Copyright 2016 Yodle, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+
+ *     http://www.apache.org/licenses/LICENSE-2.0
+
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yodle.vantage.component.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.anyListOf;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.InOrder;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import com.yodle.vantage.component.dao.ComponentDao;
+import com.yodle.vantage.component.dao.IssueDao;
+
+@RunWith(MockitoJUnitRunner.class)
+public class RevisionTrackerTest {
+    @InjectMocks private RevisionTracker revisionTracker;
+    @Mock private ComponentDao componentDao;
+    @Mock private IssueDao issueDao;
+    @Mock private ComponentCache componentCache;
+    @Mock private IssueIndex issueIndex;
+
+    @After
+    public void tearDown() {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+    }
+
+    @Test
+    public void givenNoTransaction_componentsChanged_bumpsRevisionsInNameOrderImmediately() {
+        revisionTracker.componentsChanged(Sets.newHashSet("b", "c", "a"));
+
+        verify(componentDao).bumpRevisions(Lists.newArrayList("a", "b", "c"));
+        verify(componentCache).invalidate(Sets.newHashSet("b", "c", "a"));
+    }
+
+    @Test
+    public void givenTransaction_changes_bumpRevisionsOnceJustBeforeCommit() {
+        TransactionSynchronizationManager.initSynchronization();
+
+        revisionTracker.componentsChanged(Sets.newHashSet("b", "c"));
+        revisionTracker.issuesChanged();
+        revisionTracker.componentsChanged(Sets.newHashSet("a", "b"));
+
+        verify(componentDao, never()).bumpRevisions(anyListOf(String.class));
+        verify(issueDao, never()).bumpRevision();
+
+        for (TransactionSynchronization synchronization : TransactionSynchronizationManager.getSynchronizations()) {
+            synchronization.beforeCommit(false);
+        }
+
+        InOrder inOrder = Mockito.inOrder(componentDao, issueDao);
+        inOrder.verify(componentDao).bumpRevisions(Lists.newArrayList("a", "b", "c"));
+        inOrder.verify(issueDao).bumpRevision();
+    }
+
+    @Test
+    public void givenTransaction_componentsChanged_doesNotCarryChangesIntoTheNextTransaction() {
+        TransactionSynchronizationManager.initSynchronization();
+        revisionTracker.componentsChanged(Sets.newHashSet("a"));
+        for (TransactionSynchronization synchronization : TransactionSynchronizationManager.getSynchronizations()) {
+            synchronization.afterCompletion(TransactionSynchronization.STATUS_ROLLED_BACK);
+        }
+        TransactionSynchronizationManager.clearSynchronization();
+
+        TransactionSynchronizationManager.initSynchronization();
+        revisionTracker.componentsChanged(Sets.newHashSet("b"));
+        for (TransactionSynchronization synchronization : TransactionSynchronizationManager.getSynchronizations()) {
+            synchronization.beforeCommit(false);
+        }
+
+        verify(componentDao).bumpRevisions(Lists.newArrayList("b"));
+    }
+
+    @Test
+    public void givenNewRevision_getComponentRevision_updatesIssueIndexBeforeCache() {
+        when(componentDao.getRevision("a")).thenReturn(5L);
+
+        assertEquals(5L, revisionTracker.getComponentRevision("a"));
+
+        InOrder inOrder = Mockito.inOrder(issueIndex, componentCache);
+        inOrder.verify(issueIndex).componentChanged("a");
+        inOrder.verify(componentCache).revisionSeen("a", 5L);
+    }
+
+    @Test
+    public void givenSeenRevision_getComponentRevision_leavesIssueIndexAlone() {
+        when(componentDao.getRevision("a")).thenReturn(5L);
+        when(componentCache.isRevisionSeen("a", 5L)).thenReturn(true);
+
+        assertEquals(5L, revisionTracker.getComponentRevision("a"));
+
+        verify(issueIndex, never()).componentChanged("a");
+    }
+}
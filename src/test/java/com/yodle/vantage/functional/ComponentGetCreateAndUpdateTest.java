@@ -16,6 +16,7 @@
 package com.yodle.vantage.functional;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
@@ -25,12 +26,15 @@ import java.util.Map;
 import java.util.stream.Collectors;
 
 import feign.FeignException;
+import feign.Response;
 
 import org.junit.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 
+import com.google.common.collect.Lists;
 import com.google.common.collect.Sets;
 import com.yodle.vantage.component.domain.Dependency;
+import com.yodle.vantage.component.domain.Page;
 import com.yodle.vantage.component.domain.VantageComponent;
 import com.yodle.vantage.component.domain.Version;
 import com.yodle.vantage.component.service.QueueService;
@@ -100,6 +104,45 @@ public class ComponentGetCreateAndUpdateTest extends VantageFunctionalTest {
         assertEquals(component2.getDescription(), componentsByName.get(component2.getName()).getDescription());
     }
 
+    @Test
+    public void getComponentsByPage() {
+        for (String name : Lists.newArrayList("c", "a", "e", "b", "d")) {
+            vantageApi.createOrUpdateComponent(name, new VantageComponent(name, null));
+        }
+
+        Page<VantageComponent> first = vantageApi.getComponents(2, "-name");
+        Page<VantageComponent> second = vantageApi.getComponents(2, "-name", first.getNextCursor());
+        Page<VantageComponent> last = vantageApi.getComponents(2, "-name", second.getNextCursor());
+
+        assertEquals(Lists.newArrayList("e", "d"), names(first));
+        assertEquals(Lists.newArrayList("c", "b"), names(second));
+        assertEquals(Lists.newArrayList("a"), names(last));
+        assertEquals(5, first.getTotal());
+        assertEquals(5, last.getTotal());
+        assertNull(last.getNextCursor());
+    }
+
+    @Test
+    public void searchComponents() {
+        vantageApi.createOrUpdateComponent("com.example:Widget", new VantageComponent("com.example:Widget", null));
+        vantageApi.createOrUpdateComponent("com.example:gadget", new VantageComponent("com.example:gadget", null));
+
+        Page<VantageComponent> page = vantageApi.searchComponents(10, "widg");
+
+        assertEquals(Lists.newArrayList("com.example:Widget"), names(page));
+        assertEquals(1, page.getTotal());
+    }
+
+    @Test
+    public void getComponentsWithInvalidSort_throws400() {
+        try {
+            vantageApi.getComponents(10, "description");
+            fail("Should have thrown a 400");
+        } catch (FeignException fe) {
+            assertEquals(400, fe.status());
+        }
+    }
+
     @Test
     public void getComponentWithMostRecentVersion() {
         VantageComponent component = vantageApi.createOrUpdateComponent("component", new VantageComponent("component", "description"));
@@ -140,4 +183,48 @@ public class ComponentGetCreateAndUpdateTest extends VantageFunctionalTest {
         assertEquals(recentVersion.getVersion(), returnedComponent.getMostRecentVersion());
     }
 
+    @Test
+    public void getComponent_answersNotModifiedUntilComponentChanges() {
+        vantageApi.createOrUpdateComponent("component", new VantageComponent("component", "description"));
+        String etag = etag(vantageApi.getComponentResponse("component"));
+
+        assertEquals(304, vantageApi.getComponentResponse("component", etag).status());
+
+        vantageApi.createOrUpdateComponent("component", new VantageComponent("component", "description 2"));
+        Response changed = vantageApi.getComponentResponse("component", etag);
+
+        assertEquals(200, changed.status());
+        assertNotEquals(etag, etag(changed));
+    }
+
+    @Test
+    public void createVersion_changesEtagOfItsDependencies() {
+        vantageApi.createOrUpdateComponent("library", new VantageComponent("library", null));
+        String etag = etag(vantageApi.getComponentResponse("library"));
+
+        Version version = new Version("application", "1.0.0");
+        version.setResolvedDependencies(Sets.newHashSet(new Dependency(new Version("library", "2.0.0"), Sets.newHashSet("compile"))));
+        vantageApi.createOrUpdateVersion("application", "1.0.0", false, version);
+        queueService.processFrontOfQueue();
+
+        assertEquals(200, vantageApi.getComponentResponse("library", etag).status());
+    }
+
+    @Test
+    public void dryRunCreateVersion_leavesEtagAlone() {
+        vantageApi.createOrUpdateComponent("component", new VantageComponent("component", null));
+        String etag = etag(vantageApi.getComponentResponse("component"));
+
+        vantageApi.createOrUpdateVersion("component", "1.0.0", true, new Version("component", "1.0.0"));
+
+        assertEquals(304, vantageApi.getComponentResponse("component", etag).status());
+    }
+
+    private String etag(Response response) {
+        return response.headers().get("ETag").iterator().next();
+    }
+
+    private List<String> names(Page<VantageComponent> page) {
+        return page.getItems().stream().map(VantageComponent::getName).collect(Collectors.toList());
+    }
 }
@@ -0,0 +1,185 @@
+/*
+ * Copyright 2016 Yodle, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+
+ *     http://www.apache.org/licenses/LICENSE-2.0
+
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yodle.vantage.functional;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.junit.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+
+import com.google.common.collect.Lists;
+import com.yodle.vantage.component.dao.QueueDao;
+import com.yodle.vantage.component.domain.DeadLetteredCreateRequest;
+import com.yodle.vantage.component.domain.Version;
+import com.yodle.vantage.component.service.QueueService;
+import com.yodle.vantage.functional.config.VantageFunctionalTest;
+
+public class CreateQueueTest extends VantageFunctionalTest {
+    @Autowired private QueueDao queueDao;
+    @Autowired private QueueService queueService;
+
+    @Test
+    public void createRequestsAreDequeuedInTheOrderTheyWereQueued() {
+        for (int i = 0; i < 5; ++i) {
+            queueDao.saveCreateRequest(new Version("component", "1." + i));
+        }
+
+        for (int i = 0; i < 5; ++i) {
+            QueueDao.QueueCreateRequest createRequest = queueDao.getCreateRequest().get();
+            assertEquals("1." + i, createRequest.v.getVersion());
+            queueDao.deleteCreateRequest(createRequest.id);
+        }
+
+        assertFalse("Queue should be empty", queueDao.getCreateRequest().isPresent());
+    }
+
+    @Test
+    public void givenQueueWasEmptied_saveCreateRequest_startsANewQueue() {
+        queueDao.saveCreateRequest(new Version("component", "1.0"));
+        queueDao.deleteCreateRequest(queueDao.getCreateRequest().get().id);
+
+        queueDao.saveCreateRequest(new Version("component", "2.0"));
+        queueDao.saveCreateRequest(new Version("component", "3.0"));
+
+        assertEquals("2.0", queueDao.getCreateRequest().get().v.getVersion());
+    }
+
+    @Test
+    public void givenEntryQueuedWhileFrontOfQueueIsProcessed_queueStaysLinked() {
+        queueDao.saveCreateRequest(new Version("component", "1.0"));
+        queueDao.saveCreateRequest(new Version("component", "2.0"));
+        queueDao.saveCreateRequest(new Version("component", "3.0"));
+
+        QueueDao.QueueCreateRequest first = queueDao.getCreateRequest().get();
+        queueDao.deleteCreateRequest(first.id);
+        QueueDao.QueueCreateRequest second = queueDao.getCreateRequest().get();
+        queueDao.saveCreateRequest(new Version("component", "4.0"));
+        queueDao.deleteCreateRequest(second.id);
+
+        assertEquals("3.0", queueDao.getCreateRequest().get().v.getVersion());
+        queueDao.deleteCreateRequest(queueDao.getCreateRequest().get().id);
+        assertEquals("4.0", queueDao.getCreateRequest().get().v.getVersion());
+    }
+
+    @Test
+    public void getCreateRequests_returnsFirstEntriesInQueueOrder() {
+        for (int i = 0; i < 5; ++i) {
+            queueDao.saveCreateRequest(new Version("component" + i, "1.0"));
+        }
+
+        List<QueueDao.QueueCreateRequest> createRequests = queueDao.getCreateRequests(0, 3);
+
+        assertEquals(
+                Lists.newArrayList("component0", "component1", "component2"),
+                createRequests.stream().map(qcr -> qcr.v.getComponent()).collect(Collectors.toList())
+        );
+    }
+
+    @Test
+    public void getQueueStats_describesQueue() {
+        long before = System.currentTimeMillis();
+        queueDao.saveCreateRequest(new Version("component", "1.0"));
+        queueDao.saveCreateRequest(new Version("component", "2.0"));
+
+        QueueDao.QueueStats stats = queueDao.getQueueStats();
+
+        assertEquals(2, stats.depth);
+        assertTrue("Oldest entry should have been queued during this test", stats.oldestCreated >= before);
+        assertTrue(stats.totalBlobSize > 0);
+    }
+
+    @Test
+    public void givenEntriesRemoved_getQueueStats_countsWhatsLeft() {
+        Version version = new Version("component", "1.0");
+        queueDao.saveCreateRequest(version);
+        long oneEntry = queueDao.getQueueStats().totalBlobSize;
+        queueDao.saveCreateRequest(version);
+        queueDao.saveCreateRequest(version);
+        List<QueueDao.QueueCreateRequest> createRequests = queueDao.getCreateRequests(0, 2);
+
+        queueDao.lockQueueTail();
+        queueDao.deleteCreateRequest(createRequests.get(0).id);
+        queueDao.deadLetterCreateRequest(createRequests.get(1).id);
+
+        QueueDao.QueueStats stats = queueDao.getQueueStats();
+        assertEquals(1, stats.depth);
+        assertEquals(oneEntry, stats.totalBlobSize);
+    }
+
+    @Test
+    public void givenEmptyQueue_getQueueStats_isEmpty() {
+        QueueDao.QueueStats stats = queueDao.getQueueStats();
+
+        assertEquals(0, stats.depth);
+        assertNull(stats.oldestCreated);
+        assertEquals(0, stats.totalBlobSize);
+    }
+
+    @Test
+    public void givenEntryWaitingToBeRetried_getCreateRequests_passesOverItsComponent() {
+        queueDao.saveCreateRequest(new Version("component1", "1.0"));
+        queueDao.saveCreateRequest(new Version("component2", "1.0"));
+        queueDao.saveCreateRequest(new Version("component1", "2.0"));
+        queueDao.delayCreateRequest(queueDao.getCreateRequest().get().id, 60000);
+
+        assertEquals("component2", queueDao.getCreateRequests(0, 1).get(0).v.getComponent());
+        assertEquals(1, queueDao.getCreateRequests(0, 3).size());
+    }
+
+    @Test
+    public void givenLongRunOfEntriesBehindWaitingEntry_getCreateRequests_findsEntriesPastThem() {
+        for (int i = 0; i < 300; ++i) {
+            queueDao.saveCreateRequest(new Version("component1", "1." + i));
+        }
+        queueDao.saveCreateRequest(new Version("component2", "1.0"));
+        queueDao.delayCreateRequest(queueDao.getCreateRequest().get().id, 60000);
+
+        List<QueueDao.QueueCreateRequest> createRequests = queueDao.getCreateRequests(0, 1);
+
+        assertEquals(1, createRequests.size());
+        assertEquals("component2", createRequests.get(0).v.getComponent());
+    }
+
+    @Test
+    public void givenEntryKeepsFailing_recordFailure_deadLettersItUntilReplayed() {
+        queueDao.saveCreateRequest(new Version("component1", "latest"));
+        queueDao.saveCreateRequest(new Version("component2", "1.0"));
+        String id = queueDao.getCreateRequest().get().id;
+
+        for (int i = 0; i < 5; ++i) {
+            queueService.recordFailure(id, new RuntimeException("failed"));
+        }
+
+        assertEquals("component2", queueDao.getCreateRequest().get().v.getComponent());
+        List<DeadLetteredCreateRequest> deadLetters = vantageApi.getDeadLetters();
+        assertEquals(1, deadLetters.size());
+        assertEquals(id, deadLetters.get(0).getId());
+        assertEquals("component1", deadLetters.get(0).getComponent());
+        assertEquals(5, deadLetters.get(0).getAttempts());
+
+        vantageApi.replayDeadLetter(id);
+
+        assertTrue("Replayed entry should no longer be dead lettered", vantageApi.getDeadLetters().isEmpty());
+        queueDao.deleteCreateRequest(queueDao.getCreateRequest().get().id);
+        assertEquals(id, queueDao.getCreateRequest().get().id);
+    }
+}
@@ -16,18 +16,26 @@
 package com.yodle.vantage.functional;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.fail;
 import static org.springframework.test.util.AssertionErrors.assertTrue;
 
+import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
+import java.util.stream.Collectors;
 
 import feign.FeignException;
 
 import org.junit.Test;
 
+import com.google.common.collect.Lists;
 import com.google.common.collect.Sets;
+import com.yodle.vantage.component.domain.ImpactedVersion;
 import com.yodle.vantage.component.domain.Issue;
 import com.yodle.vantage.component.domain.IssueLevel;
+import com.yodle.vantage.component.domain.IssueStatus;
+import com.yodle.vantage.component.domain.Page;
 import com.yodle.vantage.component.domain.Version;
 import com.yodle.vantage.functional.config.VantageFunctionalTest;
 
@@ -90,6 +98,107 @@ public class IssueGetCreateAndUpdateTest extends VantageFunctionalTest {
         assertEquals(Sets.newHashSet(issue1, issue2, issue3), returnedIssues);
     }
 
+    @Test
+    public void getIssues_answersNotModifiedUntilAnIssueChanges() {
+        createIssue(new Version("component1", "version"));
+        String etag = vantageApi.getIssuesResponse().headers().get("ETag").iterator().next();
+
+        assertEquals(304, vantageApi.getIssuesResponse(etag).status());
+
+        createIssue(new Version("component2", "version"));
+
+        assertEquals(200, vantageApi.getIssuesResponse(etag).status());
+    }
+
+    @Test
+    public void bulkCreateAndUpdateIssues() {
+        Issue existing = createIssue(new Version("component1", "version"));
+        existing.setMessage("updated message");
+        Issue created = new Issue();
+        created.setId("created-issue");
+        created.setLevel(IssueLevel.MAJOR);
+        created.setMessage("message");
+        created.setAffectsVersion(new Version("component2", "version"));
+        created.setFixVersion(new Version("component2", "version2"));
+        Issue invalid = new Issue();
+        invalid.setMessage("no id");
+
+        List<IssueStatus> statuses = vantageApi.createOrUpdateIssues(Lists.newArrayList(existing, created, invalid));
+
+        assertEquals(Lists.newArrayList(
+                new IssueStatus(existing.getId(), IssueStatus.Status.UPDATED, null),
+                new IssueStatus("created-issue", IssueStatus.Status.CREATED, null),
+                new IssueStatus(null, IssueStatus.Status.INVALID, "Issues need an id")
+        ), statuses);
+        assertEquals(existing, vantageApi.getIssue(existing.getId()));
+        assertEquals(created, vantageApi.getIssue("created-issue"));
+        assertEquals(Sets.newHashSet(created), vantageApi.getVersion("component2", "version").getDirectIssues());
+        assertTrue("the fix version should have no issues", vantageApi.getVersion("component2", "version2").getDirectIssues().isEmpty());
+    }
+
+    @Test
+    public void getImpact() {
+        createVersion("library", "1.0");
+        createVersion("library", "2.0");
+        createVersion("application", "1", new HashSet<>(), Sets.newHashSet(createDependency("library", "2.0")));
+        createVersion("other-application", "1", new HashSet<>(), Sets.newHashSet(createDependency("library", "1.0")));
+        Issue issue = createIssue(new Version("library", "2.0"));
+
+        Page<ImpactedVersion> impact = vantageApi.getImpact(issue.getId(), 100);
+
+        assertEquals(
+                Lists.newArrayList(new ImpactedVersion("application", "1", false, true), new ImpactedVersion("library", "2.0", true, true)),
+                impact.getItems()
+        );
+        assertEquals(2L, impact.getTotal());
+        assertNull(impact.getNextCursor());
+    }
+
+    @Test
+    public void getImpactByPage() {
+        createVersion("library", "1.0");
+        createVersion("library", "2.0");
+        createVersion("application", "1", new HashSet<>(), Sets.newHashSet(createDependency("library", "2.0")));
+        Issue issue = createIssue(new Version("library", "1.0"));
+
+        Page<ImpactedVersion> first = vantageApi.getImpact(issue.getId(), 1);
+        Page<ImpactedVersion> second = vantageApi.getImpact(issue.getId(), 1, first.getNextCursor());
+        Page<ImpactedVersion> third = vantageApi.getImpact(issue.getId(), 1, second.getNextCursor());
+
+        assertEquals(Lists.newArrayList(new ImpactedVersion("application", "1", false, true)), first.getItems());
+        assertEquals(Lists.newArrayList(new ImpactedVersion("library", "1.0", true, false)), second.getItems());
+        assertEquals(Lists.newArrayList(new ImpactedVersion("library", "2.0", true, true)), third.getItems());
+        assertEquals(3L, third.getTotal());
+        assertNull("there should be nothing past the last page", third.getNextCursor());
+    }
+
+    @Test
+    public void getImpactOfNonexistentIssue() {
+        try {
+            vantageApi.getImpact("non-existent-issue", 100);
+            fail("Should have thrown a 404");
+        } catch (FeignException e) {
+            assertEquals(404, e.status());
+        }
+    }
+
+    @Test
+    public void searchIssuesByPage() {
+        Version widget = new Version("widget", "1.0");
+        Version gadget = new Version("gadget", "1.0");
+        vantageApi.createOrUpdateIssues(Lists.newArrayList(
+                issue("issue-3", widget), issue("issue-1", widget), issue("issue-2", gadget), issue("issue-4", widget)
+        ));
+
+        Page<Issue> first = vantageApi.searchIssues(2, "WIDGET");
+        Page<Issue> last = vantageApi.searchIssues(2, "WIDGET", first.getNextCursor());
+
+        assertEquals(Lists.newArrayList("issue-1", "issue-3"), ids(first));
+        assertEquals(Lists.newArrayList("issue-4"), ids(last));
+        assertEquals(3, first.getTotal());
+        assertNull(last.getNextCursor());
+    }
+
     @Test
     public void updateIssueWithNochanges() {
         Issue i = createIssue(createVersion("component", "version"));
@@ -164,4 +273,15 @@ public class IssueGetCreateAndUpdateTest extends VantageFunctionalTest {
 
         assertEquals(i, vantageApi.getIssue(i.getId()));
     }
+
+    private Issue issue(String id, Version affectsVersion) {
+        Issue issue = new Issue();
+        issue.setId(id);
+        issue.setAffectsVersion(affectsVersion);
+        return issue;
+    }
+
+    private List<String> ids(Page<Issue> page) {
+        return page.getItems().stream().map(Issue::getId).collect(Collectors.toList());
+    }
 }
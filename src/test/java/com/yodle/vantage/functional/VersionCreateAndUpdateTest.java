@@ -237,5 +237,28 @@ public class VersionCreateAndUpdateTest extends VantageFunctionalTest {
         assertTrue("Dependency should have direct issue", Iterables.getOnlyElement(v.getResolvedDependencies()).getVersion().getDirectIssues().contains(issue));
     }
 
+    @Test
+    public void dryRunCreateReturnsIssuesOfNewDependencyVersion() {
+        createVersion("dep component", "1.0");
+        Issue issue = createIssue(new Version("dep component", "1.0"));
+
+        Version expected = new Version("component", "version");
+        expected.setResolvedDependencies(Sets.newHashSet(createDependency("dep component", "2.0")));
+        Version v = vantageApi.createOrUpdateVersion("component", "version", true, expected);
+
+        assertTrue("Version should have transitive issue from its new dependency version", v.getTransitiveIssues().contains(issue));
+        assertTrue("New dependency version should have direct issue", Iterables.getOnlyElement(v.getResolvedDependencies()).getVersion().getDirectIssues().contains(issue));
+    }
+
+    @Test
+    public void dryRunCreateReturnsIssuesOfNewVersion() {
+        createVersion("component", "1.0");
+        Issue issue = createIssue(new Version("component", "1.0"));
+
+        Version v = vantageApi.createOrUpdateVersion("component", "2.0", true, new Version("component", "2.0"));
+
+        assertTrue("New version should have direct issue", v.getDirectIssues().contains(issue));
+    }
+
 
 }
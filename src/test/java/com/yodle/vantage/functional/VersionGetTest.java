@@ -17,6 +17,7 @@ package com.yodle.vantage.functional;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
@@ -29,18 +30,24 @@ import java.util.stream.Collectors;
 import feign.FeignException;
 
 import org.junit.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
 
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Sets;
 import com.yodle.vantage.component.domain.Dependency;
 import com.yodle.vantage.component.domain.Issue;
+import com.yodle.vantage.component.domain.Page;
 import com.yodle.vantage.component.domain.VantageComponent;
 import com.yodle.vantage.component.domain.Version;
 import com.yodle.vantage.component.domain.VersionId;
+import com.yodle.vantage.component.service.ActiveFlagRebuilder;
 import com.yodle.vantage.functional.config.VantageFunctionalTest;
 
 public class VersionGetTest extends VantageFunctionalTest {
+    @Autowired private JdbcTemplate jdbcTemplate;
+    @Autowired private ActiveFlagRebuilder activeFlagRebuilder;
 
     @Test
     public void getVersionsForNonexistentComponent() {
@@ -260,4 +267,88 @@ public class VersionGetTest extends VantageFunctionalTest {
 
         assertEquals(Sets.newHashSet(sanitizeDependency(new Dependency(v, dependency.getProfiles()))), returnedVersion.getDependents());
     }
+
+    @Test
+    public void getVersionOnlyListsActiveDependents() {
+        Dependency dependency = createDependency("dep", "depversion");
+        createVersion("component", "version1", new HashSet<>(), Sets.newHashSet(dependency));
+        Version v2 = createVersion("component", "version2", new HashSet<>(), Sets.newHashSet(createDependency("dep", "depversion")));
+
+        Version returnedVersion = vantageApi.getVersion(dependency.getVersion().getComponent(), dependency.getVersion().getVersion());
+
+        assertEquals(Sets.newHashSet(sanitizeDependency(new Dependency(v2, dependency.getProfiles()))), returnedVersion.getDependents());
+    }
+
+    @Test
+    public void rebuildingActiveFlagsFixesWrongFlags() {
+        Version v1 = createVersion("component", "version1");
+        Version dep = createVersion("dep", "depversion");
+        createVersion("component", "version2", new HashSet<>(), Sets.newHashSet(createDependency(dep.getComponent(), dep.getVersion())));
+        createVersion("dep", "depversion2");
+        jdbcTemplate.update("MATCH (v:Version) SET v.active = NOT v.active");
+
+        activeFlagRebuilder.rebuild();
+
+        assertFalse("v1 is no longer the most recent version", vantageApi.getVersion(v1.getComponent(), v1.getVersion()).isActive());
+        assertTrue("dep is depended on by the most recent version", vantageApi.getVersion(dep.getComponent(), dep.getVersion()).isActive());
+    }
+
+    @Test
+    public void getVersionCountsActiveDependents() {
+        Dependency dependency = createDependency("dep", "depversion");
+        createVersion("a", "1", new HashSet<>(), Sets.newHashSet(dependency));
+        createVersion("b", "1", new HashSet<>(), Sets.newHashSet(createDependency("dep", "depversion")));
+
+        Version returnedVersion = vantageApi.getVersion(dependency.getVersion().getComponent(), dependency.getVersion().getVersion());
+
+        assertEquals(Long.valueOf(2), returnedVersion.getDependentCount());
+    }
+
+    @Test
+    public void getDependentsPagesThroughDependents() {
+        Dependency dependency = createDependency("dep", "depversion");
+        Version a = createVersion("a", "1", new HashSet<>(), Sets.newHashSet(dependency));
+        Version b = createVersion("b", "1", new HashSet<>(), Sets.newHashSet(createDependency("dep", "depversion")));
+        Version c = createVersion("c", "1", new HashSet<>(), Sets.newHashSet(createDependency("dep", "depversion")));
+
+        Page<Dependency> first = vantageApi.getDependents("dep", "depversion", 2, 1);
+        Page<Dependency> second = vantageApi.getDependents("dep", "depversion", 2, 1, first.getNextCursor());
+
+        assertEquals(3L, first.getTotal());
+        assertEquals(
+                Lists.newArrayList(sanitizeDependency(new Dependency(a, dependency.getProfiles())), sanitizeDependency(new Dependency(b, dependency.getProfiles()))),
+                first.getItems()
+        );
+        assertEquals(Lists.newArrayList(sanitizeDependency(new Dependency(c, dependency.getProfiles()))), second.getItems());
+        assertNull(second.getNextCursor());
+    }
+
+    @Test
+    public void getDependentsFollowsDependenciesUpToDepth() {
+        Version lib = createVersion("lib", "1", new HashSet<>(), Sets.newHashSet(createDependency("dep", "depversion")));
+        Version app = createVersion("app", "1", new HashSet<>(), Sets.newHashSet(createDependency("lib", "1"), createDependency("dep", "depversion")));
+        Version tool = createVersion("tool", "1", new HashSet<>(), Sets.newHashSet(createDependency("app", "1")));
+
+        Page<Dependency> page = vantageApi.getDependents("dep", "depversion", 10, 2);
+
+        assertEquals(
+                Lists.newArrayList(
+                        sanitizeDependency(new Dependency(app, Sets.newHashSet("compile", "testCompile"))),
+                        sanitizeDependency(new Dependency(lib, Sets.newHashSet("compile", "testCompile"))),
+                        sanitizeDependency(new Dependency(tool, new HashSet<>()))
+                ),
+                page.getItems()
+        );
+    }
+
+    @Test
+    public void getDependentsOnlyFollowsDependenciesInProfile() {
+        Version a = createVersion("a", "1", new HashSet<>(), Sets.newHashSet(createDependency("dep", "depversion")));
+        createVersion("b", "1", new HashSet<>(), Sets.newHashSet(new Dependency(new Version("dep", "depversion"), Sets.newHashSet("test"))));
+
+        Page<Dependency> page = vantageApi.getDependentsInProfile("dep", "depversion", 10, "compile");
+
+        assertEquals(1L, page.getTotal());
+        assertEquals(Lists.newArrayList(sanitizeDependency(new Dependency(a, Sets.newHashSet("compile", "testCompile")))), page.getItems());
+    }
 }
@@ -21,8 +21,14 @@ import java.util.Set;
 import feign.Headers;
 import feign.Param;
 import feign.RequestLine;
+import feign.Response;
 
+import com.yodle.vantage.component.domain.DeadLetteredCreateRequest;
+import com.yodle.vantage.component.domain.Dependency;
+import com.yodle.vantage.component.domain.ImpactedVersion;
 import com.yodle.vantage.component.domain.Issue;
+import com.yodle.vantage.component.domain.IssueStatus;
+import com.yodle.vantage.component.domain.Page;
 import com.yodle.vantage.component.domain.VantageComponent;
 import com.yodle.vantage.component.domain.Version;
 
@@ -31,12 +37,28 @@ public interface VantageApi {
     @RequestLine("GET /api/v1/components")
     List<VantageComponent> getAllComponents();
 
+    @RequestLine("GET /api/v1/components?limit={limit}&sort={sort}")
+    Page<VantageComponent> getComponents(@Param("limit") int limit, @Param("sort") String sort);
+
+    @RequestLine("GET /api/v1/components?limit={limit}&sort={sort}&cursor={cursor}")
+    Page<VantageComponent> getComponents(@Param("limit") int limit, @Param("sort") String sort, @Param("cursor") String cursor);
+
+    @RequestLine("GET /api/v1/components?limit={limit}&q={q}")
+    Page<VantageComponent> searchComponents(@Param("limit") int limit, @Param("q") String query);
+
     @RequestLine("PUT /api/v1/components/{component}")
     VantageComponent createOrUpdateComponent(@Param("component") String componentName, VantageComponent component);
 
     @RequestLine("GET /api/v1/components/{component}")
     VantageComponent getComponent(@Param("component") String component);
 
+    @RequestLine("GET /api/v1/components/{component}")
+    Response getComponentResponse(@Param("component") String component);
+
+    @RequestLine("GET /api/v1/components/{component}")
+    @Headers("If-None-Match: {etag}")
+    Response getComponentResponse(@Param("component") String component, @Param("etag") String etag);
+
     @RequestLine("PUT /api/v1/components/{component}/versions/{version}?dryRun={dryRun}")
     Version createOrUpdateVersion(@Param("component") String component, @Param("version") String versionId, @Param("dryRun") boolean dryRun, Version version);
 
@@ -46,6 +68,15 @@ public interface VantageApi {
     @RequestLine("GET /api/v1/components/{component}/versions/{version}")
     Version getVersion(@Param("component") String component, @Param("version") String version);
 
+    @RequestLine("GET /api/v1/components/{component}/versions/{version}/dependents?limit={limit}&depth={depth}")
+    Page<Dependency> getDependents(@Param("component") String component, @Param("version") String version, @Param("limit") int limit, @Param("depth") int depth);
+
+    @RequestLine("GET /api/v1/components/{component}/versions/{version}/dependents?limit={limit}&depth={depth}&cursor={cursor}")
+    Page<Dependency> getDependents(@Param("component") String component, @Param("version") String version, @Param("limit") int limit, @Param("depth") int depth, @Param("cursor") String cursor);
+
+    @RequestLine("GET /api/v1/components/{component}/versions/{version}/dependents?limit={limit}&profile={profile}")
+    Page<Dependency> getDependentsInProfile(@Param("component") String component, @Param("version") String version, @Param("limit") int limit, @Param("profile") String profile);
+
     @RequestLine("PUT /api/v1/issues/{issue}")
     Issue createOrUpdateIssue(@Param("issue") String issueId, Issue issue);
 
@@ -54,4 +85,32 @@ public interface VantageApi {
 
     @RequestLine("GET /api/v1/issues")
     Set<Issue> getIssues();
+
+    @RequestLine("GET /api/v1/issues")
+    Response getIssuesResponse();
+
+    @RequestLine("GET /api/v1/issues")
+    @Headers("If-None-Match: {etag}")
+    Response getIssuesResponse(@Param("etag") String etag);
+
+    @RequestLine("GET /api/v1/issues?limit={limit}&q={q}")
+    Page<Issue> searchIssues(@Param("limit") int limit, @Param("q") String query);
+
+    @RequestLine("GET /api/v1/issues?limit={limit}&q={q}&cursor={cursor}")
+    Page<Issue> searchIssues(@Param("limit") int limit, @Param("q") String query, @Param("cursor") String cursor);
+
+    @RequestLine("POST /api/v1/issues:bulk")
+    List<IssueStatus> createOrUpdateIssues(List<Issue> issues);
+
+    @RequestLine("GET /api/v1/issues/{issue}/impact?limit={limit}")
+    Page<ImpactedVersion> getImpact(@Param("issue") String issueId, @Param("limit") int limit);
+
+    @RequestLine("GET /api/v1/issues/{issue}/impact?limit={limit}&cursor={cursor}")
+    Page<ImpactedVersion> getImpact(@Param("issue") String issueId, @Param("limit") int limit, @Param("cursor") String cursor);
+
+    @RequestLine("GET /api/v1/queue/dead-letters")
+    List<DeadLetteredCreateRequest> getDeadLetters();
+
+    @RequestLine("POST /api/v1/queue/dead-letters/{id}/replay")
+    void replayDeadLetter(@Param("id") String id);
 }
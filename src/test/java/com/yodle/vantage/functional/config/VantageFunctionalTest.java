@@ -50,6 +50,8 @@ import com.yodle.vantage.component.domain.Dependency;
 import com.yodle.vantage.component.domain.Issue;
 import com.yodle.vantage.component.domain.IssueLevel;
 import com.yodle.vantage.component.domain.Version;
+import com.yodle.vantage.component.service.ComponentCache;
+import com.yodle.vantage.component.service.IssueIndex;
 import com.yodle.vantage.component.service.QueueService;
 
 @RunWith(SpringJUnit4ClassRunner.class)
@@ -61,6 +63,8 @@ public abstract class VantageFunctionalTest {
     @Autowired private ObjectMapper objectMapper;
     @Autowired private ServerControls serverControls;
     @Autowired private QueueService queueService;
+    @Autowired private IssueIndex issueIndex;
+    @Autowired private ComponentCache componentCache;
 
     @Value("${local.server.port}") private int port;
     protected VantageApi vantageApi;
@@ -80,6 +84,8 @@ public abstract class VantageFunctionalTest {
         db.execute("MATCH (n) DETACH DELETE n");
         tx.success();
         tx.close();
+        issueIndex.refresh();
+        componentCache.invalidateAll();
     }
 
     /**